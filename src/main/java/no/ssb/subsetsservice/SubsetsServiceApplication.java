@@ -2,8 +2,10 @@ package no.ssb.subsetsservice;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class SubsetsServiceApplication {
 	public static void main(String[] args) {
 		SpringApplication.run(SubsetsServiceApplication.class, args);
@@ -5,6 +5,7 @@ import no.ssb.subsetsservice.service.DatabaseInterface;
 import no.ssb.subsetsservice.util.KlassURNResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -18,13 +19,17 @@ public class HealthController {
 
     private static HealthController instance;
 
+    private final KlassURNResolver klassURNResolver;
+
     public static HealthController getInstance(){
-        if (instance == null)
-            instance = new HealthController();
         return instance;
     }
 
-    private HealthController(){}
+    @Autowired
+    public HealthController(KlassURNResolver klassURNResolver){
+        this.klassURNResolver = klassURNResolver;
+        instance = this;
+    }
 
     @GetMapping("/health/alive")
     public ResponseEntity<String> alive() {
@@ -34,7 +39,7 @@ public class HealthController {
     @GetMapping("/health/ready")
     public ResponseEntity<String> ready() {
         LOG.trace("starting ready check. Pinging KLASS");
-        boolean klassReady = new KlassURNResolver().pingKLASSClassifications();
+        boolean klassReady = klassURNResolver.pingKLASSClassifications();
         LOG.trace("klass ready: "+klassReady);
         LOG.trace("getting database instance");
         DatabaseInterface database = DatabaseFactory.getDatabase(DatabaseFactory.DEFAULT_DATABASE);
@@ -0,0 +1,71 @@
+package no.ssb.subsetsservice.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import no.ssb.subsetsservice.service.KlassDriftService;
+import no.ssb.subsetsservice.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Admin endpoints of the KLASS drift job, see KlassDriftService.
+ */
+@CrossOrigin
+@RestController
+public class KlassDriftController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KlassDriftController.class);
+
+    private final KlassDriftService klassDriftService;
+
+    @Autowired
+    public KlassDriftController(KlassDriftService klassDriftService) {
+        this.klassDriftService = klassDriftService;
+    }
+
+    /**
+     * Start a drift run: revalidate the KLASS documents the stored versions depend on, and enrich the versions
+     * that depend on changed documents again.
+     *
+     * @param classificationIds also enrich the versions with codes of these classifications again, whether KLASS has changed or not
+     * @param all enrich all stored versions again
+     */
+    @PostMapping("/auth/v2/admin/klass/drift")
+    public ResponseEntity<JsonNode> startDriftRun(@RequestParam(required = false) List<String> classificationIds,
+                                                  @RequestParam(defaultValue = "false") boolean all) {
+        LOG.info("POST KLASS drift run, classificationIds " + classificationIds + ", all " + all);
+        Set<String> forced = new LinkedHashSet<>();
+        if (classificationIds != null) {
+            for (String classificationId : classificationIds) {
+                if (!Utils.isClean(classificationId))
+                    return ErrorHandler.newHttpError("Illegal characters in classificationIds", HttpStatus.BAD_REQUEST, LOG);
+                forced.add(classificationId);
+            }
+        }
+        if (!klassDriftService.start(forced, all))
+            return ErrorHandler.newHttpError("A KLASS drift run is already in progress", HttpStatus.CONFLICT, LOG);
+        return new ResponseEntity<>(getStatus(), HttpStatus.ACCEPTED);
+    }
+
+    @GetMapping("/auth/v2/admin/klass/drift")
+    public ResponseEntity<JsonNode> getDriftStatus() {
+        return new ResponseEntity<>(getStatus(), HttpStatus.OK);
+    }
+
+    private ObjectNode getStatus() {
+        ObjectNode status = new ObjectMapper().createObjectNode();
+        status.put("running", klassDriftService.isRunning());
+        status.put("indexedVersions", klassDriftService.getReferenceIndex().getVersions().size());
+        status.set("lastRun", klassDriftService.getLastReport());
+        return status;
+    }
+}
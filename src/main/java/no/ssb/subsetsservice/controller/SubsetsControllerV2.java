@@ -8,7 +8,11 @@ import no.ssb.subsetsservice.entity.Field;
 import no.ssb.subsetsservice.service.DatabaseFactory;
 import no.ssb.subsetsservice.service.DatabaseInterface;
 import no.ssb.subsetsservice.service.MetricsService;
+import no.ssb.subsetsservice.util.KlassClassification;
+import no.ssb.subsetsservice.util.KlassContext;
+import no.ssb.subsetsservice.util.KlassFetchException;
 import no.ssb.subsetsservice.util.KlassURNResolver;
+import no.ssb.subsetsservice.util.KlassVersionIndex;
 import no.ssb.subsetsservice.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,18 +32,16 @@ import static org.springframework.http.HttpStatus.*;
 public class SubsetsControllerV2 {
 
     private MetricsService metricsService;
+    private final KlassURNResolver klassURNResolver;
 
     private static SubsetsControllerV2 instance;
     private static final Logger LOG = LoggerFactory.getLogger(SubsetsControllerV2.class);
     private static String BACKEND_TYPE; // Env BACKEND_TYPE must be passed. See BackendFactory for possible values
 
     @Autowired
-    public SubsetsControllerV2(MetricsService metricsService) {
+    public SubsetsControllerV2(MetricsService metricsService, KlassURNResolver klassURNResolver) {
         this.metricsService = metricsService;
-        init();
-    }
-
-    public SubsetsControllerV2() {
+        this.klassURNResolver = klassURNResolver;
         init();
     }
 
@@ -48,9 +50,6 @@ public class SubsetsControllerV2 {
         instance = this;
         BACKEND_TYPE = getBackendType();
         LOG.debug("BACKEND TYPE: " + getBackendType());
-        ResponseEntity<JsonNode> initRE = DatabaseFactory.getDatabase(BACKEND_TYPE).initializeDatabase();
-        if (!initRE.getStatusCode().is2xxSuccessful())
-            LOG.error("Could not initialize backend of type '" + BACKEND_TYPE + "'. Init returned status code " + initRE.getStatusCode() + " and body " + (initRE.hasBody() ? initRE.getBody().toString() : ""));
     }
 
     public static SubsetsControllerV2 getInstance() {
@@ -277,6 +276,23 @@ public class SubsetsControllerV2 {
             @RequestParam(defaultValue = "false") boolean ignoreSuperfluousFields,
             @RequestParam(defaultValue = "all") String language,
             @RequestBody JsonNode putVersion) {
+        KlassContext klassContext = new KlassContext(klassURNResolver);
+        try {
+            return putSubsetVersion(seriesId, versionUID, ignoreSuperfluousFields, language, putVersion, klassContext);
+        } finally {
+            klassContext.cancel();
+        }
+    }
+
+    /**
+     * @param klassContext KLASS resources already resolved by the request this PUT is part of
+     */
+    private ResponseEntity<JsonNode> putSubsetVersion(String seriesId,
+                                                      String versionUID,
+                                                      boolean ignoreSuperfluousFields,
+                                                      String language,
+                                                      JsonNode putVersion,
+                                                      KlassContext klassContext) {
         LOG.info("PUT subset version of series " + seriesId + " with version id " + versionUID);
         if (!Utils.isClean(seriesId))
             return ErrorHandler.illegalID(LOG);
@@ -286,6 +302,7 @@ public class SubsetsControllerV2 {
         if (putVersion.isNull() || putVersion.isEmpty() || putVersion.isArray())
             return ErrorHandler.newHttpError("PUT body must be a non-empty object representing a single subset version", BAD_REQUEST, LOG);
 
+        prefetchClassifications(putVersion, klassContext);
         ResponseEntity<JsonNode> getPreviousEditionOfVersion = getVersion(seriesId, versionUID, "all");
         HttpStatus status = getPreviousEditionOfVersion.getStatusCode();
         if (status.equals(NOT_FOUND)) {
@@ -300,10 +317,10 @@ public class SubsetsControllerV2 {
         editablePutVersion.set(Field.SUBSET_ID, previousEditionOfVersion.get(Field.SUBSET_ID));
         editablePutVersion.put(Field.LAST_MODIFIED, Utils.getNowISO());
         editablePutVersion.set(Field.CREATED_DATE, previousEditionOfVersion.get(Field.CREATED_DATE));
-        editablePutVersion = Utils.addCodeVersionsToAllCodesInVersion(editablePutVersion, LOG);
-        Map<String, ResponseEntity<JsonNode>> klassVersionsMap = getRelevantClassificationVersions(editablePutVersion);
-        editablePutVersion = addCodeNamesFromKlass(editablePutVersion, klassVersionsMap);
-        editablePutVersion = addNotesFromKlass(editablePutVersion, klassVersionsMap);
+        ResponseEntity<JsonNode> enrichVersionRE = enrichVersionFromKlass(editablePutVersion, klassContext, false);
+        if (!enrichVersionRE.getStatusCode().is2xxSuccessful())
+            return enrichVersionRE;
+        editablePutVersion = (ObjectNode) enrichVersionRE.getBody();
 
         if (ignoreSuperfluousFields) {
             editablePutVersion = removeSuperfluousVersionFields(editablePutVersion);
@@ -333,7 +350,7 @@ public class SubsetsControllerV2 {
                 if (!isOverlappingValidityRE.getStatusCode().is2xxSuccessful()) {
                     return isOverlappingValidityRE;
                 }
-                ResponseEntity<JsonNode> updateLatestPublishedValidUntilRE = updateLatestPublishedValidUntil(isOverlappingValidityRE, editablePutVersion, seriesId);
+                ResponseEntity<JsonNode> updateLatestPublishedValidUntilRE = updateLatestPublishedValidUntil(isOverlappingValidityRE, editablePutVersion, seriesId, klassContext);
                 //TODO: Handle if updateLatestPublishedValidUntilRE comes back non-200
             }
         } else { // Another stricter set of rules for if the old version is OPEN
@@ -367,6 +384,22 @@ public class SubsetsControllerV2 {
             @RequestParam(defaultValue = "false") boolean ignoreSuperfluousFields,
             @RequestBody JsonNode version,
             @RequestParam(defaultValue = "all") String language) {
+        KlassContext klassContext = new KlassContext(klassURNResolver);
+        try {
+            return postSubsetVersion(seriesId, ignoreSuperfluousFields, version, language, klassContext);
+        } finally {
+            klassContext.cancel();
+        }
+    }
+
+    /**
+     * @param klassContext the KLASS resources of the request, possibly already being fetched
+     */
+    private ResponseEntity<JsonNode> postSubsetVersion(String seriesId,
+                                                       boolean ignoreSuperfluousFields,
+                                                       JsonNode version,
+                                                       String language,
+                                                       KlassContext klassContext) {
         LOG.info("POST request to create a version of series " + seriesId);
         if (!Utils.isClean(seriesId))
             return ErrorHandler.illegalID(LOG);
@@ -377,6 +410,7 @@ public class SubsetsControllerV2 {
         if (version.isArray())
             return ErrorHandler.newHttpError("POST body was an array. Should be an object representing a single subset version.", BAD_REQUEST, LOG);
 
+        prefetchClassifications(version, klassContext);
         ResponseEntity<JsonNode> getSeriesByIDRE = getSubsetSeriesByID(seriesId, false, "all");
         if (!getSeriesByIDRE.getStatusCode().equals(OK)) {
             LOG.error("Attempt to get subset series by id '" + seriesId + "' returned a non-OK status code.");
@@ -404,11 +438,10 @@ public class SubsetsControllerV2 {
         editableVersion.put(Field.SUBSET_ID, seriesId);
         editableVersion.put(Field.LAST_MODIFIED, Utils.getNowISO());
         editableVersion.put(Field.CREATED_DATE, Utils.getNowDate());
-        editableVersion = Utils.addCodeVersionsToAllCodesInVersion(editableVersion, LOG);
-        Map<String, ResponseEntity<JsonNode>> klassVersionsMap = getRelevantClassificationVersions(editableVersion);
-        LOG.debug("klassVersionsMap size: "+klassVersionsMap.size());
-        editableVersion = addCodeNamesFromKlass(editableVersion, klassVersionsMap);
-        editableVersion = addNotesFromKlass(editableVersion, klassVersionsMap);
+        ResponseEntity<JsonNode> enrichVersionRE = enrichVersionFromKlass(editableVersion, klassContext, false);
+        if (!enrichVersionRE.getStatusCode().is2xxSuccessful())
+            return enrichVersionRE;
+        editableVersion = (ObjectNode) enrichVersionRE.getBody();
 
         boolean isStatusOpen = editableVersion.get(Field.ADMINISTRATIVE_STATUS).asText().equals(Field.OPEN);
 
@@ -428,17 +461,14 @@ public class SubsetsControllerV2 {
         LOG.debug("Getting statistical units for each individual classification used");
         Map<String, Boolean> statisticalUnitMap = new HashMap<>();
         classificationMap.keySet().forEach(k -> {
-            ResponseEntity<JsonNode> getClassificationRE = KlassURNResolver.getFrom(KlassURNResolver.makeKLASSClassificationURL(k));
-            if (getClassificationRE.getStatusCode().is2xxSuccessful()) {
-                JsonNode classification = getClassificationRE.getBody();
-                if (!classification.has(Field.STATISTICAL_UNITS))
+            try {
+                KlassClassification classification = klassContext.getClassification(k);
+                if (classification.getStatisticalUnits() == null)
                     LOG.error("Classification " + k + " did not contain a " + Field.STATISTICAL_UNITS + " field!");
-                else {
-                    ArrayNode classificationStatisticalUnits = (ArrayNode) classification.get(Field.STATISTICAL_UNITS);
-                    classificationStatisticalUnits.forEach(su -> statisticalUnitMap.put(su.asText(), true));
-                }
-            } else {
-                errorMessage.accumulateAndGet("GET Classification " + k + " did not return 2xx successful. Instead returned " + getClassificationRE.getStatusCode() + ". ", (x, y) -> x + y);
+                else
+                    classification.getStatisticalUnits().forEach(su -> statisticalUnitMap.put(su, true));
+            } catch (KlassFetchException e) {
+                errorMessage.accumulateAndGet("GET Classification " + k + " did not return 2xx successful. Instead returned " + e.getStatus() + ". ", (x, y) -> x + y);
             }
         });
         if (!errorMessage.get().isEmpty())
@@ -482,7 +512,7 @@ public class SubsetsControllerV2 {
             ResponseEntity<JsonNode> isOverlappingValidityRE = isOverlappingValidity(editableVersion);
             if (!isOverlappingValidityRE.getStatusCode().is2xxSuccessful())
                 return isOverlappingValidityRE;
-            ResponseEntity<JsonNode> updateLatestPublishedValidUntilRE = updateLatestPublishedValidUntil(isOverlappingValidityRE, editableVersion, seriesId);
+            ResponseEntity<JsonNode> updateLatestPublishedValidUntilRE = updateLatestPublishedValidUntil(isOverlappingValidityRE, editableVersion, seriesId, klassContext);
             //TODO: Check this response entity?
         }
 
@@ -498,28 +528,147 @@ public class SubsetsControllerV2 {
             return saveVersionInSeriesRE;
     }
 
-    private Map<String, ResponseEntity<JsonNode>> getRelevantClassificationVersions(JsonNode subsetVersion) {
-        ArrayNode codesArrayNode = subsetVersion.get(Field.CODES).deepCopy();
-        Map<String, ResponseEntity<JsonNode>> klassVersionsMap = new HashMap<>();
-        LOG.debug("GET relevant latest classification versions for (each of) the " + codesArrayNode.size() + " code(s) in the subset version, and store them in a Map");
+    /**
+     * Start fetching the KLASS classifications of the codes in the request body, so that KLASS is queried
+     * while the request reads from the database. Call it only once the ids and the shape of the body have been checked.
+     * Classification ids that are not clean are left for the validation to reject, and are never sent to KLASS from here.
+     * If the request fails before the enrichment, the fetches that have not started are cancelled with the context.
+     * Failures are not reported here, they are remembered by the context and reported by the enrichment that needs the classification.
+     */
+    private void prefetchClassifications(JsonNode version, KlassContext klassContext) {
+        Set<String> classificationURLs = new LinkedHashSet<>();
+        for (JsonNode code : version.path(Field.CODES))
+            if (code.hasNonNull(Field.CLASSIFICATION_ID) && Utils.isClean(code.get(Field.CLASSIFICATION_ID).asText()))
+                classificationURLs.add(klassURNResolver.makeKLASSClassificationURL(code.get(Field.CLASSIFICATION_ID).asText()));
+        if (!classificationURLs.isEmpty())
+            klassContext.prefetchAsync(classificationURLs);
+    }
+
+    /**
+     * Resolve the classification versions, names and notes of all the codes in the version from KLASS.
+     * The distinct KLASS resources that are needed are fetched concurrently before each step,
+     * so the steps themselves are served from the KLASS context of the request.
+     *
+     * @param editableVersion subset version with codes
+     * @param klassContext the KLASS resources of the request
+     * @param strict fail if any KLASS resource fails, instead of leaving the names and notes it would have given out
+     * @return OK with the enriched version as body, or an error if any of the KLASS resources could not be resolved in time
+     */
+    private ResponseEntity<JsonNode> enrichVersionFromKlass(ObjectNode editableVersion, KlassContext klassContext, boolean strict) {
+        Map<String, KlassVersionIndex> klassVersionsMap;
+        try {
+            klassContext.prefetch(Utils.getClassificationURLs(editableVersion, klassURNResolver));
+            editableVersion = Utils.addCodeVersionsToAllCodesInVersion(editableVersion, klassContext, LOG);
+            if (klassURNResolver.getEnrichmentMode() == KlassURNResolver.EnrichmentMode.CODES) {
+                klassVersionsMap = getRelevantCodes(editableVersion, klassContext);
+            } else {
+                klassContext.prefetch(Utils.getLatestClassificationVersionURLs(editableVersion));
+                klassVersionsMap = getRelevantClassificationVersions(editableVersion, klassContext, strict);
+            }
+            LOG.debug("klassVersionsMap size: "+klassVersionsMap.size());
+            editableVersion = addCodeNamesFromKlass(editableVersion, klassVersionsMap, klassContext, strict);
+            editableVersion = addNotesFromKlass(editableVersion, klassVersionsMap, klassContext, strict);
+        } catch (KlassFetchException e) {
+            return ErrorHandler.newHttpError(
+                    "Could not resolve the codes of the subset version against KLASS: " + e.getMessage(),
+                    e.getStatus().equals(GATEWAY_TIMEOUT) ? GATEWAY_TIMEOUT : FAILED_DEPENDENCY,
+                    LOG);
+        }
+        LOG.debug("The request has resolved " + klassContext.size() + " distinct KLASS resources");
+        return new ResponseEntity<>(editableVersion, OK);
+    }
+
+    /**
+     * Resolve the classification versions, names and notes of the codes of a stored version against KLASS again,
+     * the same way as when the version was written, to pick up corrections KLASS has published since.
+     * Nothing is stored, and the other rules of PUT are not checked, since the version itself is not changed by its editors.
+     * Unlike a write, any KLASS resource that can not be resolved fails the enrichment, so that a KLASS outage does not
+     * take names and notes away from stored versions.
+     *
+     * @param storedVersion the version as it is stored
+     * @return OK with the re-enriched version as body, or the error of the enrichment or the schema validation
+     */
+    public ResponseEntity<JsonNode> reenrichVersion(JsonNode storedVersion, KlassContext klassContext) {
+        ResponseEntity<JsonNode> enrichVersionRE = enrichVersionFromKlass(storedVersion.deepCopy(), klassContext, true);
+        if (!enrichVersionRE.getStatusCode().is2xxSuccessful())
+            return enrichVersionRE;
+        ResponseEntity<JsonNode> versionSchemaValidationRE = validateVersion(enrichVersionRE.getBody());
+        if (!versionSchemaValidationRE.getStatusCode().is2xxSuccessful())
+            return versionSchemaValidationRE;
+        return enrichVersionRE;
+    }
+
+    private Map<String, KlassVersionIndex> getRelevantClassificationVersions(JsonNode subsetVersion, KlassContext klassContext, boolean strict) throws KlassFetchException {
+        ArrayNode codesArrayNode = (ArrayNode) subsetVersion.get(Field.CODES);
+        Map<String, KlassVersionIndex> klassVersionsMap = new HashMap<>();
+        LOG.debug("GET relevant latest classification versions for (each of) the " + codesArrayNode.size() + " code(s) in the subset version, and store their code indexes in a Map");
         for (int i = 0; i < codesArrayNode.size(); i++) {
             LOG.debug("Getting latest classificationVersion containing code nr " + (i + 1) + "/" + codesArrayNode.size() + " in subset version.");
-            ArrayNode classificationVersionsArrayNode = codesArrayNode.get(i).get(Field.CLASSIFICATION_VERSIONS).deepCopy();
-            String latestVersionAsText = classificationVersionsArrayNode.get(0).asText();
+            String latestVersionAsText = codesArrayNode.get(i).get(Field.CLASSIFICATION_VERSIONS).get(0).asText();
             for (String languageCode : Utils.LANGUAGE_CODES) {
-                LOG.debug("Getting latest classificationVersion in language '" + languageCode + "' for this code");
                 String latestKlassVersionURL = latestVersionAsText + ".json?language=" + languageCode;
-                LOG.debug("latest klass version URL for this language: " + latestKlassVersionURL);
                 if (!klassVersionsMap.containsKey(latestKlassVersionURL)) {
-                    LOG.debug("A response entity for the request URL " + latestKlassVersionURL + " was not present in the klass versions map, so we now request it from KLASS api ...");
-                    ResponseEntity<JsonNode> latestKlassVersionRE = KlassURNResolver.getFrom(latestKlassVersionURL);
-                    klassVersionsMap.put(latestKlassVersionURL, latestKlassVersionRE);
+                    LOG.debug("A code index for the request URL " + latestKlassVersionURL + " was not present in the klass versions map, so we now request it through the KLASS context ...");
+                    KlassVersionIndex versionIndex = getVersionIndexOrNull(latestKlassVersionURL, klassContext, strict);
+                    if (versionIndex != null)
+                        klassVersionsMap.put(latestKlassVersionURL, versionIndex);
                 }
             }
         }
         return klassVersionsMap;
     }
 
+    /**
+     * Ask KLASS only for the codes used in the subset version, instead of downloading whole classification versions.
+     * Codes with the same classification and validity range share classification versions, so they are requested together,
+     * with one codes.json?selectCodes request (or more, for long code lists) per language.
+     *
+     * @return code indexes with the same keys as getRelevantClassificationVersions: latest classification version URL and language
+     */
+    private Map<String, KlassVersionIndex> getRelevantCodes(JsonNode subsetVersion, KlassContext klassContext) throws KlassFetchException {
+        Map<List<String>, Set<String>> codesByClassificationAndRange = new LinkedHashMap<>();
+        Map<List<String>, String> latestVersionByClassificationAndRange = new HashMap<>();
+        for (JsonNode code : subsetVersion.get(Field.CODES)) {
+            String validTo = code.has(Field.VALID_TO_IN_REQUESTED_RANGE) && !code.get(Field.VALID_TO_IN_REQUESTED_RANGE).isNull() ? code.get(Field.VALID_TO_IN_REQUESTED_RANGE).asText() : "";
+            List<String> group = List.of(code.get(Field.CLASSIFICATION_ID).asText(), code.get(Field.VALID_FROM_IN_REQUESTED_RANGE).asText(), validTo);
+            codesByClassificationAndRange.computeIfAbsent(group, g -> new LinkedHashSet<>()).add(code.get(Field.CODE).asText());
+            latestVersionByClassificationAndRange.putIfAbsent(group, code.get(Field.CLASSIFICATION_VERSIONS).get(0).asText());
+        }
+        Map<String, String> versionsMapKeyByCodesURL = new LinkedHashMap<>();
+        codesByClassificationAndRange.forEach((group, codes) -> {
+            for (String languageCode : Utils.LANGUAGE_CODES) {
+                String versionsMapKey = latestVersionByClassificationAndRange.get(group) + ".json?language=" + languageCode;
+                klassURNResolver.makeKLASSSelectCodesURLs(group.get(0), group.get(1), group.get(2), codes, languageCode)
+                        .forEach(url -> versionsMapKeyByCodesURL.put(url, versionsMapKey));
+            }
+        });
+        LOG.debug("Getting the " + subsetVersion.get(Field.CODES).size() + " code(s) of the subset version in " + codesByClassificationAndRange.size() + " group(s) with " + versionsMapKeyByCodesURL.size() + " KLASS codes request(s)");
+        klassContext.prefetch(versionsMapKeyByCodesURL.keySet());
+
+        Map<String, Map<String, KlassVersionIndex.Item>> itemsByVersionsMapKey = new HashMap<>();
+        for (Map.Entry<String, String> entry : versionsMapKeyByCodesURL.entrySet()) {
+            Map<String, KlassVersionIndex.Item> items = itemsByVersionsMapKey.computeIfAbsent(entry.getValue(), k -> new HashMap<>());
+            klassContext.getVersionIndex(entry.getKey()).items().forEach(item -> items.putIfAbsent(item.getCode(), item));
+        }
+        Map<String, KlassVersionIndex> klassVersionsMap = new HashMap<>();
+        itemsByVersionsMapKey.forEach((key, items) -> klassVersionsMap.put(key, new KlassVersionIndex(items)));
+        return klassVersionsMap;
+    }
+
+    /**
+     * @param strict throw if the KLASS resource can not be resolved, instead of returning null
+     */
+    private KlassVersionIndex getVersionIndexOrNull(String klassVersionURL, KlassContext klassContext, boolean strict) throws KlassFetchException {
+        try {
+            return klassContext.getVersionIndex(klassVersionURL);
+        } catch (KlassFetchException e) {
+            if (strict)
+                throw e;
+            LOG.warn("Could not get classification version " + klassVersionURL + " from KLASS: " + e.getMessage());
+            return null;
+        }
+    }
+
     @GetMapping("/v2/subsets/{id}/versions")
     public ResponseEntity<JsonNode> getVersions(
             @PathVariable("id") String id,
@@ -591,29 +740,32 @@ public class SubsetsControllerV2 {
     private ObjectNode setSingleLanguage(ObjectNode versionNode, String languageCode) {
         ObjectNode versionNodeCopy = versionNode.deepCopy();
         ArrayNode codes = versionNodeCopy.get(Field.CODES).deepCopy();
-        for (int i = 0; i < codes.size(); i++) {
-            ObjectNode code = codes.get(i).deepCopy();
-            ArrayNode nameMLTArray = code.get(Field.NAME).deepCopy();
-            for (JsonNode nameMLT : nameMLTArray) {
-                if (nameMLT.get("languageCode").asText().equals(languageCode)) {
-                    code.put(Field.NAME, nameMLT.get("languageText").asText());
-                    codes.set(i, code);
-                    break;
-                }
+        for (int i = 0; i < codes.size(); i++)
+            codes.set(i, setSingleLanguageOfCode(codes.get(i), languageCode));
+        versionNodeCopy.set(Field.CODES, codes);
+        return versionNodeCopy;
+    }
+
+    /**
+     * @return a copy of the code with the name and notes in the language as text, if the code has them in that language
+     */
+    private static ObjectNode setSingleLanguageOfCode(JsonNode codeNode, String languageCode) {
+        ObjectNode code = codeNode.deepCopy();
+        for (JsonNode nameMLT : codeNode.get(Field.NAME)) {
+            if (nameMLT.get("languageCode").asText().equals(languageCode)) {
+                code.put(Field.NAME, nameMLT.get("languageText").asText());
+                break;
             }
-            if (code.has(Field.NOTES)) {
-                ArrayNode notesMLTArrayCopy = code.get(Field.NOTES).deepCopy();
-                for (JsonNode noteMLT : notesMLTArrayCopy) {
-                    if (noteMLT.get(Field.LANGUAGE_CODE).asText().equals(languageCode)) {
-                        code.put(Field.NOTES, noteMLT.get(Field.LANGUAGE_TEXT).asText());
-                        codes.set(i, code);
-                        break;
-                    }
+        }
+        if (codeNode.has(Field.NOTES)) {
+            for (JsonNode noteMLT : codeNode.get(Field.NOTES)) {
+                if (noteMLT.get(Field.LANGUAGE_CODE).asText().equals(languageCode)) {
+                    code.put(Field.NOTES, noteMLT.get(Field.LANGUAGE_TEXT).asText());
+                    break;
                 }
             }
         }
-        versionNodeCopy.set(Field.CODES, codes);
-        return versionNodeCopy;
+        return code;
     }
 
     /**
@@ -647,21 +799,12 @@ public class SubsetsControllerV2 {
 
         if (!isFromDate && !isToDate) {
             LOG.debug("getting all codes of the latest/current version of subset " + id);
-            ResponseEntity<JsonNode> versionsByIDRE = getVersions(id, includeDrafts, includeFuture, language);
-            JsonNode responseBodyJSON = versionsByIDRE.getBody();
-            if (!versionsByIDRE.getStatusCode().equals(OK))
-                return resolveNonOKDatabaseResponse("get versions of series with id " + id + " ", versionsByIDRE);
-            else {
-                if (responseBodyJSON == null) {
-                    return ErrorHandler.newHttpError("response body of getSubset with id " + id + " was null, so could not get codes.", INTERNAL_SERVER_ERROR, LOG);
-                }
-                String date = Utils.getNowDate();
-                ResponseEntity<JsonNode> codesAtRE = getSubsetCodesAt(id, date, includeFuture, includeDrafts, language);
-                if (!codesAtRE.getStatusCode().equals(OK))
-                    return resolveNonOKDatabaseResponse("GET codesAt " + date + " in series with id " + id + " ", codesAtRE);
-                ArrayNode codes = (ArrayNode) codesAtRE.getBody();
-                return new ResponseEntity<>(codes, OK);
-            }
+            String date = Utils.getNowDate();
+            ResponseEntity<JsonNode> codesAtRE = getSubsetCodesAt(id, date, includeFuture, includeDrafts, language);
+            if (!codesAtRE.getStatusCode().equals(OK))
+                return resolveNonOKDatabaseResponse("GET codesAt " + date + " in series with id " + id + " ", codesAtRE);
+            ArrayNode codes = (ArrayNode) codesAtRE.getBody();
+            return new ResponseEntity<>(codes, OK);
         }
 
         if (language == null || language.isEmpty() || !Arrays.asList(Utils.LANGUAGE_CODES).contains(language)) {
@@ -670,59 +813,36 @@ public class SubsetsControllerV2 {
         }
 
         // If a date interval is specified using 'from' and/or 'to' query parameters
-        ResponseEntity<JsonNode> getAllVersionsRE = getVersions(id, includeFuture, includeDrafts, language);
-        if (!getAllVersionsRE.getStatusCode().equals(OK))
-            return getAllVersionsRE;
-        JsonNode allVersionsArrayNode = getAllVersionsRE.getBody();
         LOG.debug(String.format("Getting valid codes of subset %s from date %s to date %s", id, from, to));
-
-        if (allVersionsArrayNode == null)
+        ResponseEntity<JsonNode> codesInRangeRE = DatabaseFactory.getDatabase(BACKEND_TYPE).getCodesInRange(id, from, to, includeFuture, includeDrafts);
+        if (!codesInRangeRE.getStatusCode().equals(OK))
+            return codesInRangeRE;
+        JsonNode codesInRange = codesInRangeRE.getBody();
+        if (codesInRange == null)
             return ErrorHandler.newHttpError("Response body was null", INTERNAL_SERVER_ERROR, LOG);
-        if (!allVersionsArrayNode.isArray())
+        if (!codesInRange.isArray())
             return ErrorHandler.newHttpError("Response body was not array", INTERNAL_SERVER_ERROR, LOG);
-
-        ArrayNode versionsValidInDateRange = (ArrayNode) allVersionsArrayNode;
-        int nrOfVersions = versionsValidInDateRange.size();
-        LOG.debug("Total nr of versions of subset series '" + id + "': " + nrOfVersions);
-
-        for (int i = versionsValidInDateRange.size() - 1; i >= 0; i--) {
-            JsonNode version = versionsValidInDateRange.get(i);
-            if (!includeFuture && version.get(Field.VALID_FROM).asText().compareTo(Utils.getNowDate()) > 0) {
-                versionsValidInDateRange.remove(i);
-            } else if (!includeDrafts && !version.get(Field.ADMINISTRATIVE_STATUS).asText().equals(Field.OPEN)) {
-                versionsValidInDateRange.remove(i);
-            } else if (isToDate && version.get(Field.VALID_FROM).asText().compareTo(to) >= 0) {
-                versionsValidInDateRange.remove(i);
-            } else if (isFromDate && version.has(Field.VALID_UNTIL) && version.get(Field.VALID_UNTIL).asText().compareTo(from) <= 0) {
-                versionsValidInDateRange.remove(i);
-            }
-        }
+        LOG.debug("There are " + codesInRange.size() + " codes in the versions of subset series '" + id + "' that are valid in the range");
 
         // The point of this is that no two codes with the same name, code and level should be added twice to the list
         // AND classification versions should not be duplicated in the classificationVersionList
 
         Map<String, Set<String>> classificationVersionsMap = new HashMap<>();
 
-        for (JsonNode subsetVersion : versionsValidInDateRange) {
-            LOG.debug("Version " + subsetVersion.get(Field.VERSION_ID) + " is valid in the interval, so its codes will be included");
-            // . . . using each code in this version as key, increment corresponding integer value in map
-            JsonNode codes = subsetVersion.get(Field.CODES);
-            ArrayNode codesArrayNode = (ArrayNode) codes;
-            LOG.debug("There are " + codesArrayNode.size() + " codes in version " + subsetVersion.get(Field.VERSION_ID));
-            for (JsonNode codeJsonNode : codesArrayNode) {
-                String classificationId = codeJsonNode.get(Field.CLASSIFICATION_ID).asText();
-                String code = codeJsonNode.get(Field.CODE).asText();
-                String name = codeJsonNode.get(Field.NAME).asText();
-                String level = codeJsonNode.get(Field.LEVEL).asText();
-                String codeURN = classificationId + "_" + code + "_" + name + "_" + level;
-                ArrayNode classificationVersionsArrayNode = codeJsonNode.get(Field.CLASSIFICATION_VERSIONS).deepCopy();
-                Set<String> classificationVersionsSet = new HashSet<>();
-                classificationVersionsArrayNode.forEach(e -> classificationVersionsSet.add(e.asText()));
-                classificationVersionsMap.merge(codeURN, classificationVersionsSet, (s1, s2) -> {
-                    s1.addAll(s2);
-                    return s1;
-                });
-            }
+        for (JsonNode storedCode : codesInRange) {
+            JsonNode codeJsonNode = setSingleLanguageOfCode(storedCode, language);
+            String classificationId = codeJsonNode.get(Field.CLASSIFICATION_ID).asText();
+            String code = codeJsonNode.get(Field.CODE).asText();
+            String name = codeJsonNode.get(Field.NAME).asText();
+            String level = codeJsonNode.get(Field.LEVEL).asText();
+            String codeURN = classificationId + "_" + code + "_" + name + "_" + level;
+            ArrayNode classificationVersionsArrayNode = codeJsonNode.get(Field.CLASSIFICATION_VERSIONS).deepCopy();
+            Set<String> classificationVersionsSet = new HashSet<>();
+            classificationVersionsArrayNode.forEach(e -> classificationVersionsSet.add(e.asText()));
+            classificationVersionsMap.merge(codeURN, classificationVersionsSet, (s1, s2) -> {
+                s1.addAll(s2);
+                return s1;
+            });
         }
 
         ArrayNode codesInRangeArrayNode = new ObjectMapper().createArrayNode();
@@ -751,8 +871,8 @@ public class SubsetsControllerV2 {
 
     /**
      * Returns all codes of the subset version that is valid on the given date.
-     * OLD: Assumes only one subset is valid on any given date, with no overlap of start/end date.
-     * NEW: (TODO) End date of versions is not inclusive. Subsets validity ranges "overlap" on that date.
+     * A version is valid from its validFrom up to, not including, its validUntil. If more than one version is valid on the date,
+     * the one with the latest validFrom is used. Only that version is read from the database.
      *
      * @param id
      * @param date
@@ -783,33 +903,24 @@ public class SubsetsControllerV2 {
                     LOG);
         }
 
-        ResponseEntity<JsonNode> versionsRE = getVersions(id, includeFuture, includeDrafts, language);
-        if (versionsRE.getStatusCode().equals(NOT_FOUND))
-            return versionsRE;
-        else if (!versionsRE.getStatusCode().equals(OK))
-            return resolveNonOKDatabaseResponse("GET versions of subset with id " + id + " ", versionsRE);
-
-        JsonNode versionsResponseBodyJSON = versionsRE.getBody();
-        if (versionsResponseBodyJSON == null)
-            return ErrorHandler.newHttpError("versions response body was null", INTERNAL_SERVER_ERROR, LOG);
-        if (!versionsResponseBodyJSON.isArray())
-            return ErrorHandler.newHttpError("versions response body was not array", INTERNAL_SERVER_ERROR, LOG);
-        LOG.debug("codesAt: We found " + versionsResponseBodyJSON.size() + " subset versions. Now we are going to find if one of them is valid at the date given.");
-        ArrayNode versionsArrayNode = (ArrayNode) versionsResponseBodyJSON;
-        for (JsonNode versionJsonNode : versionsArrayNode) {
-            String entryValidFrom = versionJsonNode.get(Field.VALID_FROM).textValue();
-            String entryValidUntil = versionJsonNode.has(Field.VALID_UNTIL) ? versionJsonNode.get(Field.VALID_UNTIL).textValue() : null;
-            String versionId = versionJsonNode.get(Field.VERSION_ID).asText();
-            LOG.debug("version " + versionId + " has validFrom " + entryValidFrom + " and validUntil " + (entryValidFrom != null ? entryValidUntil : "does not exist"));
-            if (entryValidFrom.compareTo(date) <= 0 && (entryValidUntil == null || entryValidUntil.compareTo(date) > 0)) {
-                LOG.debug("The date " + date + " was within the range!");
-                JsonNode codes = versionJsonNode.get(Field.CODES);
-                return new ResponseEntity<>(codes, OK);
-            } else {
-                LOG.debug("The date " + date + " was not within the range.");
-            }
-        }
-        return new ResponseEntity<>(new ObjectMapper().createArrayNode(), OK); //TODO Maybe this should be "not found"?
+        ResponseEntity<JsonNode> codesAtRE = DatabaseFactory.getDatabase(BACKEND_TYPE).getCodesAt(id, date, includeFuture, includeDrafts);
+        if (codesAtRE.getStatusCode().equals(NOT_FOUND))
+            return codesAtRE;
+        else if (!codesAtRE.getStatusCode().equals(OK))
+            return resolveNonOKDatabaseResponse("GET codes at " + date + " of subset with id " + id + " ", codesAtRE);
+
+        JsonNode codes = codesAtRE.getBody();
+        if (codes == null)
+            return ErrorHandler.newHttpError("codes response body was null", INTERNAL_SERVER_ERROR, LOG);
+        if (!codes.isArray())
+            return ErrorHandler.newHttpError("codes response body was not array", INTERNAL_SERVER_ERROR, LOG);
+        LOG.debug("codesAt: The version valid at " + date + " has " + codes.size() + " codes");
+        if (language.equals("all"))
+            return new ResponseEntity<>(codes, OK);
+        ArrayNode codesInLanguage = new ObjectMapper().createArrayNode();
+        for (JsonNode code : codes)
+            codesInLanguage.add(setSingleLanguageOfCode(code, language));
+        return new ResponseEntity<>(codesInLanguage, OK);
     }
 
     @GetMapping("/v2/subsets/schema")
@@ -1162,7 +1273,8 @@ public class SubsetsControllerV2 {
 
     private ResponseEntity<JsonNode> updateLatestPublishedValidUntil(ResponseEntity<JsonNode> isOverlappingValidityRE,
                                                                      JsonNode newVersion,
-                                                                     String seriesId) {
+                                                                     String seriesId,
+                                                                     KlassContext klassContext) {
         JsonNode isOverlapREBody = isOverlappingValidityRE.getBody();
         if (isOverlapREBody.get("existOtherPublishedVersions").asBoolean() &&
                 isOverlapREBody.get("isNewLatestVersion").asBoolean()) {
@@ -1181,7 +1293,8 @@ public class SubsetsControllerV2 {
                         latestPublishedVersion.get(Field.VERSION_ID).asText(),
                         false,
                         "all",
-                        latestPublishedVersion);
+                        latestPublishedVersion,
+                        klassContext);
                 if (!putVersionRE.getStatusCode().is2xxSuccessful()) {
                     return ErrorHandler.newHttpError("Failed to update the validUntil of the previous last published version. PUT caused error code " + putVersionRE.getStatusCode() + " and had body " + (putVersionRE.hasBody() && putVersionRE.getBody() != null ? putVersionRE.getBody().toPrettyString().replaceAll("\n", "").replaceAll("\r", "").replaceAll("\t", "") : ""), INTERNAL_SERVER_ERROR, LOG);
                 }
@@ -1194,133 +1307,84 @@ public class SubsetsControllerV2 {
         return new ResponseEntity<>(OK);
     }
 
-    private ObjectNode addNotesFromKlass(ObjectNode editableVersion, Map<String, ResponseEntity<JsonNode>> klassVersionsMap) {
+    private ObjectNode addNotesFromKlass(ObjectNode editableVersion, Map<String, KlassVersionIndex> klassVersionsMap, KlassContext klassContext, boolean strict) throws KlassFetchException {
         LOG.debug("Getting and adding code notes from KLASS");
         ObjectNode editableVersionCopy = editableVersion.deepCopy();
-        ArrayNode codesArrayNode = editableVersionCopy.get(Field.CODES).deepCopy();
+        ArrayNode codesArrayNode = (ArrayNode) editableVersionCopy.get(Field.CODES);
         for (int i = 0; i < codesArrayNode.size(); i++) {
-            ObjectNode codeNodeEditableCopy = codesArrayNode.get(i).deepCopy();
-            codeNodeEditableCopy.set(Field.NOTES, new ObjectMapper().createArrayNode());
-            ArrayNode classificationVersionsArrayNode = codeNodeEditableCopy.get(Field.CLASSIFICATION_VERSIONS).deepCopy();
-            String firstClassificationVersionAsText = classificationVersionsArrayNode.get(0).asText();
+            ObjectNode codeNodeEditableCopy = (ObjectNode) codesArrayNode.get(i);
+            ArrayNode notesArray = new ObjectMapper().createArrayNode();
+            String codeString = codeNodeEditableCopy.get(Field.CODE).asText();
+            String firstClassificationVersionAsText = codeNodeEditableCopy.get(Field.CLASSIFICATION_VERSIONS).get(0).asText();
             for (String languageCode : Utils.LANGUAGE_CODES) {
                 String latestKlassVersionURL = firstClassificationVersionAsText + ".json?language="+languageCode;
-                LOG.debug("latest klass version URL: " + latestKlassVersionURL);
-                ResponseEntity<JsonNode> latestKlassVersionRE;
-                if (klassVersionsMap.containsKey(latestKlassVersionURL)) {
-                    latestKlassVersionRE = klassVersionsMap.get(latestKlassVersionURL);
-                } else {
+                KlassVersionIndex versionIndex = klassVersionsMap.get(latestKlassVersionURL);
+                if (versionIndex == null) {
                     LOG.warn("For some reason, Klass versions map did not contain "+latestKlassVersionURL+" which it should have contained at this point (adding notes from klass method). So we have to retrieve it . . .");
-                    latestKlassVersionRE = KlassURNResolver.getFrom(latestKlassVersionURL);
-                    klassVersionsMap.put(latestKlassVersionURL, latestKlassVersionRE);
-                }
-                if (latestKlassVersionRE.getStatusCode().is2xxSuccessful()) {
-                    String codeString = codeNodeEditableCopy.get(Field.CODE).asText();
-                    if (latestKlassVersionRE.getBody().has(Field.CLASSIFICATION_ITEMS)) {
-                        JsonNode classificationItems = latestKlassVersionRE.getBody().get(Field.CLASSIFICATION_ITEMS);
-                        if (classificationItems.isArray()) {
-                            ArrayNode versionClassificationItemsArrayNode = classificationItems.deepCopy();
-                            for (int i1 = 0; i1 < versionClassificationItemsArrayNode.size(); i1++) {
-                                JsonNode classificationItemJsonNode = versionClassificationItemsArrayNode.get(i1);
-                                String classificationItemCodeString = classificationItemJsonNode.get(Field.CODE).asText();
-                                if (classificationItemCodeString.equals(codeString)) {
-                                    String codeNotesString = classificationItemJsonNode.get(Field.NOTES).asText();
-                                    ObjectNode mlT = Utils.createMultilingualText(languageCode, codeNotesString);
-                                    ArrayNode oldNotesMltArrayCopy = codeNodeEditableCopy.get(Field.NOTES).deepCopy();
-                                    oldNotesMltArrayCopy.add(mlT);
-                                    codeNodeEditableCopy.set(Field.NOTES, oldNotesMltArrayCopy);
-                                    LOG.debug("Notes for codeString "+codeString+" were set to '"+codeNotesString+"' for language code "+languageCode);
-                                }
-                            }
-                        } else {
-                            LOG.error("'"+Field.CLASSIFICATION_ITEMS+"' from the latest klass version RE body was not array, despite RE being status OK 200");
-                        }
-                    } else {
-                        LOG.error("KLASS version RE Body did not contain '"+Field.CLASSIFICATION_ITEMS+"', despite being status OK 200");
+                    versionIndex = getVersionIndexOrNull(latestKlassVersionURL, klassContext, strict);
+                    if (versionIndex == null) {
+                        LOG.error("Could not get the code index of "+latestKlassVersionURL);
+                        continue;
                     }
-                } else {
-                    LOG.error("latestKlassVersionRE did not return status OK 200");
+                    klassVersionsMap.put(latestKlassVersionURL, versionIndex);
+                }
+                KlassVersionIndex.Item classificationItem = versionIndex.get(codeString);
+                if (classificationItem != null) {
+                    notesArray.add(Utils.createMultilingualText(languageCode, classificationItem.getNotes()));
+                    LOG.debug("Notes for codeString "+codeString+" were set to '"+classificationItem.getNotes()+"' for language code "+languageCode);
                 }
             }
-            codesArrayNode.set(i, codeNodeEditableCopy);
+            codeNodeEditableCopy.set(Field.NOTES, notesArray);
         }
-        editableVersionCopy.set(Field.CODES, codesArrayNode);
         return editableVersionCopy;
     }
 
-    private ObjectNode addCodeNamesFromKlass(ObjectNode editableVersion, Map<String, ResponseEntity<JsonNode>> klassVersionsMap) {
+    private ObjectNode addCodeNamesFromKlass(ObjectNode editableVersion, Map<String, KlassVersionIndex> klassVersionsMap, KlassContext klassContext, boolean strict) throws KlassFetchException {
         ObjectNode editableVersionCopy = editableVersion.deepCopy();
-        ArrayNode codes = editableVersionCopy.get(Field.CODES).deepCopy();
+        ArrayNode codes = (ArrayNode) editableVersionCopy.get(Field.CODES);
         for (int i = 0; i < codes.size(); i++) {
-            ObjectNode editableCode = codes.get(i).deepCopy();
+            ObjectNode editableCode = (ObjectNode) codes.get(i);
             ArrayNode namesArray = new ObjectMapper().createArrayNode();
             String code = editableCode.get(Field.CODE).asText();
             String classificationID = editableCode.get(Field.CLASSIFICATION_ID).asText();
             LOG.debug("Getting names in all languages for code '"+code+"' of classificationId '"+classificationID+"'");
-            ArrayNode classificationVersionsArrayNode = editableCode.get(Field.CLASSIFICATION_VERSIONS).deepCopy();
-            String firstClassificationVersionAsText = classificationVersionsArrayNode.get(0).asText();
+            String firstClassificationVersionAsText = editableCode.get(Field.CLASSIFICATION_VERSIONS).get(0).asText();
             LOG.debug("The first classificationVersion url is "+firstClassificationVersionAsText);
             for (String languageCode : Utils.LANGUAGE_CODES) {
                 String firstClassificationVersionURL = firstClassificationVersionAsText + ".json?language="+languageCode;
                 String name = "";
-                ResponseEntity<JsonNode> latestKlassVersionRE;
-                // Get code in missing language from KLASS, and add the name as MultilingualText to the namesArray
-                if (!klassVersionsMap.containsKey(firstClassificationVersionURL)) {
+                KlassVersionIndex versionIndex = klassVersionsMap.get(firstClassificationVersionURL);
+                if (versionIndex == null) {
                     LOG.warn("Klass versions map does not contain key '"+firstClassificationVersionURL+"'! Getting from KLASS api...");
-                    latestKlassVersionRE = KlassURNResolver.getFrom(firstClassificationVersionURL);
-                    klassVersionsMap.put(firstClassificationVersionURL, latestKlassVersionRE);
+                    versionIndex = getVersionIndexOrNull(firstClassificationVersionURL, klassContext, strict);
+                    if (versionIndex != null)
+                        klassVersionsMap.put(firstClassificationVersionURL, versionIndex);
                 }
-                if (klassVersionsMap.containsKey(firstClassificationVersionURL)) {
-                    LOG.debug("Klass versions map contains key "+firstClassificationVersionURL);
-                    latestKlassVersionRE = klassVersionsMap.get(firstClassificationVersionURL);
-                    if (!latestKlassVersionRE.getStatusCode().is2xxSuccessful()) {
-                        LOG.warn("Response entity that was stored in klass versions map did not have status code 2xx! It was "+latestKlassVersionRE.getStatusCode()+". Getting new response from KLASS api!");
-                        latestKlassVersionRE = KlassURNResolver.getFrom(firstClassificationVersionURL);
-                        if (!latestKlassVersionRE.getStatusCode().is2xxSuccessful()) {
-                            LOG.warn("After re-getting "+firstClassificationVersionURL+" the status code is still not 2xx success, but rather "+latestKlassVersionRE.getStatusCode());
-                        } else {
-                            klassVersionsMap.put(firstClassificationVersionURL, latestKlassVersionRE);
-                        }
-                    }
-
-                    if (latestKlassVersionRE.getStatusCode().is2xxSuccessful()) {
-                        LOG.debug("latestKlassVersionsRE for "+firstClassificationVersionURL+" status code is 2xx successful!");
-                        JsonNode klassVersion = latestKlassVersionRE.getBody();
-                        ArrayNode classificationItems = klassVersion.get(Field.CLASSIFICATION_ITEMS).deepCopy();
-                        for (JsonNode classificationItem : classificationItems) {
-                            if (classificationItem.get(Field.CODE).asText().equals(code)) {
-                                LOG.debug("Found classificaitonItem with code equals '"+code+"'");
-                                name = classificationItem.get(Field.NAME).asText();
-                                LOG.debug("name set to '"+name+"'. Breaking . . .");
-                                break;
-                            }
-                        }
+                if (versionIndex != null) {
+                    KlassVersionIndex.Item classificationItem = versionIndex.get(code);
+                    if (classificationItem != null) {
+                        LOG.debug("Found classificationItem with code equals '"+code+"'");
+                        name = classificationItem.getName();
                     }
                 }
                 if (name.equals("")) {
-                    LOG.warn("While resolving code names in all languages for code "+code+" from classification "+classificationID+", the klassVersionsMap did not contain the latest klass version url ("+firstClassificationVersionURL+") like expected, so we have to get the code name with a direct call instead . . .");
+                    LOG.warn("While resolving code names in all languages for code "+code+" from classification "+classificationID+", the code was not found in the latest klass version ("+firstClassificationVersionURL+") like expected, so we have to get the code name with a direct call instead . . .");
                     String validFrom = editableCode.get(Field.VALID_FROM_IN_REQUESTED_RANGE).asText();
                     String validTo = editableCode.has(Field.VALID_TO_IN_REQUESTED_RANGE) && !editableCode.get(Field.VALID_TO_IN_REQUESTED_RANGE).isNull() ? editableCode.get(Field.VALID_TO_IN_REQUESTED_RANGE).asText() : "";
-                    ResponseEntity<JsonNode> getCodesFromKlassRE = KlassURNResolver.getFrom(KlassURNResolver.makeKLASSCodesFromToURL(classificationID, validFrom, validTo, code, languageCode));
-                    if (getCodesFromKlassRE.getStatusCode().is2xxSuccessful()) {
-                        ArrayNode codesFromKlassArrayNode = getCodesFromKlassRE.getBody().get(Field.CODES).deepCopy();
-                        name = codesFromKlassArrayNode.get(0).get(Field.NAME).asText();
+                    KlassVersionIndex codesFromKlass = getVersionIndexOrNull(klassURNResolver.makeKLASSCodesFromToURL(classificationID, validFrom, validTo, code, languageCode), klassContext, strict);
+                    if (codesFromKlass != null && codesFromKlass.get(code) != null) {
+                        name = codesFromKlass.get(code).getName();
                     } else {
                         LOG.warn("Did not get 2xx Successful when trying to get Code '" + code + "' in language '" + languageCode + "' from Klass in order to retrieve the Name in that language");
                     }
                 }
                 if (!name.equals("")) {
                     LOG.debug("Adding the name '"+name+"' with the language code '"+languageCode+"' to the namesArray of code '"+code+", classificationID '"+classificationID+"'");
-                    ObjectNode mlT = new ObjectMapper().createObjectNode();
-                    mlT.put("languageCode", languageCode);
-                    mlT.put("languageText", name);
-                    namesArray.add(mlT);
+                    namesArray.add(Utils.createMultilingualText(languageCode, name));
                 }
             }
             editableCode.set(Field.NAME, namesArray);
-            codes.set(i, editableCode);
         }
-        editableVersionCopy.set(Field.CODES, codes);
         return editableVersionCopy;
     }
 }
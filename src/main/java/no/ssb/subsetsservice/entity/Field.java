@@ -13,6 +13,7 @@ public class Field {
     public static final String DRAFT = "DRAFT";
     public static final String LAST_UPDATED_BY = "lastUpdatedBy";
     public static final String CLASSIFICATION_ID = "classificationId";
+    public static final String CLASSIFICATION_IDS = "classificationIds";
     public static final String CODE = "code";
     public static final String _LINKS = "_links";
     public static final String SELF = "self";
@@ -34,4 +35,9 @@ public class Field {
     public static final String LANGUAGE_TEXT = "languageText";
     public static final String LANGUAGE_CODE = "languageCode";
     public static final String CLASSIFICATION_ITEMS = "classificationItems";
+    public static final String URL = "url";
+    public static final String DOCUMENT = "document";
+    public static final String ETAG = "eTag";
+    public static final String FETCHED_AT = "fetchedAt";
+    public static final String VERSION_UID = "versionUid";
 }
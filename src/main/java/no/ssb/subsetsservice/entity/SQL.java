@@ -27,6 +27,56 @@ public class SQL {
             "    ON public.versions USING btree\n" +
             "    (\"series_id\" varchar_pattern_ops ASC NULLS LAST)\n" +
             ";";
+    public static String CREATE_KLASS_DOCUMENTS = "CREATE TABLE IF NOT EXISTS public.klass_documents\n" +
+            "(\n" +
+            "    \"url\" text NOT NULL,\n" +
+            "    \"document\" jsonb NOT NULL,\n" +
+            "    \"etag\" text,\n" +
+            "    \"last_modified\" text,\n" +
+            "    \"fetched_at\" timestamp with time zone NOT NULL,\n" +
+            "    CONSTRAINT klass_documents_pkey PRIMARY KEY (\"url\")\n" +
+            ");";
+    public static String SET_OWNER_KLASS_DOCUMENTS = "ALTER TABLE public.klass_documents\n" +
+            "    OWNER to subsets;";
+    public static String CREATE_VERSION_CODES = "CREATE TABLE IF NOT EXISTS public.version_codes\n" +
+            "(\n" +
+            "    \"version_id\" character varying(128) COLLATE pg_catalog.\"default\" NOT NULL,\n" +
+            "    \"series_id\" character varying(128) COLLATE pg_catalog.\"default\" NOT NULL,\n" +
+            "    \"ordinal\" integer NOT NULL,\n" +
+            "    \"classification_id\" text,\n" +
+            "    \"code\" text,\n" +
+            "    \"level\" text,\n" +
+            "    \"code_json\" jsonb NOT NULL,\n" +
+            "    CONSTRAINT version_codes_pkey PRIMARY KEY (\"version_id\", \"ordinal\"),\n" +
+            "    CONSTRAINT \"versionIdFk\" FOREIGN KEY (\"version_id\")\n" +
+            "        REFERENCES public.versions (\"version_id\") MATCH SIMPLE\n" +
+            "        ON UPDATE NO ACTION\n" +
+            "        ON DELETE CASCADE\n" +
+            ");";
+    public static String SET_OWNER_VERSION_CODES = "ALTER TABLE public.version_codes\n" +
+            "    OWNER to subsets;";
+    public static String ADD_VERSION_COLUMNS = "ALTER TABLE public.versions\n" +
+            "    ADD COLUMN IF NOT EXISTS \"valid_from\" date,\n" +
+            "    ADD COLUMN IF NOT EXISTS \"valid_until\" date,\n" +
+            "    ADD COLUMN IF NOT EXISTS \"administrative_status\" text;";
+    public static String CREATE_VERSIONS_STATUS_INDEX = "CREATE INDEX IF NOT EXISTS \"versionsSeriesStatusIndex\"\n" +
+            "    ON public.versions USING btree\n" +
+            "    (\"series_id\", \"administrative_status\", \"valid_from\" DESC)\n" +
+            ";";
+    public static String CREATE_VERSIONS_VALIDITY_INDEX = "CREATE INDEX IF NOT EXISTS \"versionsValidityIndex\"\n" +
+            "    ON public.versions USING gist\n" +
+            "    (" + validity("") + ")\n" +
+            ";";
+    public static String LOCK_SCHEMA_MIGRATIONS = "SELECT pg_advisory_xact_lock(?);";
+    public static String CREATE_SCHEMA_MIGRATIONS = "CREATE TABLE IF NOT EXISTS public.schema_migrations\n" +
+            "(\n" +
+            "    \"version\" integer NOT NULL,\n" +
+            "    \"description\" text NOT NULL,\n" +
+            "    \"applied_at\" timestamp with time zone NOT NULL DEFAULT now(),\n" +
+            "    CONSTRAINT schema_migrations_pkey PRIMARY KEY (\"version\")\n" +
+            ");";
+    public static String SELECT_SCHEMA_MIGRATIONS = "SELECT version FROM schema_migrations;";
+    public static String INSERT_SCHEMA_MIGRATION = "INSERT INTO schema_migrations (version, description) VALUES (?, ?);";
 
     public static String SELECT_SERIES_BY_ID = "SELECT series.series_json FROM series WHERE series.series_id = ?;";
     public static String SELECT_ALL_SERIES = "SELECT series.series_json FROM series;";
@@ -34,14 +84,59 @@ public class SQL {
     public static String ADD_VERSION_TO_SERIES = "UPDATE series SET series_json = jsonb_set(series_json, '{versions,99999}'::text[], to_jsonb(?::text), true) WHERE series_id = ?;";
 
     public static String SELECT_VERSION_BY_ID = "SELECT versions.version_json FROM versions WHERE versions.version_id = ?;";
-    public static String SELECT_SERIES_VERSIONS_VALID = "SELECT versions.version_json FROM versions " +
+    public static String SELECT_SERIES_VERSIONS = "SELECT versions.version_json FROM versions " +
+            "WHERE versions.series_id = ? " +
+            "AND versions.administrative_status = ANY (?) " +
+            "AND (? OR versions.valid_from < CURRENT_DATE) " +
+            "ORDER BY versions.valid_from DESC, versions.version_id;";
+    public static String SELECT_REFERENCED_CLASSIFICATIONS = "SELECT DISTINCT code ->> '" + Field.CLASSIFICATION_ID + "', code -> '" + Field.CLASSIFICATION_VERSIONS + "' ->> 0 " +
+            "FROM versions, jsonb_array_elements(CASE WHEN jsonb_typeof(versions.version_json -> '" + Field.CODES + "') = 'array' " +
+            "THEN versions.version_json -> '" + Field.CODES + "' ELSE '[]'::jsonb END) AS code;";
+    public static String SELECT_KLASS_REFERENCES = "SELECT DISTINCT versions.series_id, versions.version_id, code ->> '" + Field.CLASSIFICATION_ID + "', classification_version.href " +
+            "FROM versions CROSS JOIN LATERAL jsonb_array_elements(CASE WHEN jsonb_typeof(versions.version_json -> '" + Field.CODES + "') = 'array' " +
+            "THEN versions.version_json -> '" + Field.CODES + "' ELSE '[]'::jsonb END) AS code " +
+            "LEFT JOIN LATERAL jsonb_array_elements_text(CASE WHEN jsonb_typeof(code -> '" + Field.CLASSIFICATION_VERSIONS + "') = 'array' " +
+            "THEN code -> '" + Field.CLASSIFICATION_VERSIONS + "' ELSE '[]'::jsonb END) AS classification_version(href) ON true " +
+            "ORDER BY versions.version_id;";
+    public static String SELECT_KLASS_DOCUMENT = "SELECT klass_documents.document::text, klass_documents.etag, klass_documents.last_modified, klass_documents.fetched_at " +
+            "FROM klass_documents WHERE klass_documents.url = ?;";
+    public static String UPSERT_KLASS_DOCUMENT = "INSERT INTO klass_documents (url, document, etag, last_modified, fetched_at) VALUES (?, ?::jsonb, ?, ?, ?) " +
+            "ON CONFLICT (url) DO UPDATE SET document = EXCLUDED.document, etag = EXCLUDED.etag, last_modified = EXCLUDED.last_modified, fetched_at = EXCLUDED.fetched_at " +
+            "WHERE klass_documents.fetched_at < EXCLUDED.fetched_at;";
+    // The rows of version_codes are derived from the stored version_json, by the same statement when a version is written and in the backfill
+    private static String INSERT_VERSION_CODES_OF_VERSIONS = "INSERT INTO version_codes (version_id, series_id, ordinal, classification_id, code, level, code_json) " +
+            "SELECT versions.version_id, versions.series_id, code.ordinal, code.value ->> '" + Field.CLASSIFICATION_ID + "', code.value ->> '" + Field.CODE + "', code.value ->> '" + Field.LEVEL + "', code.value " +
+            "FROM versions CROSS JOIN LATERAL jsonb_array_elements(CASE WHEN jsonb_typeof(versions.version_json -> '" + Field.CODES + "') = 'array' " +
+            "THEN versions.version_json -> '" + Field.CODES + "' ELSE '[]'::jsonb END) WITH ORDINALITY AS code(value, ordinal)";
+    public static String INSERT_VERSION_CODES = INSERT_VERSION_CODES_OF_VERSIONS + " WHERE versions.version_id = ?;";
+    public static String BACKFILL_VERSION_CODES = INSERT_VERSION_CODES_OF_VERSIONS + " ON CONFLICT DO NOTHING;";
+    public static String DELETE_VERSION_CODES = "DELETE FROM version_codes WHERE version_codes.version_id = ?;";
+    public static String SELECT_SERIES_CODES_IN_RANGE = "SELECT versions.version_id, version_codes.code_json FROM versions " +
+            "LEFT JOIN version_codes ON version_codes.version_id = versions.version_id " +
+            "AND " + validity("versions.") + " && daterange(CAST(? AS DATE), CAST(? AS DATE), '[)') " +
+            "WHERE versions.series_id = ? " +
+            "AND versions.administrative_status = ANY (?) " +
+            "AND (? OR versions.valid_from < CURRENT_DATE) " +
+            "ORDER BY versions.valid_from DESC, versions.version_id, version_codes.ordinal;";
+    public static String SELECT_SERIES_CODES_AT = "SELECT EXISTS (SELECT 1 FROM versions " +
             "WHERE versions.series_id = ? " +
-            "AND versions.version_json ->> '" + Field.ADMINISTRATIVE_STATUS + "' = ANY (string_to_array(?, ',')) " +
-            "AND CAST (versions.version_json ->> '" + Field.VALID_FROM + "' AS DATE) < CURRENT_DATE;";
-    public static String SELECT_SERIES_VERSIONS_VALID_AND_FUTURE = "SELECT versions.version_json FROM versions " +
+            "AND versions.administrative_status = ANY (?) " +
+            "AND (? OR versions.valid_from < CURRENT_DATE)), " +
+            "(SELECT versions.version_json -> '" + Field.CODES + "' FROM versions " +
             "WHERE versions.series_id = ? " +
-            "AND versions.version_json ->> '" + Field.ADMINISTRATIVE_STATUS + "' = ANY (string_to_array(?, ','));";
+            "AND versions.administrative_status = ANY (?) " +
+            "AND (? OR versions.valid_from < CURRENT_DATE) " +
+            "AND " + validity("versions.") + " @> CAST(? AS DATE) " +
+            "ORDER BY versions.valid_from DESC LIMIT 1);";
+    // The typed columns of versions are derived from the stored version_json, by the same statement when a version is written and in the backfill
+    private static String UPDATE_VERSION_COLUMNS_OF_VERSIONS = "UPDATE versions SET " +
+            "valid_from = " + dateOrNull("versions.version_json ->> '" + Field.VALID_FROM + "'") + ", " +
+            "valid_until = " + dateOrNull("versions.version_json ->> '" + Field.VALID_UNTIL + "'") + ", " +
+            "administrative_status = versions.version_json ->> '" + Field.ADMINISTRATIVE_STATUS + "'";
+    public static String UPDATE_VERSION_COLUMNS = UPDATE_VERSION_COLUMNS_OF_VERSIONS + " WHERE versions.version_id = ?;";
+    public static String BACKFILL_VERSION_COLUMNS = UPDATE_VERSION_COLUMNS_OF_VERSIONS + ";";
     public static String UPDATE_VERSION = "UPDATE versions SET version_json = ? WHERE series_id = ? AND version_id = ?";
+    public static String UPDATE_VERSION_IF_UNCHANGED = "UPDATE versions SET version_json = ? WHERE series_id = ? AND version_id = ? AND version_json = ?;";
 
     public static String DELETE_SERIES = "DELETE FROM series;";
     public static String DELETE_SERIES_BY_ID = "DELETE FROM series WHERE series.series_id = ?;";
@@ -49,5 +144,20 @@ public class SQL {
     public static String DELETE_VERSIONS = "DELETE FROM versions;";
     public static String DELETE_VERSIONS_BY_ID = "DELETE FROM versions WHERE versions.series_id = ? AND versions.version_id = ?;";
 
+    /**
+     * The validity of a version as a daterange [valid_from, valid_until), as indexed by versionsValidityIndex.
+     * A missing date is an open end, and a valid_until before valid_from is an empty range.
+     *
+     * @param prefix of the column names, "" or "versions."
+     */
+    private static String validity(String prefix) {
+        return "daterange(" + prefix + "valid_from, CASE WHEN " + prefix + "valid_until < " + prefix + "valid_from THEN " + prefix + "valid_from ELSE " + prefix + "valid_until END, '[)')";
+    }
 
+    /**
+     * @return the expression as a date, or null if it is not a YYYY-MM-DD date
+     */
+    private static String dateOrNull(String expression) {
+        return "CASE WHEN (" + expression + ") ~ '^[0-9]{4}-[0-9]{2}-[0-9]{2}$' THEN CAST(" + expression + " AS DATE) END";
+    }
 }
@@ -2,13 +2,25 @@ package no.ssb.subsetsservice.service;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import no.ssb.subsetsservice.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.sql.DataSource;
 import java.sql.*;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * The pool of connections to the database, a HikariCP pool either to a CloudSQL instance (POSTGRES_CONNECTION_NAME)
+ * or to the JDBC URL SPRING_DATASOURCE_URL, which with a CloudSQL proxy points to localhost.
+ * The pool is sized by POSTGRES_POOL_MAX_SIZE and POSTGRES_POOL_MIN_IDLE, connections are replaced after POSTGRES_POOL_MAX_LIFETIME_SECONDS,
+ * and a connection that is out of the pool for longer than POSTGRES_POOL_LEAK_DETECTION_SECONDS is logged as a possible leak (0 is off).
+ * The driver keeps up to POSTGRES_STATEMENT_CACHE_QUERIES prepared statements per connection, and prepares a statement on the server after
+ * it has been run POSTGRES_PREPARE_THRESHOLD times.
+ * The pool metrics (hikaricp.connections.*) are bound to the Micrometer registry by bindTo.
+ */
 public class ConnectionPool {
 
     private static ConnectionPool instance;
@@ -20,6 +32,22 @@ public class ConnectionPool {
     private static final String ENV_DB_PASSWORD = "SPRING_DATASOURCE_PASSWORD"; // The ENV var containing the users password
     private static final String ENV_DB_CONNECTION_NAME = "POSTGRES_CONNECTION_NAME"; // The ENV var containing the cloud SQL instance name
     private static final String ENV_JDBC_URL = "SPRING_DATASOURCE_URL";
+    private static final String ENV_POOL_MAX_SIZE = "POSTGRES_POOL_MAX_SIZE";
+    private static final String ENV_POOL_MIN_IDLE = "POSTGRES_POOL_MIN_IDLE";
+    private static final String ENV_POOL_MAX_LIFETIME_SECONDS = "POSTGRES_POOL_MAX_LIFETIME_SECONDS";
+    private static final String ENV_POOL_LEAK_DETECTION_SECONDS = "POSTGRES_POOL_LEAK_DETECTION_SECONDS";
+    private static final String ENV_POOL_CONNECTION_TIMEOUT_MILLIS = "POSTGRES_POOL_CONNECTION_TIMEOUT_MILLIS";
+    private static final String ENV_STATEMENT_CACHE_QUERIES = "POSTGRES_STATEMENT_CACHE_QUERIES";
+    private static final String ENV_PREPARE_THRESHOLD = "POSTGRES_PREPARE_THRESHOLD";
+
+    private static final String POOL_NAME = "subsets";
+    private static final int DEFAULT_POOL_MAX_SIZE = 10;
+    private static final int DEFAULT_POOL_MIN_IDLE = 2;
+    private static final int DEFAULT_POOL_MAX_LIFETIME_SECONDS = 30 * 60;
+    private static final int DEFAULT_POOL_LEAK_DETECTION_SECONDS = 0;
+    private static final int DEFAULT_POOL_CONNECTION_TIMEOUT_MILLIS = 10000;
+    private static final int DEFAULT_STATEMENT_CACHE_QUERIES = 256;
+    private static final int DEFAULT_PREPARE_THRESHOLD = 5;
 
     private static final String LOCAL_PS_USER = "subsets";
     private static final String LOCAL_PS_PW = "postgres";
@@ -32,9 +60,9 @@ public class ConnectionPool {
     private String cloudSqlInstance;
     private String jdbcUrl;
 
-    private DataSource dataSource;
+    private final HikariDataSource dataSource;
 
-    public static ConnectionPool getInstance(){
+    public static synchronized ConnectionPool getInstance(){
         if (instance == null)
             instance = new ConnectionPool();
         return instance;
@@ -51,9 +79,10 @@ public class ConnectionPool {
             LOG.debug("DataSource pointing to an external CloudSQL instance '"+cloudSqlInstance+"' will be attempted.");
             dataSource = getExternalDataSource(db_name, user, password, cloudSqlInstance);
         } else {
-            LOG.warn(ENV_DB_CONNECTION_NAME+" env variable pointing to a CloudSQL instance name was not present. "+
-                    "No connection pool is created, and a new connection to "+jdbcUrl+" will be attempted at each getConnection() call. "+
+            LOG.debug(ENV_DB_CONNECTION_NAME+" env variable pointing to a CloudSQL instance name was not present. "+
+                    "A connection pool to "+jdbcUrl+" is created. "+
                     "If a CloudSQL proxy is present, connections to localhost (127.0.0.1) are supposed to work towards an external instance.");
+            dataSource = getJdbcUrlDataSource(jdbcUrl, user, password);
         }
     }
 
@@ -70,18 +99,46 @@ public class ConnectionPool {
         connProps.setProperty("enableIamAuth", "true");
 
         // Initialize connection pool
-        HikariConfig config = new HikariConfig();
+        HikariConfig config = getPoolConfig();
         config.setJdbcUrl(jdbcURL);
-        config.setDataSourceProperties(connProps);
-        config.setConnectionTimeout(10000); // 10s
+        connProps.stringPropertyNames().forEach(name -> config.addDataSourceProperty(name, connProps.getProperty(name)));
+
+        return new HikariDataSource(config);
+    }
 
+    private static HikariDataSource getJdbcUrlDataSource(String jdbcUrl, String user, String password){
+        LOG.debug("createConnectionPool - jdbcUrl: "+jdbcUrl+" user: "+user);
+        HikariConfig config = getPoolConfig();
+        config.setJdbcUrl(jdbcUrl);
+        config.setUsername(user);
+        config.setPassword(password);
         return new HikariDataSource(config);
     }
 
+    private static HikariConfig getPoolConfig(){
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(POOL_NAME);
+        config.setMaximumPoolSize(Utils.getEnvInt(ENV_POOL_MAX_SIZE, DEFAULT_POOL_MAX_SIZE));
+        config.setMinimumIdle(Math.min(Utils.getEnvInt(ENV_POOL_MIN_IDLE, DEFAULT_POOL_MIN_IDLE), config.getMaximumPoolSize()));
+        config.setMaxLifetime(TimeUnit.SECONDS.toMillis(Utils.getEnvInt(ENV_POOL_MAX_LIFETIME_SECONDS, DEFAULT_POOL_MAX_LIFETIME_SECONDS)));
+        config.setLeakDetectionThreshold(TimeUnit.SECONDS.toMillis(Utils.getEnvInt(ENV_POOL_LEAK_DETECTION_SECONDS, DEFAULT_POOL_LEAK_DETECTION_SECONDS)));
+        config.setConnectionTimeout(Utils.getEnvInt(ENV_POOL_CONNECTION_TIMEOUT_MILLIS, DEFAULT_POOL_CONNECTION_TIMEOUT_MILLIS));
+        config.addDataSourceProperty("preparedStatementCacheQueries", Utils.getEnvInt(ENV_STATEMENT_CACHE_QUERIES, DEFAULT_STATEMENT_CACHE_QUERIES));
+        config.addDataSourceProperty("prepareThreshold", Utils.getEnvInt(ENV_PREPARE_THRESHOLD, DEFAULT_PREPARE_THRESHOLD));
+        // Start without a connection, so that the service starts (and reports not ready) while the database is unavailable
+        config.setInitializationFailTimeout(-1);
+        return config;
+    }
+
+    /**
+     * Binds the metrics of the pool to the registry. Later calls do nothing, the pool reports to one registry.
+     */
+    public synchronized void bindTo(MeterRegistry meterRegistry) {
+        if (dataSource.getMetricsTrackerFactory() == null)
+            dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+    }
+
     public Connection getConnection() throws SQLException {
-        if (dataSource != null)
-            return dataSource.getConnection();
-        else
-            return DriverManager.getConnection(jdbcUrl, user, password);
+        return dataSource.getConnection();
     }
 }
@@ -1,14 +1,46 @@
 package no.ssb.subsetsservice.service;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Hands out the one instance of each database backend. The instance of the default backend is also the
+ * DatabaseInterface bean, so code that is not managed by Spring and beans share it.
+ * The metrics of the connection pool are bound to the Micrometer registry of the application.
+ */
+@Configuration
 public class DatabaseFactory {
 
     public static final String POSTGRES = "POSTGRES";
     public static final String DEFAULT_DATABASE = POSTGRES;
 
+    private static volatile PostgresFacade postgres;
+
     public static DatabaseInterface getDatabase(String databaseType) {
         switch (databaseType.toUpperCase()) {
-            case POSTGRES: return new PostgresFacade();
+            case POSTGRES: return getPostgres();
             default: return null;
         }
     }
+
+    private static PostgresFacade getPostgres() {
+        if (postgres == null) {
+            synchronized (DatabaseFactory.class) {
+                if (postgres == null)
+                    postgres = new PostgresFacade();
+            }
+        }
+        return postgres;
+    }
+
+    @Bean
+    public DatabaseInterface database() {
+        return getDatabase(DEFAULT_DATABASE);
+    }
+
+    @Bean
+    public MeterBinder connectionPoolMetrics() {
+        return meterRegistry -> ConnectionPool.getInstance().bindTo(meterRegistry);
+    }
 }
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.springframework.http.ResponseEntity;
 
+import java.util.List;
+
 /**
  * This interface presents some operations that can be made against a connection
  * to an instance of the database
@@ -12,10 +14,34 @@ public interface DatabaseInterface {
 
     ResponseEntity<JsonNode> initializeDatabase();
 
+    /**
+     * @param includeFuture include versions that are not valid yet
+     * @param includeDrafts include DRAFT versions, not only OPEN ones
+     * @return array of the versions, the newest validFrom first. NOT_FOUND if there are none.
+     */
     ResponseEntity<JsonNode> getVersionsBySeriesID(String seriesID, boolean includeFuture, boolean includeDrafts);
 
     ResponseEntity<JsonNode> getVersionByID(String versionId);
 
+    /**
+     * The codes of the versions of the series that are valid some time in the range [from, to), read from version_codes.
+     *
+     * @param from start of the range (YYYY-MM-DD), or null for no start
+     * @param to end of the range (YYYY-MM-DD), exclusive, or null for no end
+     * @return array of the stored codes, the newest version first and in the order of the codes in each version. NOT_FOUND if the series has no versions
+     * with the includeFuture and includeDrafts of getVersionsBySeriesID.
+     */
+    ResponseEntity<JsonNode> getCodesInRange(String seriesID, String from, String to, boolean includeFuture, boolean includeDrafts);
+
+    /**
+     * The codes of the version of the series that is valid at the date, in one query that reads only that version.
+     *
+     * @param date YYYY-MM-DD
+     * @return array of the stored codes of the version, empty if no version is valid at the date. NOT_FOUND if the series has no versions
+     * with the includeFuture and includeDrafts of getVersionsBySeriesID.
+     */
+    ResponseEntity<JsonNode> getCodesAt(String seriesID, String date, boolean includeFuture, boolean includeDrafts);
+
     ResponseEntity<JsonNode> getSubsetSeries(String id);
 
     ResponseEntity<JsonNode> getAllSubsetSeries();
@@ -49,4 +75,40 @@ public interface DatabaseInterface {
     void deleteSubsetVersion(String subsetId, String versionUid);
 
     ResponseEntity<JsonNode> editVersion(ObjectNode editablePutVersion);
+
+    /**
+     * Replace the stored edition of each of the versions, in one transaction, if it is still the edition that was read.
+     * A version that has been edited or deleted since it was read is left as it is.
+     *
+     * @param storedVersions the stored edition of each of the edited versions, as it was read before editing it
+     * @return OK with the version uids that were 'updated', and the ones that were 'skipped' because they were edited or deleted.
+     * If the database fails, none are replaced.
+     */
+    ResponseEntity<JsonNode> editVersionsIfUnchanged(List<ObjectNode> editedVersions, List<JsonNode> storedVersions);
+
+    /**
+     * @return array with an object per stored version that has codes: its 'subsetId', 'versionUid' (the database id),
+     * and the distinct 'classificationIds' and 'classificationVersions' (links to KLASS classification versions) of its codes
+     */
+    ResponseEntity<JsonNode> getKlassReferences();
+
+    /**
+     * @return object with the distinct 'classificationIds' of the codes in all stored versions,
+     * and the distinct latest 'classificationVersions' (the first classification version of each code)
+     */
+    ResponseEntity<JsonNode> getReferencedClassifications();
+
+    /**
+     * @param url of a KLASS document
+     * @return object with the 'url', the 'document' as JSON text, its 'eTag' and 'lastModified' validators (or null),
+     * and when it was 'fetchedAt' from KLASS in epoch milliseconds. NOT_FOUND if no document is stored for the url.
+     */
+    ResponseEntity<JsonNode> getKlassDocument(String url);
+
+    /**
+     * Store a KLASS document, replacing the stored document for the url if that was fetched earlier.
+     *
+     * @param documentJson the document as JSON text
+     */
+    ResponseEntity<JsonNode> saveKlassDocument(String url, String documentJson, String eTag, String lastModified, long fetchedAtMillis);
 }
@@ -0,0 +1,141 @@
+package no.ssb.subsetsservice.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import no.ssb.subsetsservice.entity.Field;
+import no.ssb.subsetsservice.util.CircuitBreaker;
+import no.ssb.subsetsservice.util.KlassDocument;
+import no.ssb.subsetsservice.util.KlassDocumentParser;
+import no.ssb.subsetsservice.util.KlassDocumentStore;
+import no.ssb.subsetsservice.util.KlassDocumentWriter;
+import no.ssb.subsetsservice.util.KlassURNResolver;
+import no.ssb.subsetsservice.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Keeps KLASS documents in the klass_documents table of the database, as the second level of the KLASS document cache
+ * that all replicas share. The documents are stored in the reduced form the service uses (see KlassDocumentWriter),
+ * with their validators and fetch time.
+ * If the database fails repeatedly, the store is bypassed for a while (KLASS_SHARED_CACHE_BREAKER_OPEN_SECONDS),
+ * so that a database problem does not slow down every KLASS lookup.
+ * Switch it off with KLASS_SHARED_CACHE_ENABLED=false.
+ */
+@Service
+public class DatabaseKlassDocumentStore implements KlassDocumentStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DatabaseKlassDocumentStore.class);
+
+    private static final String ENV_SHARED_CACHE_ENABLED = "KLASS_SHARED_CACHE_ENABLED";
+    private static final String ENV_SHARED_CACHE_BREAKER_OPEN_SECONDS = "KLASS_SHARED_CACHE_BREAKER_OPEN_SECONDS";
+
+    private static final int DEFAULT_SHARED_CACHE_BREAKER_OPEN_SECONDS = 60;
+    private static final int BREAKER_FAILURE_THRESHOLD = 3;
+
+    private final KlassURNResolver klassURNResolver;
+    private final boolean enabled;
+    private final KlassDocumentParser parser = new KlassDocumentParser(new JsonFactory());
+    private final KlassDocumentWriter writer = new KlassDocumentWriter(new JsonFactory());
+    private final CircuitBreaker circuitBreaker;
+    private final Counter storedCounter;
+    private final Counter failedCounter;
+    private DatabaseInterface database;
+
+    @Autowired
+    public DatabaseKlassDocumentStore(KlassURNResolver klassURNResolver, MeterRegistry meterRegistry) {
+        this.klassURNResolver = klassURNResolver;
+        enabled = !"false".equalsIgnoreCase(System.getenv(ENV_SHARED_CACHE_ENABLED));
+        circuitBreaker = new CircuitBreaker("klass.sharedcache.circuitbreaker", BREAKER_FAILURE_THRESHOLD,
+                Duration.ofSeconds(Utils.getEnvInt(ENV_SHARED_CACHE_BREAKER_OPEN_SECONDS, DEFAULT_SHARED_CACHE_BREAKER_OPEN_SECONDS)),
+                meterRegistry);
+        storedCounter = Counter.builder("klass.sharedcache.stored")
+                .description("KLASS documents written to the shared KLASS cache in the database")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("klass.sharedcache.failed")
+                .description("Reads and writes of the shared KLASS cache in the database that failed")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    private void register() {
+        if (enabled)
+            klassURNResolver.setSharedStore(this);
+        else
+            LOG.info("The shared KLASS cache in the database is disabled by " + ENV_SHARED_CACHE_ENABLED);
+    }
+
+    @Override
+    public KlassDocument get(String url) {
+        if (!circuitBreaker.tryAcquire())
+            return null;
+        try {
+            ResponseEntity<JsonNode> storedRE = getDatabase().getKlassDocument(url);
+            if (storedRE.getStatusCode().equals(HttpStatus.NOT_FOUND)) {
+                circuitBreaker.onSuccess();
+                return null;
+            }
+            if (!storedRE.getStatusCode().is2xxSuccessful() || storedRE.getBody() == null) {
+                onFailure("read " + url + ", status " + storedRE.getStatusCode());
+                return null;
+            }
+            circuitBreaker.onSuccess();
+            JsonNode stored = storedRE.getBody();
+            KlassDocument document = parser.parse(url,
+                    new ByteArrayInputStream(stored.get(Field.DOCUMENT).asText().getBytes(StandardCharsets.UTF_8)),
+                    textOrNull(stored, Field.ETAG),
+                    textOrNull(stored, Field.LAST_MODIFIED));
+            return document.revalidatedAt(stored.get(Field.FETCHED_AT).asLong());
+        } catch (IOException | RuntimeException e) {
+            onFailure("read " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void put(KlassDocument document) {
+        if (!circuitBreaker.tryAcquire())
+            return;
+        try {
+            ResponseEntity<JsonNode> saveRE = getDatabase().saveKlassDocument(document.getUrl(), writer.write(document),
+                    document.getETag(), document.getLastModified(), document.getFetchedAtMillis());
+            if (!saveRE.getStatusCode().is2xxSuccessful()) {
+                onFailure("store " + document.getUrl() + ", status " + saveRE.getStatusCode());
+                return;
+            }
+            circuitBreaker.onSuccess();
+            if (saveRE.getStatusCode().equals(HttpStatus.CREATED))
+                storedCounter.increment();
+        } catch (RuntimeException e) {
+            onFailure("store " + document.getUrl() + ": " + e.getMessage());
+        }
+    }
+
+    private void onFailure(String what) {
+        LOG.warn("Could not " + what + " in the shared KLASS cache");
+        failedCounter.increment();
+        circuitBreaker.onFailure();
+    }
+
+    private synchronized DatabaseInterface getDatabase() {
+        if (database == null)
+            database = DatabaseFactory.getDatabase(DatabaseFactory.DEFAULT_DATABASE);
+        return database;
+    }
+
+    private static String textOrNull(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+}
@@ -0,0 +1,46 @@
+package no.ssb.subsetsservice.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Brings the database schema up to date once at startup (see DatabaseMigrations), so that requests never run DDL.
+ * If the database can not be reached, the service starts anyway and the readiness check reports the database as not ready.
+ */
+@Service
+public class DatabaseMigrationService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DatabaseMigrationService.class);
+
+    private final DatabaseInterface database;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public DatabaseMigrationService(DatabaseInterface database, MeterRegistry meterRegistry) {
+        this.database = database;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void migrate() {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        ResponseEntity<JsonNode> initRE = database.initializeDatabase();
+        boolean success = initRE.getStatusCode().is2xxSuccessful();
+        long nanos = sample.stop(Timer.builder("database.migration.duration")
+                .description("Time to bring the database schema up to date at startup")
+                .tag("outcome", success ? "success" : "failure")
+                .register(meterRegistry));
+        if (success)
+            LOG.info("Database migration finished in " + nanos / 1_000_000 + " ms: " + initRE.getBody());
+        else
+            LOG.error("Could not migrate the database. Migration returned status code " + initRE.getStatusCode() + " and body " + (initRE.hasBody() ? initRE.getBody().toString() : ""));
+    }
+}
@@ -0,0 +1,113 @@
+package no.ssb.subsetsservice.service;
+
+import no.ssb.subsetsservice.entity.SQL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * The versioned schema migrations of the database, applied in order by migrate.
+ * The versions that have been applied are recorded in the schema_migrations table, so each migration runs once per database.
+ * Migrations are never edited after release, a change to the schema is a new migration with the next version.
+ * The statements should still be idempotent (IF NOT EXISTS), since databases created before the schema_migrations table
+ * already have the tables of the first migrations.
+ */
+class DatabaseMigrations {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DatabaseMigrations.class);
+
+    // Key of the advisory lock that makes replicas starting at the same time migrate one at a time
+    private static final long MIGRATION_LOCK_KEY = 0x53554253L;
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "series and versions tables",
+                    SQL.CREATE_SERIES,
+                    SQL.SET_OWNER_SERIES,
+                    SQL.CREATE_VERSIONS,
+                    SQL.SET_OWNER_VERSIONS,
+                    SQL.CREATE_INDEX),
+            new Migration(2, "klass_documents table",
+                    SQL.CREATE_KLASS_DOCUMENTS,
+                    SQL.SET_OWNER_KLASS_DOCUMENTS),
+            new Migration(3, "version_codes table, filled from the stored versions",
+                    SQL.CREATE_VERSION_CODES,
+                    SQL.SET_OWNER_VERSION_CODES,
+                    SQL.BACKFILL_VERSION_CODES),
+            new Migration(4, "typed validity and status columns of versions",
+                    SQL.ADD_VERSION_COLUMNS,
+                    SQL.BACKFILL_VERSION_COLUMNS,
+                    SQL.CREATE_VERSIONS_STATUS_INDEX,
+                    SQL.CREATE_VERSIONS_VALIDITY_INDEX)
+    );
+
+    private DatabaseMigrations() {
+    }
+
+    static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    /**
+     * Applies the migrations that are not recorded in schema_migrations, in one transaction.
+     * @return the versions that were applied, in order. Empty if the schema was up to date.
+     */
+    static List<Integer> migrate(Connection con) throws SQLException {
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            try (PreparedStatement lock = con.prepareStatement(SQL.LOCK_SCHEMA_MIGRATIONS)) {
+                lock.setLong(1, MIGRATION_LOCK_KEY);
+                lock.execute();
+            }
+            try (Statement st = con.createStatement()) {
+                st.executeUpdate(SQL.CREATE_SCHEMA_MIGRATIONS);
+            }
+            Set<Integer> appliedBefore = new HashSet<>();
+            try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery(SQL.SELECT_SCHEMA_MIGRATIONS)) {
+                while (rs.next())
+                    appliedBefore.add(rs.getInt(1));
+            }
+            List<Integer> applied = new ArrayList<>();
+            for (Migration migration : MIGRATIONS) {
+                if (appliedBefore.contains(migration.version))
+                    continue;
+                LOG.info("Applying database migration " + migration.version + ": " + migration.description);
+                try (Statement st = con.createStatement()) {
+                    for (String statement : migration.statements)
+                        st.executeUpdate(statement);
+                }
+                try (PreparedStatement record = con.prepareStatement(SQL.INSERT_SCHEMA_MIGRATION)) {
+                    record.setInt(1, migration.version);
+                    record.setString(2, migration.description);
+                    record.executeUpdate();
+                }
+                applied.add(migration.version);
+            }
+            con.commit();
+            if (applied.isEmpty())
+                LOG.debug("The database schema is up to date at version " + latestVersion());
+            else
+                LOG.info("Applied database migrations " + applied + ", the database schema is at version " + latestVersion());
+            return applied;
+        } catch (SQLException | RuntimeException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String[] statements;
+
+        private Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+}
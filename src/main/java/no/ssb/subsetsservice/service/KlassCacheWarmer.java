@@ -0,0 +1,160 @@
+package no.ssb.subsetsservice.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import no.ssb.subsetsservice.entity.Field;
+import no.ssb.subsetsservice.util.KlassFetchException;
+import no.ssb.subsetsservice.util.KlassURNResolver;
+import no.ssb.subsetsservice.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preloads the KLASS documents that the stored subset versions refer to into the KLASS document cache,
+ * shortly after startup and then every KLASS_WARMUP_INTERVAL_MINUTES, so that POST and PUT of versions
+ * do not have to wait for KLASS. Documents fetched less than an interval ago are left alone.
+ * The classifications of all codes are loaded, and in the VERSIONS enrichment mode also the latest classification version
+ * of each code in all languages, since those are what the enrichment reads.
+ */
+@Service
+public class KlassCacheWarmer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KlassCacheWarmer.class);
+
+    private static final String ENV_WARMUP_ENABLED = "KLASS_WARMUP_ENABLED";
+    private static final String ENV_WARMUP_CONCURRENCY = "KLASS_WARMUP_CONCURRENCY";
+    private static final String ENV_WARMUP_INTERVAL_MINUTES = "KLASS_WARMUP_INTERVAL_MINUTES";
+
+    private static final int DEFAULT_WARMUP_CONCURRENCY = 4;
+    private static final int DEFAULT_WARMUP_INTERVAL_MINUTES = 60;
+
+    private final KlassURNResolver klassURNResolver;
+    private final boolean enabled;
+    private final Duration interval;
+    private final ExecutorService warmupExecutor;
+    private final AtomicInteger documentsInRun = new AtomicInteger();
+    private final AtomicInteger documentsDone = new AtomicInteger();
+    private final AtomicLong lastCompletedEpochSeconds = new AtomicLong();
+    private final Counter refreshedCounter;
+    private final Counter failedCounter;
+    private final Timer runTimer;
+
+    @Autowired
+    public KlassCacheWarmer(KlassURNResolver klassURNResolver, MeterRegistry meterRegistry) {
+        this.klassURNResolver = klassURNResolver;
+        enabled = !"false".equalsIgnoreCase(System.getenv(ENV_WARMUP_ENABLED));
+        interval = Duration.ofMinutes(Utils.getEnvInt(ENV_WARMUP_INTERVAL_MINUTES, DEFAULT_WARMUP_INTERVAL_MINUTES));
+        int concurrency = Math.max(1, Utils.getEnvInt(ENV_WARMUP_CONCURRENCY, DEFAULT_WARMUP_CONCURRENCY));
+        AtomicInteger threadCounter = new AtomicInteger();
+        warmupExecutor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "klass-warmup-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        new ExecutorServiceMetrics(warmupExecutor, "klass.warmup", Tags.empty()).bindTo(meterRegistry);
+
+        Gauge.builder("klass.warmup.documents", documentsInRun, AtomicInteger::get)
+                .description("KLASS documents in the current (or last) warm-up run")
+                .register(meterRegistry);
+        Gauge.builder("klass.warmup.documents.done", documentsDone, AtomicInteger::get)
+                .description("KLASS documents handled so far in the current (or last) warm-up run")
+                .register(meterRegistry);
+        Gauge.builder("klass.warmup.last.completed", lastCompletedEpochSeconds, AtomicLong::get)
+                .description("When the last warm-up run completed, in seconds since the epoch")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        refreshedCounter = Counter.builder("klass.warmup.refreshed")
+                .description("KLASS documents loaded or reloaded by the warm-up")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("klass.warmup.failed")
+                .description("KLASS documents the warm-up failed to load")
+                .register(meterRegistry);
+        runTimer = Timer.builder("klass.warmup.duration")
+                .description("Duration of the KLASS warm-up runs")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "PT${KLASS_WARMUP_INITIAL_DELAY_SECONDS:30}S", fixedDelayString = "PT${KLASS_WARMUP_INTERVAL_MINUTES:60}M")
+    public void warmUp() {
+        if (!enabled)
+            return;
+        ResponseEntity<JsonNode> referencedRE;
+        try {
+            DatabaseInterface database = DatabaseFactory.getDatabase(DatabaseFactory.DEFAULT_DATABASE);
+            referencedRE = database.getReferencedClassifications();
+        } catch (Exception | Error e) {
+            LOG.warn("KLASS warm-up skipped, could not read the stored versions: " + e.getMessage());
+            return;
+        }
+        if (!referencedRE.getStatusCode().is2xxSuccessful() || referencedRE.getBody() == null) {
+            LOG.warn("KLASS warm-up skipped, getting the referenced classifications returned " + referencedRE.getStatusCode());
+            return;
+        }
+        runTimer.record(() -> warmUp(getUrls(referencedRE.getBody())));
+    }
+
+    private Set<String> getUrls(JsonNode referenced) {
+        Set<String> urls = new LinkedHashSet<>();
+        referenced.get(Field.CLASSIFICATION_IDS).forEach(classificationId -> urls.add(klassURNResolver.makeKLASSClassificationURL(classificationId.asText())));
+        if (klassURNResolver.getEnrichmentMode() == KlassURNResolver.EnrichmentMode.VERSIONS) {
+            for (JsonNode classificationVersion : referenced.get(Field.CLASSIFICATION_VERSIONS))
+                for (String languageCode : Utils.LANGUAGE_CODES)
+                    urls.add(classificationVersion.asText() + ".json?language=" + languageCode);
+        }
+        return urls;
+    }
+
+    private void warmUp(Set<String> urls) {
+        LOG.info("KLASS warm-up of " + urls.size() + " documents started");
+        documentsInRun.set(urls.size());
+        documentsDone.set(0);
+        AtomicInteger refreshed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    if (klassURNResolver.refresh(url, interval)) {
+                        refreshed.incrementAndGet();
+                        refreshedCounter.increment();
+                    }
+                } catch (KlassFetchException e) {
+                    LOG.debug("KLASS warm-up could not load " + url + ": " + e.getMessage());
+                    failed.incrementAndGet();
+                    failedCounter.increment();
+                } finally {
+                    documentsDone.incrementAndGet();
+                }
+            }, warmupExecutor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        lastCompletedEpochSeconds.set(System.currentTimeMillis() / 1000);
+        LOG.info("KLASS warm-up of " + urls.size() + " documents done. " + refreshed.get() + " loaded from KLASS, " + failed.get() + " failed");
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        warmupExecutor.shutdownNow();
+    }
+}
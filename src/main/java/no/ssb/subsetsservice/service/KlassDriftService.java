@@ -0,0 +1,393 @@
+package no.ssb.subsetsservice.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import no.ssb.subsetsservice.controller.SubsetsControllerV2;
+import no.ssb.subsetsservice.entity.Field;
+import no.ssb.subsetsservice.util.KlassContext;
+import no.ssb.subsetsservice.util.KlassDocument;
+import no.ssb.subsetsservice.util.KlassFetchException;
+import no.ssb.subsetsservice.util.KlassReferenceIndex;
+import no.ssb.subsetsservice.util.KlassURNResolver;
+import no.ssb.subsetsservice.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Brings the KLASS names, notes and classificationVersions frozen into the stored subset versions up to date when KLASS
+ * publishes a change, every KLASS_DRIFT_INTERVAL_MINUTES or when asked to through the admin endpoint.
+ * <p>
+ * The resolver tells this service about every KLASS document that has changed since it was last loaded (see KlassChangeListener),
+ * whether it was reloaded by a request, the cache refresh, the warm-up or a drift run. A drift run revalidates the KLASS documents
+ * the stored versions depend on, looks up the versions that depend on the changed documents in a reverse index (KlassReferenceIndex)
+ * rebuilt from the database, and enriches only those again, KLASS_DRIFT_CONCURRENCY at a time. The versions whose enrichment
+ * changed are written back KLASS_DRIFT_BATCH_SIZE at a time, each batch in one transaction. A version is only written if it is
+ * still stored as it was read, so that an edit made while it was enriched is not overwritten. Versions that were edited or deleted
+ * in the meantime are skipped, and versions that fail to be enriched are tried again in the next run.
+ */
+@Service
+public class KlassDriftService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KlassDriftService.class);
+
+    private static final String ENV_DRIFT_ENABLED = "KLASS_DRIFT_ENABLED";
+    private static final String ENV_DRIFT_CONCURRENCY = "KLASS_DRIFT_CONCURRENCY";
+    private static final String ENV_DRIFT_BATCH_SIZE = "KLASS_DRIFT_BATCH_SIZE";
+    private static final String ENV_DRIFT_INTERVAL_MINUTES = "KLASS_DRIFT_INTERVAL_MINUTES";
+
+    private static final int DEFAULT_DRIFT_CONCURRENCY = 4;
+    private static final int DEFAULT_DRIFT_BATCH_SIZE = 50;
+    private static final int DEFAULT_DRIFT_INTERVAL_MINUTES = 6 * 60;
+
+    private static final String OUTCOME_UPDATED = "updated";
+    private static final String OUTCOME_UNCHANGED = "unchanged";
+    private static final String OUTCOME_SKIPPED = "skipped";
+    private static final String OUTCOME_FAILED = "failed";
+
+    private final KlassURNResolver klassURNResolver;
+    private final SubsetsControllerV2 subsetsController;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Duration interval;
+    private final ExecutorService runExecutor;
+    private final ExecutorService enrichExecutor;
+    private final Set<String> changedUrls = ConcurrentHashMap.newKeySet();
+    private final Set<String> failedVersions = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Map<String, Counter> versionCounters = new HashMap<>();
+    private final Timer runTimer;
+    private volatile KlassReferenceIndex referenceIndex = new KlassReferenceIndex();
+    private volatile ObjectNode lastReport;
+
+    @Autowired
+    public KlassDriftService(KlassURNResolver klassURNResolver, SubsetsControllerV2 subsetsController, MeterRegistry meterRegistry) {
+        this.klassURNResolver = klassURNResolver;
+        this.subsetsController = subsetsController;
+        enabled = !"false".equalsIgnoreCase(System.getenv(ENV_DRIFT_ENABLED));
+        batchSize = Math.max(1, Utils.getEnvInt(ENV_DRIFT_BATCH_SIZE, DEFAULT_DRIFT_BATCH_SIZE));
+        interval = Duration.ofMinutes(Utils.getEnvInt(ENV_DRIFT_INTERVAL_MINUTES, DEFAULT_DRIFT_INTERVAL_MINUTES));
+        runExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "klass-drift");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int concurrency = Math.max(1, Utils.getEnvInt(ENV_DRIFT_CONCURRENCY, DEFAULT_DRIFT_CONCURRENCY));
+        AtomicInteger threadCounter = new AtomicInteger();
+        enrichExecutor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "klass-drift-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        new ExecutorServiceMetrics(enrichExecutor, "klass.drift", Tags.empty()).bindTo(meterRegistry);
+        for (String outcome : List.of(OUTCOME_UPDATED, OUTCOME_UNCHANGED, OUTCOME_SKIPPED, OUTCOME_FAILED))
+            versionCounters.put(outcome, Counter.builder("klass.drift.versions")
+                    .tag("outcome", outcome)
+                    .description("Stored subset versions enriched again because a KLASS document they depend on changed")
+                    .register(meterRegistry));
+        runTimer = Timer.builder("klass.drift.duration")
+                .description("Duration of the KLASS drift runs")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    private void register() {
+        klassURNResolver.addChangeListener(this::onChanged);
+    }
+
+    private void onChanged(KlassDocument previous, KlassDocument current) {
+        changedUrls.add(current.getUrl());
+    }
+
+    /**
+     * The run itself is handed to the drift thread, so that it does not hold the scheduler thread
+     * that the cache warm-up and the snapshot writes are scheduled on as well.
+     */
+    @Scheduled(initialDelayString = "PT${KLASS_DRIFT_INTERVAL_MINUTES:360}M", fixedDelayString = "PT${KLASS_DRIFT_INTERVAL_MINUTES:360}M")
+    public void scheduledRun() {
+        if (!enabled)
+            return;
+        if (!running.compareAndSet(false, true)) {
+            LOG.info("KLASS drift run skipped, another run is in progress");
+            return;
+        }
+        CompletableFuture.runAsync(() -> run(interval, Collections.emptySet(), false), runExecutor);
+    }
+
+    /**
+     * Start a drift run in the background, unless one is running already.
+     * The KLASS documents the stored versions depend on are all revalidated against KLASS.
+     *
+     * @param classificationIds versions with codes of these classifications are enriched again even if KLASS has not changed
+     * @param all enrich all stored versions again
+     * @return false if a run was already running
+     */
+    public boolean start(Set<String> classificationIds, boolean all) {
+        if (!running.compareAndSet(false, true))
+            return false;
+        CompletableFuture.runAsync(() -> run(Duration.ZERO, classificationIds, all), runExecutor);
+        return true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return the reverse index built by the last run
+     */
+    public KlassReferenceIndex getReferenceIndex() {
+        return referenceIndex;
+    }
+
+    /**
+     * @return the report of the last completed run, or null if there has been none
+     */
+    public ObjectNode getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Run with the running flag set, and clear it when done.
+     *
+     * @param maxAge KLASS documents fetched longer ago than this are revalidated against KLASS first
+     */
+    private void run(Duration maxAge, Set<String> classificationIds, boolean all) {
+        long start = System.nanoTime();
+        ObjectNode report = new ObjectMapper().createObjectNode();
+        report.put("startedAt", Utils.getNowISO());
+        Set<String> changed = new LinkedHashSet<>();
+        Set<String> retried = new LinkedHashSet<>();
+        try {
+            ResponseEntity<JsonNode> referencesRE = DatabaseFactory.getDatabase(DatabaseFactory.DEFAULT_DATABASE).getKlassReferences();
+            if (!referencesRE.getStatusCode().is2xxSuccessful() || referencesRE.getBody() == null) {
+                LOG.warn("KLASS drift run skipped, getting the KLASS references of the stored versions returned " + referencesRE.getStatusCode());
+                report.put("error", "Could not read the KLASS references of the stored versions");
+                return;
+            }
+            KlassReferenceIndex index = buildIndex(referencesRE.getBody());
+            referenceIndex = index;
+
+            revalidate(index, maxAge);
+
+            changed.addAll(changedUrls);
+            changedUrls.removeAll(changed);
+            Set<String> affected = new LinkedHashSet<>(all ? index.getVersions() : index.getAffectedVersions(changed));
+            affected.addAll(index.getVersionsOfClassifications(classificationIds));
+            retried.addAll(failedVersions);
+            failedVersions.removeAll(retried);
+            retried.retainAll(index.getVersions());
+            affected.addAll(retried);
+            LOG.info("KLASS drift run: " + changed.size() + " changed KLASS documents, " + affected.size() + " of " + index.getVersions().size() + " stored versions to enrich again");
+
+            report.put("changedKlassDocuments", changed.size());
+            report.put("storedVersions", index.getVersions().size());
+            report.put("affectedVersions", affected.size());
+            reenrich(affected, report);
+        } catch (RuntimeException e) {
+            LOG.error("KLASS drift run failed", e);
+            report.put("error", e.getMessage());
+            // Remember what this run was to handle, so that the next run does it instead
+            changedUrls.addAll(changed);
+            failedVersions.addAll(retried);
+        } finally {
+            runTimer.record(Duration.ofNanos(System.nanoTime() - start));
+            report.put("completedAt", Utils.getNowISO());
+            lastReport = report;
+            running.set(false);
+        }
+    }
+
+    private static KlassReferenceIndex buildIndex(JsonNode references) {
+        KlassReferenceIndex index = new KlassReferenceIndex();
+        for (JsonNode versionReferences : references) {
+            List<String> classificationIds = new ArrayList<>();
+            versionReferences.get(Field.CLASSIFICATION_IDS).forEach(id -> classificationIds.add(id.asText()));
+            List<String> classificationVersions = new ArrayList<>();
+            versionReferences.get(Field.CLASSIFICATION_VERSIONS).forEach(link -> classificationVersions.add(link.asText()));
+            index.add(versionReferences.get(Field.VERSION_UID).asText(), classificationIds, classificationVersions);
+        }
+        return index;
+    }
+
+    /**
+     * Revalidate the KLASS documents the stored versions depend on, so that the resolver notices the ones that have changed.
+     */
+    private void revalidate(KlassReferenceIndex index, Duration maxAge) {
+        Set<String> urls = new LinkedHashSet<>();
+        index.getClassificationIds().forEach(id -> urls.add(klassURNResolver.makeKLASSClassificationURL(id)));
+        if (klassURNResolver.getEnrichmentMode() == KlassURNResolver.EnrichmentMode.VERSIONS)
+            for (String classificationVersion : index.getClassificationVersions())
+                for (String languageCode : Utils.LANGUAGE_CODES)
+                    urls.add(classificationVersion + ".json?language=" + languageCode);
+        List<CompletableFuture<Void>> futures = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    klassURNResolver.refresh(url, maxAge);
+                } catch (KlassFetchException e) {
+                    LOG.debug("KLASS drift run could not revalidate " + url + ": " + e.getMessage());
+                }
+            }, enrichExecutor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    private void reenrich(Set<String> versionUids, ObjectNode report) {
+        DatabaseInterface database = DatabaseFactory.getDatabase(DatabaseFactory.DEFAULT_DATABASE);
+        List<Reenriched> batch = new ArrayList<>(batchSize);
+        Object writeLock = new Object();
+        AtomicInteger updated = new AtomicInteger();
+        AtomicInteger unchanged = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(versionUids.size());
+        for (String versionUid : versionUids) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                Reenriched reenriched = reenrich(database, versionUid);
+                if (reenriched.outcome.equals(OUTCOME_UNCHANGED))
+                    unchanged.incrementAndGet();
+                else if (reenriched.outcome.equals(OUTCOME_SKIPPED))
+                    skipped.incrementAndGet();
+                if (!reenriched.outcome.equals(OUTCOME_UPDATED)) {
+                    if (!reenriched.outcome.equals(OUTCOME_FAILED)) // failures are counted by onFailed
+                        versionCounters.get(reenriched.outcome).increment();
+                    return;
+                }
+                List<Reenriched> full = null;
+                synchronized (batch) {
+                    batch.add(reenriched);
+                    if (batch.size() >= batchSize) {
+                        full = new ArrayList<>(batch);
+                        batch.clear();
+                    }
+                }
+                if (full != null)
+                    synchronized (writeLock) {
+                        write(database, full, updated, skipped);
+                    }
+            }, enrichExecutor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        synchronized (writeLock) {
+            write(database, batch, updated, skipped);
+        }
+        report.put(OUTCOME_UPDATED, updated.get());
+        report.put(OUTCOME_UNCHANGED, unchanged.get());
+        report.put(OUTCOME_SKIPPED, skipped.get());
+        report.put(OUTCOME_FAILED, failedVersions.size());
+        ArrayNode failed = report.putArray("failedVersions");
+        failedVersions.forEach(failed::add);
+        LOG.info("KLASS drift run done. " + updated.get() + " versions updated, " + unchanged.get() + " unchanged, " + skipped.get() + " skipped, " + failedVersions.size() + " failed");
+    }
+
+    /**
+     * @return the version enriched again (outcome updated, but not written yet), or only the outcome if the enrichment is unchanged,
+     * the version has been deleted (skipped) or the enrichment failed (then the version is remembered in failedVersions)
+     */
+    private Reenriched reenrich(DatabaseInterface database, String versionUid) {
+        KlassContext klassContext = new KlassContext(klassURNResolver);
+        try {
+            ResponseEntity<JsonNode> storedRE = database.getVersionByID(versionUid);
+            if (storedRE.getStatusCode() == HttpStatus.NOT_FOUND) {
+                LOG.debug("KLASS drift run skips " + versionUid + ", it has been deleted");
+                return Reenriched.outcome(OUTCOME_SKIPPED);
+            }
+            if (!storedRE.getStatusCode().is2xxSuccessful() || storedRE.getBody() == null) {
+                onFailed(versionUid, "getting it returned " + storedRE.getStatusCode());
+                return Reenriched.outcome(OUTCOME_FAILED);
+            }
+            JsonNode stored = storedRE.getBody();
+            ResponseEntity<JsonNode> reenrichedRE = subsetsController.reenrichVersion(stored, klassContext);
+            if (!reenrichedRE.getStatusCode().is2xxSuccessful()) {
+                onFailed(versionUid, "status " + reenrichedRE.getStatusCode());
+                return Reenriched.outcome(OUTCOME_FAILED);
+            }
+            if (stored.equals(reenrichedRE.getBody()))
+                return Reenriched.outcome(OUTCOME_UNCHANGED);
+            return new Reenriched(OUTCOME_UPDATED, stored, (ObjectNode) reenrichedRE.getBody());
+        } catch (RuntimeException e) {
+            onFailed(versionUid, e.getMessage());
+            return Reenriched.outcome(OUTCOME_FAILED);
+        } finally {
+            klassContext.cancel();
+        }
+    }
+
+    private void write(DatabaseInterface database, List<Reenriched> versions, AtomicInteger updated, AtomicInteger skipped) {
+        if (versions.isEmpty())
+            return;
+        List<ObjectNode> editedVersions = new ArrayList<>(versions.size());
+        List<JsonNode> storedVersions = new ArrayList<>(versions.size());
+        for (Reenriched reenriched : versions) {
+            editedVersions.add(reenriched.version);
+            storedVersions.add(reenriched.stored);
+        }
+        ResponseEntity<JsonNode> editVersionsRE = database.editVersionsIfUnchanged(editedVersions, storedVersions);
+        if (editVersionsRE.getStatusCode().is2xxSuccessful() && editVersionsRE.getBody() != null) {
+            int updatedCount = editVersionsRE.getBody().get(OUTCOME_UPDATED).size();
+            int skippedCount = editVersionsRE.getBody().get(OUTCOME_SKIPPED).size();
+            if (skippedCount > 0)
+                LOG.info("KLASS drift run skipped the versions " + editVersionsRE.getBody().get(OUTCOME_SKIPPED) + ", they were edited or deleted while they were enriched");
+            updated.addAndGet(updatedCount);
+            skipped.addAndGet(skippedCount);
+            versionCounters.get(OUTCOME_UPDATED).increment(updatedCount);
+            versionCounters.get(OUTCOME_SKIPPED).increment(skippedCount);
+        } else {
+            editedVersions.forEach(version -> onFailed(version.get(Field.SUBSET_ID).asText() + "_" + version.get(Field.VERSION_ID).asText(), "write returned " + editVersionsRE.getStatusCode()));
+        }
+        versions.clear();
+    }
+
+    private void onFailed(String versionUid, String reason) {
+        LOG.warn("KLASS drift run could not enrich " + versionUid + " again: " + reason);
+        failedVersions.add(versionUid);
+        versionCounters.get(OUTCOME_FAILED).increment();
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        runExecutor.shutdownNow();
+        enrichExecutor.shutdownNow();
+    }
+
+    /**
+     * The outcome of enriching a version again, and if it is to be updated, the version with the stored edition it was enriched from
+     */
+    private static class Reenriched {
+        private final String outcome;
+        private final JsonNode stored;
+        private final ObjectNode version;
+
+        private Reenriched(String outcome, JsonNode stored, ObjectNode version) {
+            this.outcome = outcome;
+            this.stored = stored;
+            this.version = version;
+        }
+
+        private static Reenriched outcome(String outcome) {
+            return new Reenriched(outcome, null, null);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package no.ssb.subsetsservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import no.ssb.subsetsservice.util.KlassDocument;
+import no.ssb.subsetsservice.util.KlassSnapshot;
+import no.ssb.subsetsservice.util.KlassURNResolver;
+import no.ssb.subsetsservice.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps a snapshot file of the KLASS document cache (see KlassSnapshot) at KLASS_SNAPSHOT_PATH, so that a restarted replica
+ * starts with the KLASS documents it had. The snapshot is memory-mapped at startup and handed to the resolver,
+ * and written every KLASS_SNAPSHOT_INTERVAL_MINUTES and on shutdown.
+ * Documents of the previous snapshot that are no longer cached are kept in the new one for KLASS_SNAPSHOT_MAX_AGE_HOURS after they were fetched.
+ * The snapshot is off unless KLASS_SNAPSHOT_PATH is set. The path should be on a volume that outlives the container.
+ */
+@Service
+public class KlassSnapshotService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KlassSnapshotService.class);
+
+    private static final String ENV_SNAPSHOT_PATH = "KLASS_SNAPSHOT_PATH";
+    private static final String ENV_SNAPSHOT_MAX_AGE_HOURS = "KLASS_SNAPSHOT_MAX_AGE_HOURS";
+
+    private static final int DEFAULT_SNAPSHOT_MAX_AGE_HOURS = 7 * 24;
+
+    private final KlassURNResolver klassURNResolver;
+    private final Path path;
+    private final Duration maxAge;
+    private final Timer writeTimer;
+    private final Counter failedCounter;
+
+    @Autowired
+    public KlassSnapshotService(KlassURNResolver klassURNResolver, MeterRegistry meterRegistry) {
+        this(klassURNResolver, System.getenv(ENV_SNAPSHOT_PATH) == null || System.getenv(ENV_SNAPSHOT_PATH).isBlank() ? null : Path.of(System.getenv(ENV_SNAPSHOT_PATH)),
+                Duration.ofHours(Utils.getEnvInt(ENV_SNAPSHOT_MAX_AGE_HOURS, DEFAULT_SNAPSHOT_MAX_AGE_HOURS)), meterRegistry);
+    }
+
+    /**
+     * @param path of the snapshot file, or null to not use a snapshot
+     */
+    KlassSnapshotService(KlassURNResolver klassURNResolver, Path path, Duration maxAge, MeterRegistry meterRegistry) {
+        this.klassURNResolver = klassURNResolver;
+        this.path = path;
+        this.maxAge = maxAge;
+        Gauge.builder("klass.snapshot.documents", klassURNResolver, resolver -> resolver.getSnapshot() == null ? 0 : resolver.getSnapshot().size())
+                .description("KLASS documents in the snapshot file in use")
+                .register(meterRegistry);
+        writeTimer = Timer.builder("klass.snapshot.write")
+                .description("Time to write the KLASS snapshot file")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("klass.snapshot.failed")
+                .description("Reads and writes of the KLASS snapshot file that failed")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void open() {
+        if (path == null) {
+            LOG.debug("No KLASS snapshot, " + ENV_SNAPSHOT_PATH + " is not set");
+            return;
+        }
+        if (!Files.isRegularFile(path)) {
+            LOG.info("No KLASS snapshot at " + path + " yet");
+            return;
+        }
+        try {
+            KlassSnapshot snapshot = KlassSnapshot.open(path);
+            klassURNResolver.setSnapshot(snapshot);
+            LOG.info("Using the KLASS snapshot " + path + " of " + snapshot.size() + " documents");
+        } catch (IOException e) {
+            LOG.warn("Could not open the KLASS snapshot: " + e.getMessage());
+            failedCounter.increment();
+        }
+    }
+
+    @Scheduled(initialDelayString = "PT${KLASS_SNAPSHOT_INTERVAL_MINUTES:15}M", fixedDelayString = "PT${KLASS_SNAPSHOT_INTERVAL_MINUTES:15}M")
+    public void scheduledWrite() {
+        if (path != null)
+            write();
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if (path != null)
+            write();
+    }
+
+    /**
+     * Write the cached documents, and the documents of the previous snapshot that are not cached and not too old,
+     * to a new snapshot, and switch the resolver over to it.
+     */
+    synchronized void write() {
+        long start = System.nanoTime();
+        List<KlassDocument> documents = klassURNResolver.getDocumentCache().documents();
+        KlassSnapshot previous = klassURNResolver.getSnapshot();
+        if (previous != null) {
+            Set<String> cached = new HashSet<>();
+            documents.forEach(document -> cached.add(document.getUrl()));
+            long oldest = System.currentTimeMillis() - maxAge.toMillis();
+            for (String url : new ArrayList<>(previous.urls())) {
+                if (cached.contains(url))
+                    continue;
+                try {
+                    KlassDocument document = previous.get(url);
+                    if (document.getFetchedAtMillis() >= oldest)
+                        documents.add(document);
+                } catch (IllegalStateException e) {
+                    LOG.debug("Leaving out of the KLASS snapshot: " + e.getMessage());
+                }
+            }
+        }
+        if (documents.isEmpty()) {
+            LOG.debug("No KLASS documents to write to the snapshot");
+            return;
+        }
+        try {
+            int written = KlassSnapshot.write(path, documents);
+            klassURNResolver.setSnapshot(KlassSnapshot.open(path));
+            LOG.debug("Wrote " + written + " KLASS documents to the snapshot " + path);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not write the KLASS snapshot " + path + ": " + e.getMessage());
+            failedCounter.increment();
+        } finally {
+            writeTimer.record(Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+}
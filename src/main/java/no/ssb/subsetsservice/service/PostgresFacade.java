@@ -13,16 +13,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import static no.ssb.subsetsservice.entity.SQL.*;
 import static org.springframework.http.HttpStatus.*;
 
-@Service
 public class PostgresFacade implements DatabaseInterface {
 
     private static final Logger LOG = LoggerFactory.getLogger(PostgresFacade.class);
@@ -39,17 +41,19 @@ public class PostgresFacade implements DatabaseInterface {
     private String VERSION_SCHEMA_PATH = LOCAL_SUBSETS_SCHEMA_DIR + VERSION_SCHEMA_FILENAME;
     private String SERIES_SCHEMA_PATH = LOCAL_SUBSETS_SCHEMA_DIR + SERIES_SCHEMA_FILENAME;
 
-    public PostgresFacade(){
-        initializeDatabase();
+    /**
+     * Use DatabaseFactory.getDatabase, which shares one instance. The constructor does not touch the database,
+     * the schema is brought up to date once at startup by initializeDatabase (see DatabaseMigrationService).
+     */
+    PostgresFacade(){
+        locateSchemaDirectory();
+        connectionPool = ConnectionPool.getInstance();
     }
 
-    @Override
-    public ResponseEntity<JsonNode> initializeDatabase() {
+    private void locateSchemaDirectory() {
         LOG.debug("Finding schema");
         String versionSchemaJsonPath = LOCAL_SUBSETS_SCHEMA_DIR + VERSION_SCHEMA_FILENAME;
-        //String seriesSchemaJsonPath = LOCAL_SUBSETS_SCHEMA_DIR+SERIES_SCHEMA_FILENAME;
         File versionJsonFile = new File(versionSchemaJsonPath);
-        //File seriesJsonFile = new File(seriesSchemaJsonPath);
         if (versionJsonFile.exists() && versionJsonFile.isFile()) {
             LOG.debug("version schema file " + versionJsonFile.getPath() + " exists and is a file!");
             LOG.debug("Setting schema directory to " + LOCAL_SUBSETS_SCHEMA_DIR);
@@ -69,58 +73,29 @@ public class PostgresFacade implements DatabaseInterface {
         }
         VERSION_SCHEMA_PATH = SUBSETS_SCHEMA_DIR + VERSION_SCHEMA_FILENAME;
         SERIES_SCHEMA_PATH = SUBSETS_SCHEMA_DIR + SERIES_SCHEMA_FILENAME;
+    }
 
+    /**
+     * Applies the schema migrations that have not been applied to the database yet (see DatabaseMigrations).
+     * Called once at startup, never on the request path.
+     */
+    @Override
+    public ResponseEntity<JsonNode> initializeDatabase() {
         LOG.debug("initializeDatabase in PostgresFacade");
-        connectionPool = ConnectionPool.getInstance();
         try (Connection con = connectionPool.getConnection()) {
             try (Statement st = con.createStatement()) {
                 try (ResultSet rs = st.executeQuery("SELECT VERSION()")) {
                     if (rs.next()) {
                         LOG.debug("'SELECT VERSION()' result : " + rs.getString(1));
                     }
-
-                    LOG.debug("Attempting subsets table and index creation...");
-                    try (PreparedStatement preparedStatement = con.prepareStatement(SQL.CREATE_SERIES)) {
-                        LOG.debug("Crete series table");
-                        preparedStatement.executeUpdate();
-                    }
-
-                    try (PreparedStatement preparedStatement = con.prepareStatement(SQL.SET_OWNER_SERIES)) {
-                        LOG.debug("Set owner of series table");
-                        preparedStatement.executeUpdate();
-                    }
-
-                    try (PreparedStatement preparedStatement = con.prepareStatement(SQL.CREATE_VERSIONS)) {
-                        LOG.debug("create versions table");
-                        preparedStatement.executeUpdate();
-                    }
-
-                    try (PreparedStatement preparedStatement = con.prepareStatement(SQL.SET_OWNER_VERSIONS)) {
-                        LOG.debug("set owner of versions table");
-                        preparedStatement.executeUpdate();
-                    }
-
-                    try (PreparedStatement preparedStatement = con.prepareStatement(SQL.CREATE_INDEX)) {
-                        LOG.debug("create index");
-                        preparedStatement.executeUpdate();
-                    }
-
-                    try (Statement st2 = con.createStatement()) {
-                        String getTablesQuery = "SELECT * FROM information_schema.tables WHERE table_type='BASE TABLE' AND table_schema='public'";
-                        LOG.debug("Executing query: '" + getTablesQuery + "'");
-                        try (ResultSet rs2 = st2.executeQuery(getTablesQuery)) {
-                            LOG.debug("Printing SQL table(name)s retrieved with query:");
-                            int columnIndex = 1;
-                            while (rs2.next()) {
-                                String table = rs2.getString(columnIndex);
-                                LOG.debug("'rs.getString(" + columnIndex + "): " + table);
-                                columnIndex++;
-                            }
-                        }
-                    }
                 }
             }
-            return new ResponseEntity<>(OK);
+            List<Integer> applied = DatabaseMigrations.migrate(con);
+            ObjectNode body = new ObjectMapper().createObjectNode();
+            body.put("schemaVersion", DatabaseMigrations.latestVersion());
+            ArrayNode appliedArray = body.putArray("applied");
+            applied.forEach(appliedArray::add);
+            return new ResponseEntity<>(body, OK);
         } catch (SQLException ex) {
             LOG.error(ex.getMessage(), ex);
             return ErrorHandler.newHttpError(ex.getMessage(), INTERNAL_SERVER_ERROR, LOG);
@@ -131,21 +106,10 @@ public class PostgresFacade implements DatabaseInterface {
     public ResponseEntity<JsonNode> getVersionsBySeriesID(String seriesID, boolean includeFuture, boolean includeDrafts) {
         LOG.debug("getVersionBySeriesID " + seriesID);
         try (Connection con = connectionPool.getConnection()) {
-            PreparedStatement pstmt;
-            if (includeFuture) {
-                pstmt = con.prepareStatement(SELECT_SERIES_VERSIONS_VALID_AND_FUTURE);
-            } else {
-                pstmt = con.prepareStatement(SELECT_SERIES_VERSIONS_VALID);
-            }
-            try (pstmt) {
+            try (PreparedStatement pstmt = con.prepareStatement(SELECT_SERIES_VERSIONS)) {
                 pstmt.setString(1, seriesID);
-                String commaDelimitedList;
-                if (includeDrafts) {
-                    commaDelimitedList = Field.DRAFT + "," + Field.OPEN;
-                } else {
-                    commaDelimitedList = Field.OPEN;
-                }
-                pstmt.setString(2, commaDelimitedList);
+                pstmt.setArray(2, administrativeStatuses(con, includeDrafts));
+                pstmt.setBoolean(3, includeFuture);
                 LOG.debug("pstmt: " + pstmt);
                 try (ResultSet rs = pstmt.executeQuery()) {
                     if (!rs.isBeforeFirst()) {
@@ -168,6 +132,84 @@ public class PostgresFacade implements DatabaseInterface {
         }
     }
 
+    @Override
+    public ResponseEntity<JsonNode> getCodesInRange(String seriesID, String from, String to, boolean includeFuture, boolean includeDrafts) {
+        LOG.debug("getCodesInRange of series " + seriesID + " from " + from + " to " + to);
+        try (Connection con = connectionPool.getConnection()) {
+            try (PreparedStatement pstmt = con.prepareStatement(SELECT_SERIES_CODES_IN_RANGE)) {
+                pstmt.setString(1, from);
+                pstmt.setString(2, from != null && to != null && to.compareTo(from) < 0 ? from : to); // an empty range if 'to' is before 'from'
+                pstmt.setString(3, seriesID);
+                pstmt.setArray(4, administrativeStatuses(con, includeDrafts));
+                pstmt.setBoolean(5, includeFuture);
+                LOG.debug("pstmt: " + pstmt);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.isBeforeFirst()) {
+                        return ErrorHandler.newHttpError("There were no versions for series ID " + seriesID, NOT_FOUND, LOG);
+                    }
+                    ObjectMapper om = new ObjectMapper();
+                    ArrayNode codesArrayNode = om.createArrayNode();
+                    while (rs.next()) {
+                        String code = rs.getString(2);
+                        if (code != null) // a version without codes in the range
+                            codesArrayNode.add(om.readTree(code));
+                    }
+                    return new ResponseEntity<>(codesArrayNode, OK);
+                }
+            }
+        } catch (SQLException ex) {
+            LOG.error("Failed to get codes of series " + seriesID, ex);
+            return ErrorHandler.newHttpError("Failed to get codes of series", INTERNAL_SERVER_ERROR, LOG);
+        } catch (JsonProcessingException e) {
+            LOG.error("Failed to parse json", e);
+            return ErrorHandler.newHttpError("Failed to parse json", INTERNAL_SERVER_ERROR, LOG);
+        }
+    }
+
+    @Override
+    public ResponseEntity<JsonNode> getCodesAt(String seriesID, String date, boolean includeFuture, boolean includeDrafts) {
+        LOG.debug("getCodesAt " + date + " of series " + seriesID);
+        try (Connection con = connectionPool.getConnection()) {
+            try (PreparedStatement pstmt = con.prepareStatement(SELECT_SERIES_CODES_AT)) {
+                Array administrativeStatuses = administrativeStatuses(con, includeDrafts);
+                pstmt.setString(1, seriesID);
+                pstmt.setArray(2, administrativeStatuses);
+                pstmt.setBoolean(3, includeFuture);
+                pstmt.setString(4, seriesID);
+                pstmt.setArray(5, administrativeStatuses);
+                pstmt.setBoolean(6, includeFuture);
+                pstmt.setString(7, date);
+                LOG.debug("pstmt: " + pstmt);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next() || !rs.getBoolean(1)) {
+                        return ErrorHandler.newHttpError("There were no versions for series ID " + seriesID, NOT_FOUND, LOG);
+                    }
+                    ObjectMapper om = new ObjectMapper();
+                    String codes = rs.getString(2);
+                    JsonNode codesNode = codes == null ? null : om.readTree(codes);
+                    if (codesNode == null || !codesNode.isArray()) {
+                        LOG.debug("No version of series " + seriesID + " with codes is valid at " + date);
+                        return new ResponseEntity<>(om.createArrayNode(), OK);
+                    }
+                    return new ResponseEntity<>(codesNode, OK);
+                }
+            }
+        } catch (SQLException ex) {
+            LOG.error("Failed to get codes at " + date + " of series " + seriesID, ex);
+            return ErrorHandler.newHttpError("Failed to get codes of series", INTERNAL_SERVER_ERROR, LOG);
+        } catch (JsonProcessingException e) {
+            LOG.error("Failed to parse json", e);
+            return ErrorHandler.newHttpError("Failed to parse json", INTERNAL_SERVER_ERROR, LOG);
+        }
+    }
+
+    /**
+     * @return the administrative statuses of the versions to get, as a parameter of '= ANY (?)'
+     */
+    private static Array administrativeStatuses(Connection con, boolean includeDrafts) throws SQLException {
+        return con.createArrayOf("text", includeDrafts ? new String[]{Field.DRAFT, Field.OPEN} : new String[]{Field.OPEN});
+    }
+
     @Override
     public ResponseEntity<JsonNode> getVersionByID(String versionUid) {
         LOG.debug("getVersionByID uid " + versionUid);
@@ -247,6 +289,126 @@ public class PostgresFacade implements DatabaseInterface {
         }
     }
 
+    @Override
+    public ResponseEntity<JsonNode> getReferencedClassifications() {
+        LOG.debug("getReferencedClassifications");
+        try (Connection con = connectionPool.getConnection()) {
+            try (PreparedStatement pstmt = con.prepareStatement(SELECT_REFERENCED_CLASSIFICATIONS)) {
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    Set<String> classificationIds = new LinkedHashSet<>();
+                    Set<String> classificationVersions = new LinkedHashSet<>();
+                    while (rs.next()) {
+                        if (rs.getString(1) != null)
+                            classificationIds.add(rs.getString(1));
+                        if (rs.getString(2) != null)
+                            classificationVersions.add(rs.getString(2));
+                    }
+                    ObjectMapper om = new ObjectMapper();
+                    ObjectNode referenced = om.createObjectNode();
+                    ArrayNode classificationIdsArrayNode = referenced.putArray(Field.CLASSIFICATION_IDS);
+                    classificationIds.forEach(classificationIdsArrayNode::add);
+                    ArrayNode classificationVersionsArrayNode = referenced.putArray(Field.CLASSIFICATION_VERSIONS);
+                    classificationVersions.forEach(classificationVersionsArrayNode::add);
+                    return new ResponseEntity<>(referenced, OK);
+                }
+            }
+        } catch (SQLException ex) {
+            LOG.error("Failed to get the classifications referenced by stored versions", ex);
+            return ErrorHandler.newHttpError("Failed to get the classifications referenced by stored versions", INTERNAL_SERVER_ERROR, LOG);
+        }
+    }
+
+    @Override
+    public ResponseEntity<JsonNode> getKlassReferences() {
+        LOG.debug("getKlassReferences");
+        try (Connection con = connectionPool.getConnection()) {
+            try (PreparedStatement pstmt = con.prepareStatement(SELECT_KLASS_REFERENCES)) {
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    ObjectMapper om = new ObjectMapper();
+                    ArrayNode references = om.createArrayNode();
+                    String currentVersionUid = null;
+                    Set<String> classificationIds = new LinkedHashSet<>();
+                    Set<String> classificationVersions = new LinkedHashSet<>();
+                    ObjectNode versionReferences = null;
+                    while (rs.next()) {
+                        if (!rs.getString(2).equals(currentVersionUid)) {
+                            addKlassReferences(versionReferences, classificationIds, classificationVersions, references);
+                            currentVersionUid = rs.getString(2);
+                            versionReferences = om.createObjectNode();
+                            versionReferences.put(Field.SUBSET_ID, rs.getString(1));
+                            versionReferences.put(Field.VERSION_UID, currentVersionUid);
+                        }
+                        if (rs.getString(3) != null)
+                            classificationIds.add(rs.getString(3));
+                        if (rs.getString(4) != null)
+                            classificationVersions.add(rs.getString(4));
+                    }
+                    addKlassReferences(versionReferences, classificationIds, classificationVersions, references);
+                    return new ResponseEntity<>(references, OK);
+                }
+            }
+        } catch (SQLException ex) {
+            LOG.error("Failed to get the KLASS references of the stored versions", ex);
+            return ErrorHandler.newHttpError("Failed to get the KLASS references of the stored versions", INTERNAL_SERVER_ERROR, LOG);
+        }
+    }
+
+    private static void addKlassReferences(ObjectNode versionReferences, Set<String> classificationIds, Set<String> classificationVersions, ArrayNode references) {
+        if (versionReferences == null)
+            return;
+        ArrayNode classificationIdsArrayNode = versionReferences.putArray(Field.CLASSIFICATION_IDS);
+        classificationIds.forEach(classificationIdsArrayNode::add);
+        ArrayNode classificationVersionsArrayNode = versionReferences.putArray(Field.CLASSIFICATION_VERSIONS);
+        classificationVersions.forEach(classificationVersionsArrayNode::add);
+        references.add(versionReferences);
+        classificationIds.clear();
+        classificationVersions.clear();
+    }
+
+    @Override
+    public ResponseEntity<JsonNode> getKlassDocument(String url) {
+        LOG.debug("getKlassDocument " + url);
+        try (Connection con = connectionPool.getConnection()) {
+            try (PreparedStatement pstmt = con.prepareStatement(SELECT_KLASS_DOCUMENT)) {
+                pstmt.setString(1, url);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next())
+                        return new ResponseEntity<>(NOT_FOUND);
+                    ObjectNode stored = new ObjectMapper().createObjectNode();
+                    stored.put(Field.URL, url);
+                    stored.put(Field.DOCUMENT, rs.getString(1));
+                    stored.put(Field.ETAG, rs.getString(2));
+                    stored.put(Field.LAST_MODIFIED, rs.getString(3));
+                    stored.put(Field.FETCHED_AT, rs.getTimestamp(4).getTime());
+                    return new ResponseEntity<>(stored, OK);
+                }
+            }
+        } catch (SQLException ex) {
+            LOG.error("Failed to get the stored KLASS document " + url, ex);
+            return ErrorHandler.newHttpError("Failed to get the stored KLASS document", INTERNAL_SERVER_ERROR, LOG);
+        }
+    }
+
+    @Override
+    public ResponseEntity<JsonNode> saveKlassDocument(String url, String documentJson, String eTag, String lastModified, long fetchedAtMillis) {
+        LOG.debug("saveKlassDocument " + url);
+        try (Connection con = connectionPool.getConnection()) {
+            try (PreparedStatement pstmt = con.prepareStatement(UPSERT_KLASS_DOCUMENT)) {
+                pstmt.setString(1, url);
+                pstmt.setString(2, documentJson);
+                pstmt.setString(3, eTag);
+                pstmt.setString(4, lastModified);
+                pstmt.setTimestamp(5, new Timestamp(fetchedAtMillis));
+                int affectedRows = pstmt.executeUpdate();
+                LOG.debug("save KLASS document affected " + affectedRows + " rows");
+                return new ResponseEntity<>(affectedRows > 0 ? CREATED : OK);
+            }
+        } catch (SQLException ex) {
+            LOG.error("Failed to store the KLASS document " + url, ex);
+            return ErrorHandler.newHttpError("Failed to store the KLASS document", INTERNAL_SERVER_ERROR, LOG);
+        }
+    }
+
     @Override
     public boolean healthReady() {
         try (Connection con = connectionPool.getConnection()) {
@@ -318,6 +480,8 @@ public class PostgresFacade implements DatabaseInterface {
         LOG.debug("Attempting to insert version with UID " + versionUID + " to POSTGRES and update series to point to version");
 
         try (Connection con = connectionPool.getConnection()) {
+            boolean autoCommit = con.getAutoCommit();
+            con.setAutoCommit(false);
             try (PreparedStatement pstmt = con.prepareStatement("insert into versions values(?, ?, ?::JSON)")) {
                 pstmt.setString(1, versionUID);
                 pstmt.setString(2, seriesID);
@@ -329,8 +493,10 @@ public class PostgresFacade implements DatabaseInterface {
                 if (affectedRows > 0) {
                     LOG.debug("insert into versions affected " + affectedRows + " rows");
                 } else {
+                    con.rollback();
                     return ErrorHandler.newHttpError("No rows were affected by insert into versions", INTERNAL_SERVER_ERROR, LOG);
                 }
+                insertDerivedOfVersions(con, List.of(versionUID));
                 LOG.debug("preparing statement to add version to series");
                 try (PreparedStatement pstmt2 = con.prepareStatement(ADD_VERSION_TO_SERIES)) {
                     pstmt2.setString(1, versionUID);
@@ -340,18 +506,58 @@ public class PostgresFacade implements DatabaseInterface {
                     if (affectedRowsUpdateSeries > 0) {
                         LOG.debug("update series with version affected " + affectedRows + " rows");
                     } else {
+                        con.rollback();
                         return ErrorHandler.newHttpError("No rows were affected by update into series", INTERNAL_SERVER_ERROR, LOG);
                     }
                 }
+                con.commit();
+            } catch (SQLException ex) {
+                con.rollback();
+                throw ex;
+            } finally {
+                con.setAutoCommit(autoCommit);
             }
             return new ResponseEntity<>(CREATED);
         } catch (SQLException ex) {
-            ex.printStackTrace();
             LOG.error("Failed to create version or insert version into series", ex);
             return ErrorHandler.newHttpError("Failed to create version or insert version into series", INTERNAL_SERVER_ERROR, LOG);
         }
     }
 
+    /**
+     * Derives the typed columns and the version_codes rows of new versions from their stored version_json, in the transaction of the connection.
+     */
+    private static void insertDerivedOfVersions(Connection con, List<String> versionUids) throws SQLException {
+        try (PreparedStatement pstmt = con.prepareStatement(UPDATE_VERSION_COLUMNS)) {
+            for (String versionUid : versionUids) {
+                pstmt.setString(1, versionUid);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        try (PreparedStatement pstmt = con.prepareStatement(INSERT_VERSION_CODES)) {
+            for (String versionUid : versionUids) {
+                pstmt.setString(1, versionUid);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * Derives the typed columns and the version_codes rows of edited versions from their stored version_json again, in the transaction of the connection.
+     */
+    private static void replaceDerivedOfVersions(Connection con, List<String> versionUids) throws SQLException {
+        try (PreparedStatement pstmt = con.prepareStatement(DELETE_VERSION_CODES)) {
+            for (String versionUid : versionUids) {
+                pstmt.setString(1, versionUid);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        insertDerivedOfVersions(con, versionUids);
+    }
+
     @Override
     public ResponseEntity<JsonNode> resolveVersionLink(String versionLink) {
         return ErrorHandler.newHttpError("Method Not Implemented", NOT_IMPLEMENTED, LOG);
@@ -509,6 +715,8 @@ public class PostgresFacade implements DatabaseInterface {
         String versionUid = seriesID + "_" + versionNr;
         LOG.debug("editVersion " + versionUid);
         try (Connection con = connectionPool.getConnection()) {
+            boolean autoCommit = con.getAutoCommit();
+            con.setAutoCommit(false);
             try (PreparedStatement pstmt = con.prepareStatement(UPDATE_VERSION)) {
                 pstmt.setString(2, seriesID);
                 pstmt.setString(3, versionUid);
@@ -519,13 +727,78 @@ public class PostgresFacade implements DatabaseInterface {
                 int affectedRows = pstmt.executeUpdate();
                 if (affectedRows > 0) {
                     LOG.debug("edit version affected " + affectedRows + " rows");
+                    replaceDerivedOfVersions(con, List.of(versionUid));
+                    con.commit();
                     return new ResponseEntity<>(CREATED);
                 }
+                con.rollback();
                 return ErrorHandler.newHttpError("No rows were affected", INTERNAL_SERVER_ERROR, LOG);
+            } catch (SQLException ex) {
+                con.rollback();
+                throw ex;
+            } finally {
+                con.setAutoCommit(autoCommit);
             }
         } catch (SQLException ex) {
             LOG.error("Failed to edit version", ex);
             return ErrorHandler.newHttpError("Failed to edit version", INTERNAL_SERVER_ERROR, LOG);
         }
     }
+
+    @Override
+    public ResponseEntity<JsonNode> editVersionsIfUnchanged(List<ObjectNode> editedVersions, List<JsonNode> storedVersions) {
+        LOG.debug("editVersionsIfUnchanged of " + editedVersions.size() + " versions");
+        ObjectNode result = new ObjectMapper().createObjectNode();
+        ArrayNode updated = result.putArray("updated");
+        ArrayNode skipped = result.putArray("skipped");
+        if (editedVersions.isEmpty())
+            return new ResponseEntity<>(result, OK);
+        try (Connection con = connectionPool.getConnection()) {
+            boolean autoCommit = con.getAutoCommit();
+            con.setAutoCommit(false);
+            try (PreparedStatement pstmt = con.prepareStatement(UPDATE_VERSION_IF_UNCHANGED)) {
+                List<String> versionUids = new ArrayList<>(editedVersions.size());
+                for (int i = 0; i < editedVersions.size(); i++) {
+                    ObjectNode editedVersion = editedVersions.get(i);
+                    String seriesID = editedVersion.get(Field.SUBSET_ID).asText();
+                    PGobject jsonObject = new PGobject();
+                    jsonObject.setType("json");
+                    jsonObject.setValue(editedVersion.toString());
+                    pstmt.setObject(1, jsonObject);
+                    pstmt.setString(2, seriesID);
+                    String versionUid = seriesID + "_" + editedVersion.get(Field.VERSION_ID).asText();
+                    pstmt.setString(3, versionUid);
+                    PGobject storedObject = new PGobject();
+                    storedObject.setType("jsonb");
+                    storedObject.setValue(storedVersions.get(i).toString());
+                    pstmt.setObject(4, storedObject);
+                    pstmt.addBatch();
+                    versionUids.add(versionUid);
+                }
+                int[] affectedRows = pstmt.executeBatch();
+                List<String> updatedUids = new ArrayList<>(affectedRows.length);
+                for (int i = 0; i < affectedRows.length; i++) {
+                    if (affectedRows[i] == 0) {
+                        LOG.debug("Version " + versionUids.get(i) + " was changed or deleted since it was read, it is not edited");
+                        skipped.add(versionUids.get(i));
+                    } else {
+                        updatedUids.add(versionUids.get(i));
+                        updated.add(versionUids.get(i));
+                    }
+                }
+                replaceDerivedOfVersions(con, updatedUids);
+                con.commit();
+                LOG.debug("edit versions updated " + updated.size() + " and skipped " + skipped.size() + " versions");
+                return new ResponseEntity<>(result, OK);
+            } catch (SQLException ex) {
+                con.rollback();
+                throw ex;
+            } finally {
+                con.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException ex) {
+            LOG.error("Failed to edit versions", ex);
+            return ErrorHandler.newHttpError("Failed to edit versions", INTERNAL_SERVER_ERROR, LOG);
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package no.ssb.subsetsservice.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calls to a failing dependency for a while, instead of letting every caller wait for it to time out.
+ * Opens after a number of consecutive failures. When the open period has passed, one trial call is let through (half open):
+ * if it succeeds the breaker closes, if it fails the breaker opens again.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final LongSupplier nanoClock;
+    private final Counter rejectedCounter;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAtNanos;
+    private boolean trialInFlight = false;
+
+    public CircuitBreaker(String name, int failureThreshold, Duration openDuration, MeterRegistry meterRegistry) {
+        this(name, failureThreshold, openDuration, meterRegistry, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, int failureThreshold, Duration openDuration, MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationNanos = openDuration.toNanos();
+        this.nanoClock = nanoClock;
+        Gauge.builder(name + ".state", this, b -> b.getState().ordinal())
+                .description("0 = closed, 1 = half open, 2 = open")
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder(name + ".rejected")
+                .description("Calls that were not attempted because the circuit breaker was open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return true if the call may be made. The caller must then report the outcome with onSuccess, onFailure or onIgnored.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && nanoClock.getAsLong() - openedAtNanos >= openDurationNanos) {
+            LOG.info("Circuit breaker " + name + " is half open, letting a trial call through");
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.CLOSED)
+            return true;
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return true;
+        }
+        rejectedCounter.increment();
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED)
+            LOG.info("Circuit breaker " + name + " closed");
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    /**
+     * The call failed for a reason that says nothing about the dependency, e.g. a bug on this side.
+     * The state is left as it is, but a trial call is given back so that the next call can be the trial.
+     */
+    public synchronized void onIgnored() {
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            LOG.warn("Circuit breaker " + name + " opened after " + consecutiveFailures + " consecutive failure(s)");
+            state = State.OPEN;
+            openedAtNanos = nanoClock.getAsLong();
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,30 @@
+package no.ssb.subsetsservice.util;
+
+import java.time.Duration;
+
+/**
+ * A point in time by which some work must be done, passed along to everything the work is split into.
+ */
+public class Deadline {
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static Deadline after(Duration duration) {
+        return new Deadline(System.nanoTime() + duration.toNanos());
+    }
+
+    /**
+     * @return the time left, which is zero or negative if the deadline has passed
+     */
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+}
@@ -0,0 +1,91 @@
+package no.ssb.subsetsservice.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a slow request is worth hedging, i.e. duplicating in the hope that the duplicate is answered sooner.
+ * A request is hedged when it has not completed within a percentile of the latencies of recent successful requests,
+ * but never earlier than a minimum delay. To keep the extra load bounded, every request earns a fraction of a hedge,
+ * so that at most maxPercent of the requests are hedged over time.
+ */
+public class HedgePolicy {
+
+    private static final int WINDOW = 256;
+    private static final int RECOMPUTE_EVERY = 16;
+    private static final double MAX_BUDGET = 10;
+
+    private final double percentile;
+    private final long minDelayNanos;
+    private final double budgetPerRequest;
+    private final int minSamples;
+
+    private final long[] latencies = new long[WINDOW];
+    private int next = 0;
+    private int samples = 0;
+    private int samplesSinceRecompute = 0;
+    private long delayNanos = -1;
+    private double budget = 1;
+
+    /**
+     * @param percentile of recent latencies after which a request is hedged, e.g. 95
+     * @param minDelay the earliest a request is hedged, however fast recent requests were
+     * @param maxPercent at most this percentage of requests are hedged
+     * @param minSamples requests are not hedged until this many latencies have been recorded
+     */
+    public HedgePolicy(String name, double percentile, Duration minDelay, double maxPercent, int minSamples, MeterRegistry meterRegistry) {
+        this.percentile = Math.max(1, Math.min(100, percentile));
+        this.minDelayNanos = minDelay.toNanos();
+        this.budgetPerRequest = Math.max(0, maxPercent) / 100;
+        this.minSamples = Math.max(1, Math.min(WINDOW, minSamples));
+        Gauge.builder(name + ".delay", this, p -> Math.max(0, p.getDelayNanos()) / (double) TimeUnit.MILLISECONDS.toNanos(1))
+                .description("How long a request to KLASS may take before it is hedged")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    public synchronized void recordLatency(long nanos) {
+        latencies[next] = nanos;
+        next = (next + 1) % WINDOW;
+        samples = Math.min(WINDOW, samples + 1);
+        if (++samplesSinceRecompute >= RECOMPUTE_EVERY || delayNanos < 0) {
+            samplesSinceRecompute = 0;
+            delayNanos = samples < minSamples ? -1 : Math.max(minDelayNanos, percentileOfWindow());
+        }
+    }
+
+    /**
+     * @return how long to wait for a request before hedging it, or -1 if there are not yet enough recorded latencies to tell
+     */
+    public synchronized long getDelayNanos() {
+        return delayNanos;
+    }
+
+    /**
+     * Count a request that may be hedged, earning it its share of the hedge budget.
+     */
+    public synchronized void onRequest() {
+        budget = Math.min(MAX_BUDGET, budget + budgetPerRequest);
+    }
+
+    /**
+     * @return true if the budget allows sending a hedge now, which is then spent
+     */
+    public synchronized boolean tryAcquireHedge() {
+        if (budget < 1)
+            return false;
+        budget -= 1;
+        return true;
+    }
+
+    private long percentileOfWindow() {
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * samples) - 1;
+        return sorted[Math.max(0, Math.min(samples - 1, index))];
+    }
+}
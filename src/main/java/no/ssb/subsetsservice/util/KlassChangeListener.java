@@ -0,0 +1,15 @@
+package no.ssb.subsetsservice.util;
+
+/**
+ * Told by the KlassURNResolver when a KLASS document it loads differs from the version of it that was known before,
+ * i.e. when KLASS has published a change.
+ * Called on the thread that loaded the document, so it must be quick and must not throw.
+ */
+public interface KlassChangeListener {
+
+    /**
+     * @param previous the version of the document known before
+     * @param current the version just loaded
+     */
+    void onChanged(KlassDocument previous, KlassDocument current);
+}
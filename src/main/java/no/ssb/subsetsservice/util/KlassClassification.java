@@ -0,0 +1,70 @@
+package no.ssb.subsetsservice.util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parts of a KLASS classification document that the enrichment of subset versions uses:
+ * the validity and self link of each classification version, and the statistical units of the classification.
+ */
+public class KlassClassification {
+
+    public static class Version {
+        private final String validFrom;
+        private final String validTo;
+        private final String href;
+
+        public Version(String validFrom, String validTo, String href) {
+            this.validFrom = validFrom;
+            this.validTo = validTo;
+            this.href = href;
+        }
+
+        public String getValidFrom() {
+            return validFrom;
+        }
+
+        /**
+         * @return the validTo date, or null if the version is valid indefinitely
+         */
+        public String getValidTo() {
+            return validTo;
+        }
+
+        public String getHref() {
+            return href;
+        }
+    }
+
+    private final List<Version> versions;
+    private final List<String> statisticalUnits;
+    private volatile KlassValidityIndex validityIndex; // built when first needed
+
+    public KlassClassification(List<Version> versions, List<String> statisticalUnits) {
+        this.versions = Collections.unmodifiableList(versions);
+        this.statisticalUnits = statisticalUnits == null ? null : Collections.unmodifiableList(statisticalUnits);
+    }
+
+    public List<Version> getVersions() {
+        return versions;
+    }
+
+    /**
+     * @return the validity intervals of the versions, for finding the versions valid in a date range
+     */
+    public KlassValidityIndex getValidityIndex() {
+        KlassValidityIndex index = validityIndex;
+        if (index == null) {
+            index = new KlassValidityIndex(versions);
+            validityIndex = index; // A race only builds the same index twice
+        }
+        return index;
+    }
+
+    /**
+     * @return the statistical units, or null if the document did not have a 'statisticalUnits' field
+     */
+    public List<String> getStatisticalUnits() {
+        return statisticalUnits;
+    }
+}
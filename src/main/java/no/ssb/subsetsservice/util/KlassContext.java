@@ -0,0 +1,150 @@
+package no.ssb.subsetsservice.util;
+
+import org.springframework.http.HttpStatus;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The KLASS resources resolved while handling one write request (a POST or PUT of a subset version,
+ * including the nested PUT of the previous version). Every step of the enrichment gets its KLASS data through the context,
+ * which resolves each URL at most once and holds on to the result (or the failure) until the request is done,
+ * even if the process wide document cache evicts it in the meantime.
+ * Create one per request, and do not share it between requests.
+ * All KLASS work of the request shares the deadline of the context. Resources can be requested ahead of the steps that need them
+ * with prefetchAsync, so that KLASS is queried while the request does other work, like reading from the database.
+ * When the request is done, cancel() stops the fetches that have not started yet.
+ * A cancelled fetch is not remembered as a failure: if the resource is asked for again before the deadline, it is fetched again.
+ */
+public class KlassContext {
+
+    private final KlassURNResolver klassURNResolver;
+    private final Deadline deadline;
+    private final Map<String, CompletableFuture<KlassDocument>> resolved = new ConcurrentHashMap<>();
+
+    /**
+     * A context with a deadline of KLASS_ENRICHMENT_DEADLINE_MS from now
+     */
+    public KlassContext(KlassURNResolver klassURNResolver) {
+        this(klassURNResolver, Deadline.after(klassURNResolver.getEnrichmentDeadline()));
+    }
+
+    public KlassContext(KlassURNResolver klassURNResolver, Deadline deadline) {
+        this.klassURNResolver = klassURNResolver;
+        this.deadline = deadline;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    public KlassURNResolver getResolver() {
+        return klassURNResolver;
+    }
+
+    /**
+     * @throws KlassFetchException if the classification could not be retrieved
+     */
+    public KlassClassification getClassification(String classificationID) throws KlassFetchException {
+        return getDocument(klassURNResolver.makeKLASSClassificationURL(classificationID)).getClassification();
+    }
+
+    /**
+     * @param url of a KLASS classification version including the 'language' parameter, or of a codes.json selection
+     * @throws KlassFetchException if the resource could not be retrieved
+     */
+    public KlassVersionIndex getVersionIndex(String url) throws KlassFetchException {
+        return getDocument(url).getVersionIndex();
+    }
+
+    /**
+     * Resolve the URLs concurrently, and wait for them. URLs this context has already requested are not requested again.
+     *
+     * @throws KlassFetchException with the status of the first failing resource, or GATEWAY_TIMEOUT if the deadline passed
+     */
+    public void prefetch(Collection<String> urls) throws KlassFetchException {
+        try {
+            prefetchAsync(urls).join();
+        } catch (CompletionException | CancellationException e) {
+            throw KlassURNResolver.toKlassFetchException(e, deadline);
+        }
+    }
+
+    /**
+     * Start resolving the URLs concurrently, without waiting for them. See KlassURNResolver.getDocumentsAsync.
+     *
+     * @return a future that completes when all the URLs are resolved, or exceptionally as soon as one fails or the deadline passes.
+     * A failure leaves the other fetches running, only the deadline cancels them.
+     */
+    public CompletableFuture<Void> prefetchAsync(Collection<String> urls) {
+        Set<String> missing = new LinkedHashSet<>();
+        Map<String, CompletableFuture<KlassDocument>> futures = new LinkedHashMap<>();
+        for (String url : urls) {
+            CompletableFuture<KlassDocument> existing = getResolved(url);
+            if (existing != null)
+                futures.put(url, existing);
+            else
+                missing.add(url);
+        }
+        klassURNResolver.getDocumentsAsync(missing, deadline).forEach((url, future) -> {
+            CompletableFuture<KlassDocument> existing = resolved.putIfAbsent(url, future);
+            futures.put(url, existing != null ? existing : future);
+        });
+        return KlassURNResolver.allOf(futures, deadline);
+    }
+
+    /**
+     * Cancel the fetches of this context that have not completed, e.g. because the request is done or has failed.
+     * Fetches that have started are allowed to complete into the shared document cache.
+     */
+    public void cancel() {
+        resolved.values().forEach(future -> future.cancel(false));
+    }
+
+    /**
+     * @return the number of distinct KLASS resources this context has resolved, or tried to resolve
+     */
+    public int size() {
+        return resolved.size();
+    }
+
+    /**
+     * @return the future of the URL, or null if it has not been requested, or was cancelled and the deadline has not passed
+     */
+    private CompletableFuture<KlassDocument> getResolved(String url) {
+        CompletableFuture<KlassDocument> future = resolved.get(url);
+        if (future != null && future.isCancelled() && !deadline.isExpired()) {
+            resolved.remove(url, future);
+            return null;
+        }
+        return future;
+    }
+
+    private KlassDocument getDocument(String url) throws KlassFetchException {
+        CompletableFuture<KlassDocument> future = getResolved(url);
+        if (future == null && deadline.isExpired())
+            throw new KlassFetchException("The deadline of the request passed before " + url + " was resolved", HttpStatus.GATEWAY_TIMEOUT);
+        if (future == null) {
+            // Fetched like a prefetch, so that the wait is bounded by the deadline and stopped by cancel()
+            CompletableFuture<KlassDocument> fetched = klassURNResolver.getDocumentsAsync(List.of(url), deadline).get(url);
+            future = resolved.putIfAbsent(url, fetched);
+            if (future == null)
+                future = fetched;
+            else
+                fetched.cancel(false);
+        }
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            throw KlassURNResolver.toKlassFetchException(e, deadline);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package no.ssb.subsetsservice.util;
+
+import java.util.Objects;
+
+/**
+ * A successfully retrieved KLASS response, reduced to the typed parts the enrichment uses (see KlassDocumentParser),
+ * together with what is needed to cache it. A classification document has versions and statistical units but no items,
+ * a classification version or codes.json document has items but no versions.
+ * The validators KLASS answered with (ETag and Last-Modified) are kept, so that the document can be revalidated with a conditional GET.
+ * The document is shared between requests, and is immutable.
+ */
+public class KlassDocument {
+
+    private final String url;
+    private final KlassClassification classification;
+    private final KlassVersionIndex versionIndex;
+    private final int sizeInBytes;
+    private final long fetchedAtMillis;
+    private final String eTag;
+    private final String lastModified;
+
+    /**
+     * @param sizeInBytes estimated heap size of the parsed document, used to weigh it in the cache
+     */
+    public KlassDocument(String url, KlassClassification classification, KlassVersionIndex versionIndex, int sizeInBytes, long fetchedAtMillis) {
+        this(url, classification, versionIndex, sizeInBytes, fetchedAtMillis, null, null);
+    }
+
+    /**
+     * @param eTag the ETag header of the response, or null
+     * @param lastModified the Last-Modified header of the response, or null
+     */
+    public KlassDocument(String url, KlassClassification classification, KlassVersionIndex versionIndex, int sizeInBytes, long fetchedAtMillis, String eTag, String lastModified) {
+        this.url = url;
+        this.classification = classification;
+        this.versionIndex = versionIndex;
+        this.sizeInBytes = sizeInBytes;
+        this.fetchedAtMillis = fetchedAtMillis;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the same document, confirmed unchanged by KLASS at the given time
+     */
+    public KlassDocument revalidatedAt(long revalidatedAtMillis) {
+        return new KlassDocument(url, classification, versionIndex, sizeInBytes, revalidatedAtMillis, eTag, lastModified);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the versions and statistical units, if this is a classification document
+     */
+    public KlassClassification getClassification() {
+        return classification;
+    }
+
+    /**
+     * @return code index of the classificationItems (or codes), if this is a classification version or codes.json document
+     */
+    public KlassVersionIndex getVersionIndex() {
+        return versionIndex;
+    }
+
+    public int getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * @return when the document was last retrieved from, or confirmed unchanged by, KLASS
+     */
+    public long getFetchedAtMillis() {
+        return fetchedAtMillis;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public boolean hasValidators() {
+        return eTag != null || lastModified != null;
+    }
+
+    /**
+     * @return true if the other document has the same classification versions, statistical units and code index as this,
+     * regardless of when, or from where, the two were retrieved
+     */
+    public boolean hasSameContentAs(KlassDocument other) {
+        if (classification != other.classification) {
+            if (classification == null || other.classification == null)
+                return false;
+            if (!Objects.equals(classification.getStatisticalUnits(), other.classification.getStatisticalUnits()))
+                return false;
+            if (classification.getVersions().size() != other.classification.getVersions().size())
+                return false;
+            for (int i = 0; i < classification.getVersions().size(); i++) {
+                KlassClassification.Version version = classification.getVersions().get(i);
+                KlassClassification.Version otherVersion = other.classification.getVersions().get(i);
+                if (!Objects.equals(version.getValidFrom(), otherVersion.getValidFrom())
+                        || !Objects.equals(version.getValidTo(), otherVersion.getValidTo())
+                        || !Objects.equals(version.getHref(), otherVersion.getHref()))
+                    return false;
+            }
+        }
+        if (versionIndex != other.versionIndex) {
+            if (versionIndex == null || other.versionIndex == null || versionIndex.size() != other.versionIndex.size())
+                return false;
+            for (KlassVersionIndex.Item item : versionIndex.items()) {
+                KlassVersionIndex.Item otherItem = other.versionIndex.get(item.getCode());
+                if (otherItem == null
+                        || !Objects.equals(item.getName(), otherItem.getName())
+                        || !Objects.equals(item.getNotes(), otherItem.getNotes())
+                        || !Objects.equals(item.getLevel(), otherItem.getLevel()))
+                    return false;
+            }
+        }
+        return true;
+    }
+}
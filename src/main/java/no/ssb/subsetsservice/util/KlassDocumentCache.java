@@ -0,0 +1,167 @@
+package no.ssb.subsetsservice.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Process wide cache of KLASS documents, shared by all requests.
+ * Entries are keyed by the full KLASS URL, which carries the 'language' query parameter for language specific documents.
+ * The total size of the cached response bodies is bounded, entries expire after a TTL,
+ * and entries older than the refresh interval are served stale while they are reloaded in the background.
+ * Failed responses are never cached.
+ * Every successfully loaded document is also remembered as the last known good version of its URL, for much longer than the TTL,
+ * so that it can be served as a fallback while KLASS is unavailable.
+ * Reloads (and loads of URLs that still have a last known good document) are given the previous document,
+ * so that the loader can revalidate it with a conditional GET instead of downloading it again.
+ * Reloads run on a small pool of their own with a bounded queue, not on the common pool. A reload that does not fit
+ * in the queue is skipped, and the document is reloaded on a later read instead.
+ */
+public class KlassDocumentCache {
+
+    /**
+     * Loads a KLASS document into the cache.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * @param previous the previously loaded document, or null
+         * @param refresh true for a reload in the background of a document that is still cached, which nobody is waiting for.
+         *                False for a load of a missing document, which the caller of get is waiting for.
+         */
+        KlassDocument load(String url, KlassDocument previous, boolean refresh) throws KlassFetchException;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(KlassDocumentCache.class);
+
+    public static final String CACHE_NAME = "klass.documents";
+    public static final int DEFAULT_REFRESH_THREADS = 2;
+    private static final int REFRESH_QUEUE_CAPACITY = 1000;
+
+    private final LoadingCache<String, KlassDocument> cache;
+    private final Cache<String, KlassDocument> lastKnownGood;
+
+    public KlassDocumentCache(Function<String, KlassDocument> loader, long maxWeightBytes, Duration timeToLive, Duration refreshAfter, MeterRegistry meterRegistry) {
+        this(loader, maxWeightBytes, timeToLive, refreshAfter, timeToLive, meterRegistry);
+    }
+
+    /**
+     * @param lastKnownGoodTimeToLive how long a successfully loaded document may be served as a fallback.
+     *                                The documents are mostly the same instances as in the main cache, so this costs little extra memory.
+     */
+    public KlassDocumentCache(Function<String, KlassDocument> loader, long maxWeightBytes, Duration timeToLive, Duration refreshAfter, Duration lastKnownGoodTimeToLive, MeterRegistry meterRegistry) {
+        this((url, previous, refresh) -> loader.apply(url), maxWeightBytes, timeToLive, refreshAfter, lastKnownGoodTimeToLive, meterRegistry);
+    }
+
+    public KlassDocumentCache(Loader loader, long maxWeightBytes, Duration timeToLive, Duration refreshAfter, Duration lastKnownGoodTimeToLive, MeterRegistry meterRegistry) {
+        this(loader, maxWeightBytes, timeToLive, refreshAfter, lastKnownGoodTimeToLive, DEFAULT_REFRESH_THREADS, meterRegistry);
+    }
+
+    /**
+     * @param refreshThreads the number of threads reloading documents in the background
+     */
+    public KlassDocumentCache(Loader loader, long maxWeightBytes, Duration timeToLive, Duration refreshAfter, Duration lastKnownGoodTimeToLive, int refreshThreads, MeterRegistry meterRegistry) {
+        LOG.debug("KLASS document cache maxWeight=" + maxWeightBytes + " bytes, ttl=" + timeToLive + ", refreshAfter=" + refreshAfter + ", lastKnownGoodTtl=" + lastKnownGoodTimeToLive + ", refreshThreads=" + refreshThreads);
+        AtomicInteger threadCounter = new AtomicInteger();
+        int threads = Math.max(1, refreshThreads);
+        ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(REFRESH_QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "klass-cache-refresh-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        new ExecutorServiceMetrics(refreshExecutor, CACHE_NAME + ".refresh", Tags.empty()).bindTo(meterRegistry);
+        lastKnownGood = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((String url, KlassDocument document) -> document.getSizeInBytes())
+                .expireAfterWrite(lastKnownGoodTimeToLive)
+                .build();
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((String url, KlassDocument document) -> document.getSizeInBytes())
+                .expireAfterWrite(timeToLive)
+                .refreshAfterWrite(refreshAfter)
+                .executor(refreshExecutor)
+                .recordStats()
+                .build(new CacheLoader<String, KlassDocument>() {
+                    @Override
+                    public KlassDocument load(String url) {
+                        return load(url, lastKnownGood.getIfPresent(url), false);
+                    }
+
+                    @Override
+                    public KlassDocument reload(String url, KlassDocument previous) {
+                        return load(url, previous, true);
+                    }
+
+                    private KlassDocument load(String url, KlassDocument previous, boolean refresh) {
+                        KlassDocument document = loader.load(url, previous, refresh);
+                        lastKnownGood.put(url, document);
+                        return document;
+                    }
+                });
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        Gauge.builder(CACHE_NAME + ".weight", cache, c -> c.policy().eviction().map(e -> (double) e.weightedSize().orElse(0L)).orElse(0d))
+                .description("Total size in bytes of the cached KLASS documents")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param url of the KLASS document
+     * @return the cached document, or the freshly loaded one if it was not present
+     * @throws KlassFetchException if the document was not cached and could not be retrieved
+     */
+    public KlassDocument get(String url) throws KlassFetchException {
+        return cache.get(url);
+    }
+
+    public KlassDocument getIfPresent(String url) {
+        return cache.getIfPresent(url);
+    }
+
+    /**
+     * @return the most recently loaded document for the URL, even if it has expired from the cache, or null if there is none
+     */
+    public KlassDocument getLastKnownGood(String url) {
+        KlassDocument cached = cache.getIfPresent(url);
+        return cached != null ? cached : lastKnownGood.getIfPresent(url);
+    }
+
+    public void put(KlassDocument document) {
+        cache.put(document.getUrl(), document);
+        lastKnownGood.put(document.getUrl(), document);
+    }
+
+    /**
+     * @return the documents cached now
+     */
+    public List<KlassDocument> documents() {
+        return new ArrayList<>(cache.asMap().values());
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+        lastKnownGood.invalidateAll();
+    }
+
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+}
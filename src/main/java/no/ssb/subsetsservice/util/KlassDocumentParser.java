@@ -0,0 +1,175 @@
+package no.ssb.subsetsservice.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import no.ssb.subsetsservice.entity.Field;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a KLASS response with the streaming Jackson parser, keeping only the fields the enrichment uses:
+ * 'versions[].validFrom/validTo/_links.self.href' and 'statisticalUnits' of classification documents,
+ * and 'code/name/notes/level' of the 'classificationItems' of classification versions (or the 'codes' of codes.json).
+ * Everything else is skipped as it is read, so no tree of the whole document is ever built.
+ */
+public class KlassDocumentParser {
+
+    private static final String VALID_TO = "validTo";
+    private static final String HREF = "href";
+
+    // Rough per object overhead of the parsed records, used to weigh them in the document cache
+    private static final int OBJECT_OVERHEAD_BYTES = 48;
+
+    private final JsonFactory jsonFactory;
+
+    public KlassDocumentParser(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    public KlassDocument parse(String url, InputStream body) throws IOException {
+        return parse(url, body, null, null);
+    }
+
+    /**
+     * @param eTag ETag header of the response, kept with the document for revalidation. May be null.
+     * @param lastModified Last-Modified header of the response, kept with the document for revalidation. May be null.
+     */
+    public KlassDocument parse(String url, InputStream body, String eTag, String lastModified) throws IOException {
+        List<KlassClassification.Version> versions = new ArrayList<>();
+        List<String> statisticalUnits = null;
+        Map<String, KlassVersionIndex.Item> itemsByCode = new HashMap<>();
+        long size = OBJECT_OVERHEAD_BYTES;
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException("Expected a JSON object from " + url + " but got " + parser.currentToken());
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.START_ARRAY && Field.VERSIONS.equals(fieldName)) {
+                    for (JsonToken element = parser.nextToken(); element != JsonToken.END_ARRAY; element = parser.nextToken()) {
+                        if (element != JsonToken.START_OBJECT) {
+                            parser.skipChildren();
+                            continue;
+                        }
+                        KlassClassification.Version version = readVersion(parser);
+                        versions.add(version);
+                        size += OBJECT_OVERHEAD_BYTES + sizeOf(version.getValidFrom()) + sizeOf(version.getValidTo()) + sizeOf(version.getHref());
+                    }
+                } else if (value == JsonToken.START_ARRAY && Field.STATISTICAL_UNITS.equals(fieldName)) {
+                    statisticalUnits = new ArrayList<>();
+                    for (JsonToken element = parser.nextToken(); element != JsonToken.END_ARRAY; element = parser.nextToken()) {
+                        String statisticalUnit = textOrNull(parser, element);
+                        if (statisticalUnit != null) {
+                            statisticalUnits.add(statisticalUnit);
+                            size += sizeOf(statisticalUnit);
+                        }
+                    }
+                } else if (value == JsonToken.START_ARRAY && (Field.CLASSIFICATION_ITEMS.equals(fieldName) || Field.CODES.equals(fieldName))) {
+                    for (JsonToken element = parser.nextToken(); element != JsonToken.END_ARRAY; element = parser.nextToken()) {
+                        if (element != JsonToken.START_OBJECT) {
+                            parser.skipChildren();
+                            continue;
+                        }
+                        KlassVersionIndex.Item item = readItem(parser);
+                        if (item.getCode() != null && itemsByCode.putIfAbsent(item.getCode(), item) == null)
+                            size += OBJECT_OVERHEAD_BYTES + sizeOf(item.getCode()) + sizeOf(item.getName()) + sizeOf(item.getNotes()) + sizeOf(item.getLevel());
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return new KlassDocument(url, new KlassClassification(versions, statisticalUnits), new KlassVersionIndex(itemsByCode),
+                (int) Math.min(Integer.MAX_VALUE, size), System.currentTimeMillis(), eTag, lastModified);
+    }
+
+    private static KlassClassification.Version readVersion(JsonParser parser) throws IOException {
+        String validFrom = null;
+        String validTo = null;
+        String href = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (Field.VALID_FROM.equals(fieldName))
+                validFrom = textOrNull(parser, value);
+            else if (VALID_TO.equals(fieldName))
+                validTo = textOrNull(parser, value);
+            else if (Field._LINKS.equals(fieldName) && value == JsonToken.START_OBJECT)
+                href = readSelfHref(parser);
+            else
+                parser.skipChildren();
+        }
+        return new KlassClassification.Version(validFrom, validTo, href);
+    }
+
+    /**
+     * Reads "_links": {"self": {"href": ...}, ...} with the parser positioned at the start of the _links object.
+     */
+    private static String readSelfHref(JsonParser parser) throws IOException {
+        String href = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String linkName = parser.getCurrentName();
+            JsonToken link = parser.nextToken();
+            if (Field.SELF.equals(linkName) && link == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String fieldName = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if (HREF.equals(fieldName))
+                        href = textOrNull(parser, value);
+                    else
+                        parser.skipChildren();
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return href;
+    }
+
+    private static KlassVersionIndex.Item readItem(JsonParser parser) throws IOException {
+        String code = null;
+        String name = "";
+        String notes = "";
+        String level = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (Field.CODE.equals(fieldName))
+                code = textOrNull(parser, value);
+            else if (Field.NAME.equals(fieldName))
+                name = textOrEmpty(parser, value);
+            else if (Field.NOTES.equals(fieldName))
+                notes = textOrEmpty(parser, value);
+            else if (Field.LEVEL.equals(fieldName))
+                level = textOrNull(parser, value);
+            else
+                parser.skipChildren();
+        }
+        return new KlassVersionIndex.Item(code, name, notes, level);
+    }
+
+    private static String textOrNull(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL)
+            return null;
+        if (value.isStructStart()) {
+            parser.skipChildren();
+            return null;
+        }
+        return parser.getValueAsString();
+    }
+
+    private static String textOrEmpty(JsonParser parser, JsonToken value) throws IOException {
+        String text = textOrNull(parser, value);
+        return text == null ? "" : text;
+    }
+
+    private static long sizeOf(String s) {
+        return s == null ? 0 : OBJECT_OVERHEAD_BYTES + 2L * s.length();
+    }
+}
@@ -0,0 +1,19 @@
+package no.ssb.subsetsservice.util;
+
+/**
+ * A second level of the KLASS document cache, shared by all replicas of the service,
+ * so that a document fetched from KLASS by one replica can be used by the others.
+ * The store is an optimization only: implementations must not throw, but answer null (or do nothing) if the store is unavailable.
+ */
+public interface KlassDocumentStore {
+
+    /**
+     * @return the stored document, with the fetch time and validators it was stored with, or null if it is not stored
+     */
+    KlassDocument get(String url);
+
+    /**
+     * Store the document, unless a more recently fetched version of it is stored already.
+     */
+    void put(KlassDocument document);
+}
@@ -0,0 +1,68 @@
+package no.ssb.subsetsservice.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import no.ssb.subsetsservice.entity.Field;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes the typed parts of a KlassDocument back as JSON, in the shape of the KLASS response it was parsed from,
+ * so that KlassDocumentParser reads it into an equal document. Used to store documents outside the process.
+ */
+public class KlassDocumentWriter {
+
+    private final JsonFactory jsonFactory;
+
+    public KlassDocumentWriter(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    public String write(KlassDocument document) {
+        StringWriter json = new StringWriter(Math.max(64, document.getSizeInBytes() / 2));
+        try (JsonGenerator generator = jsonFactory.createGenerator(json)) {
+            generator.writeStartObject();
+            KlassClassification classification = document.getClassification();
+            if (classification != null) {
+                generator.writeArrayFieldStart(Field.VERSIONS);
+                for (KlassClassification.Version version : classification.getVersions()) {
+                    generator.writeStartObject();
+                    generator.writeStringField(Field.VALID_FROM, version.getValidFrom());
+                    generator.writeStringField("validTo", version.getValidTo());
+                    generator.writeObjectFieldStart(Field._LINKS);
+                    generator.writeObjectFieldStart(Field.SELF);
+                    generator.writeStringField("href", version.getHref());
+                    generator.writeEndObject();
+                    generator.writeEndObject();
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+                if (classification.getStatisticalUnits() != null) {
+                    generator.writeArrayFieldStart(Field.STATISTICAL_UNITS);
+                    for (String statisticalUnit : classification.getStatisticalUnits())
+                        generator.writeString(statisticalUnit);
+                    generator.writeEndArray();
+                }
+            }
+            KlassVersionIndex versionIndex = document.getVersionIndex();
+            if (versionIndex != null) {
+                generator.writeArrayFieldStart(Field.CLASSIFICATION_ITEMS);
+                for (KlassVersionIndex.Item item : versionIndex.items()) {
+                    generator.writeStartObject();
+                    generator.writeStringField(Field.CODE, item.getCode());
+                    generator.writeStringField(Field.NAME, item.getName());
+                    generator.writeStringField(Field.NOTES, item.getNotes());
+                    generator.writeStringField(Field.LEVEL, item.getLevel());
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the KLASS document " + document.getUrl(), e);
+        }
+        return json.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package no.ssb.subsetsservice.util;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown when a KLASS resource could not be retrieved. Carries the status code the caller should report,
+ * and whether the failure is one of KLASS that is worth retrying.
+ */
+public class KlassFetchException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final HttpStatus status;
+    private final boolean retryable;
+
+    public KlassFetchException(String message, HttpStatus status) {
+        this(message, status, null, false);
+    }
+
+    public KlassFetchException(String message, HttpStatus status, Throwable cause) {
+        this(message, status, cause, false);
+    }
+
+    /**
+     * @param retryable true only if KLASS itself answered with, or could not be reached because of, a transient failure
+     */
+    public KlassFetchException(String message, HttpStatus status, Throwable cause, boolean retryable) {
+        super(message, cause);
+        this.status = status;
+        this.retryable = retryable;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
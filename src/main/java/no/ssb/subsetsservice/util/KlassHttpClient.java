@@ -0,0 +1,505 @@
+package no.ssb.subsetsservice.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
+
+/**
+ * HTTP client for the KLASS api. All calls are idempotent GETs, so calls failing with a connection error,
+ * a timeout, 429 or a 5xx status are retried with jittered exponential backoff, as long as the call is within its time budget.
+ * A circuit breaker stops calls to KLASS for a while after repeated failures, so that requests fail fast
+ * (and can be served from the last known good documents) instead of waiting for timeouts.
+ * Every request (each attempt) is admitted by the KlassRequestScheduler first, which limits the rate of requests to KLASS
+ * and lets interactive requests go ahead of background ones.
+ * Optionally (KLASS_HEDGE_ENABLED), an interactive request that is slower than most recent requests is hedged:
+ * a duplicate is sent, and whichever answers first is used. See HedgePolicy.
+ * Hedged attempts run on a pool with no more threads than there are connections to KLASS. When it is busy,
+ * requests are made on the calling thread and are not hedged.
+ */
+public class KlassHttpClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KlassHttpClient.class);
+
+    private static final String ENV_CONNECT_TIMEOUT_MS = "KLASS_CONNECT_TIMEOUT_MS";
+    private static final String ENV_READ_TIMEOUT_MS = "KLASS_READ_TIMEOUT_MS";
+    private static final String ENV_MAX_CONNECTIONS_PER_ROUTE = "KLASS_MAX_CONNECTIONS_PER_ROUTE";
+    private static final String ENV_MAX_CONNECTIONS_TOTAL = "KLASS_MAX_CONNECTIONS_TOTAL";
+    private static final String ENV_KEEP_ALIVE_MS = "KLASS_KEEP_ALIVE_MS";
+    private static final String ENV_CALL_TIMEOUT_MS = "KLASS_CALL_TIMEOUT_MS";
+    private static final String ENV_RETRY_MAX_ATTEMPTS = "KLASS_RETRY_MAX_ATTEMPTS";
+    private static final String ENV_RETRY_BACKOFF_MS = "KLASS_RETRY_BACKOFF_MS";
+    private static final String ENV_RETRY_MAX_BACKOFF_MS = "KLASS_RETRY_MAX_BACKOFF_MS";
+    private static final String ENV_BREAKER_FAILURE_THRESHOLD = "KLASS_BREAKER_FAILURE_THRESHOLD";
+    private static final String ENV_BREAKER_OPEN_SECONDS = "KLASS_BREAKER_OPEN_SECONDS";
+    private static final String ENV_RATE_LIMIT_PER_SECOND = "KLASS_RATE_LIMIT_PER_SECOND";
+    private static final String ENV_RATE_LIMIT_BURST = "KLASS_RATE_LIMIT_BURST";
+    private static final String ENV_RATE_LIMIT_BACKGROUND_PERCENT = "KLASS_RATE_LIMIT_BACKGROUND_PERCENT";
+    private static final String ENV_HEDGE_ENABLED = "KLASS_HEDGE_ENABLED";
+    private static final String ENV_HEDGE_PERCENTILE = "KLASS_HEDGE_PERCENTILE";
+    private static final String ENV_HEDGE_MIN_DELAY_MS = "KLASS_HEDGE_MIN_DELAY_MS";
+    private static final String ENV_HEDGE_MAX_PERCENT = "KLASS_HEDGE_MAX_PERCENT";
+    private static final String ENV_HEDGE_MIN_SAMPLES = "KLASS_HEDGE_MIN_SAMPLES";
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    private static final int DEFAULT_READ_TIMEOUT_MS = 30000;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    private static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 50;
+    private static final int DEFAULT_KEEP_ALIVE_MS = 60000;
+    private static final int DEFAULT_CALL_TIMEOUT_MS = 45000;
+    private static final int DEFAULT_RETRY_MAX_ATTEMPTS = 3;
+    private static final int DEFAULT_RETRY_BACKOFF_MS = 200;
+    private static final int DEFAULT_RETRY_MAX_BACKOFF_MS = 2000;
+    private static final int DEFAULT_BREAKER_FAILURE_THRESHOLD = 5;
+    private static final int DEFAULT_BREAKER_OPEN_SECONDS = 30;
+    private static final int DEFAULT_RATE_LIMIT_PER_SECOND = 50; // 0 disables the limit
+    private static final int DEFAULT_RATE_LIMIT_BURST = 50;
+    private static final int DEFAULT_RATE_LIMIT_BACKGROUND_PERCENT = 50;
+    private static final int DEFAULT_HEDGE_PERCENTILE = 95;
+    private static final int DEFAULT_HEDGE_MIN_DELAY_MS = 50;
+    private static final int DEFAULT_HEDGE_MAX_PERCENT = 5;
+    private static final int DEFAULT_HEDGE_MIN_SAMPLES = 20;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final RestTemplate restTemplate;
+    private final KlassDocumentParser parser = new KlassDocumentParser(new JsonFactory());
+    private final CircuitBreaker circuitBreaker;
+    private final KlassRequestScheduler scheduler;
+    private final HedgePolicy hedgePolicy; // null if hedging is disabled
+    private final ExecutorService hedgeExecutor; // null if hedging is disabled
+    private final Counter hedgeCounter;
+    private final Counter hedgeWonCounter;
+    private final Counter retryCounter;
+    private final Counter notModifiedCounter;
+    private final Counter modifiedCounter;
+    private final KlassMetrics klassMetrics;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final long callTimeoutNanos;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final long retryMaxBackoffMillis;
+
+    public KlassHttpClient(MeterRegistry meterRegistry) {
+        this(meterRegistry, "true".equalsIgnoreCase(System.getenv(ENV_HEDGE_ENABLED)) ? new HedgePolicy("klass.hedge",
+                Utils.getEnvInt(ENV_HEDGE_PERCENTILE, DEFAULT_HEDGE_PERCENTILE),
+                Duration.ofMillis(Utils.getEnvInt(ENV_HEDGE_MIN_DELAY_MS, DEFAULT_HEDGE_MIN_DELAY_MS)),
+                Utils.getEnvInt(ENV_HEDGE_MAX_PERCENT, DEFAULT_HEDGE_MAX_PERCENT),
+                Utils.getEnvInt(ENV_HEDGE_MIN_SAMPLES, DEFAULT_HEDGE_MIN_SAMPLES),
+                meterRegistry) : null);
+    }
+
+    /**
+     * @param hedgePolicy when to hedge interactive requests, or null to never hedge
+     */
+    KlassHttpClient(MeterRegistry meterRegistry, HedgePolicy hedgePolicy) {
+        int connectTimeout = Utils.getEnvInt(ENV_CONNECT_TIMEOUT_MS, DEFAULT_CONNECT_TIMEOUT_MS);
+        int readTimeout = Utils.getEnvInt(ENV_READ_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+        int maxPerRoute = Utils.getEnvInt(ENV_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+        int maxTotal = Math.max(maxPerRoute, Utils.getEnvInt(ENV_MAX_CONNECTIONS_TOTAL, DEFAULT_MAX_CONNECTIONS_TOTAL));
+        int keepAlive = Utils.getEnvInt(ENV_KEEP_ALIVE_MS, DEFAULT_KEEP_ALIVE_MS);
+        LOG.debug("KLASS client connectTimeout=" + connectTimeout + "ms readTimeout=" + readTimeout + "ms maxPerRoute=" + maxPerRoute + " maxTotal=" + maxTotal + " keepAlive=" + keepAlive + "ms");
+
+        connectionManager = new PoolingHttpClientConnectionManager(keepAlive, TimeUnit.MILLISECONDS);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setMaxTotal(maxTotal);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+
+        // Content compression (Accept-Encoding: gzip,deflate) is enabled by default in HttpClientBuilder
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> {
+                    long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAlive) : keepAlive;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+                .disableAutomaticRetries() // retries are done here, with backoff and within the call time budget
+                .build();
+
+        restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+        callTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Utils.getEnvInt(ENV_CALL_TIMEOUT_MS, DEFAULT_CALL_TIMEOUT_MS));
+        maxAttempts = Math.max(1, Utils.getEnvInt(ENV_RETRY_MAX_ATTEMPTS, DEFAULT_RETRY_MAX_ATTEMPTS));
+        retryBackoffMillis = Utils.getEnvInt(ENV_RETRY_BACKOFF_MS, DEFAULT_RETRY_BACKOFF_MS);
+        retryMaxBackoffMillis = Utils.getEnvInt(ENV_RETRY_MAX_BACKOFF_MS, DEFAULT_RETRY_MAX_BACKOFF_MS);
+        circuitBreaker = new CircuitBreaker("klass.circuitbreaker",
+                Utils.getEnvInt(ENV_BREAKER_FAILURE_THRESHOLD, DEFAULT_BREAKER_FAILURE_THRESHOLD),
+                Duration.ofSeconds(Utils.getEnvInt(ENV_BREAKER_OPEN_SECONDS, DEFAULT_BREAKER_OPEN_SECONDS)),
+                meterRegistry);
+        scheduler = new KlassRequestScheduler("klass.scheduler",
+                Utils.getEnvInt(ENV_RATE_LIMIT_PER_SECOND, DEFAULT_RATE_LIMIT_PER_SECOND),
+                Utils.getEnvInt(ENV_RATE_LIMIT_BURST, DEFAULT_RATE_LIMIT_BURST),
+                Utils.getEnvInt(ENV_RATE_LIMIT_BACKGROUND_PERCENT, DEFAULT_RATE_LIMIT_BACKGROUND_PERCENT),
+                meterRegistry);
+        this.hedgePolicy = hedgePolicy;
+        if (hedgePolicy != null) {
+            AtomicInteger threadCounter = new AtomicInteger();
+            // No queue: an attempt that finds every thread busy is rejected, and made without hedging instead
+            hedgeExecutor = new ThreadPoolExecutor(0, maxTotal, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "klass-hedge-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            hedgeExecutor = null;
+        }
+        hedgeCounter = Counter.builder("klass.hedge.sent")
+                .description("Duplicate requests sent to KLASS because the original was slow")
+                .register(meterRegistry);
+        hedgeWonCounter = Counter.builder("klass.hedge.won")
+                .description("Hedged requests where the duplicate was answered first")
+                .register(meterRegistry);
+        retryCounter = Counter.builder("klass.retries")
+                .description("GETs against KLASS that were retried after a retryable failure")
+                .register(meterRegistry);
+        notModifiedCounter = Counter.builder("klass.revalidations")
+                .tag("outcome", "not_modified")
+                .description("Conditional GETs of cached KLASS documents")
+                .register(meterRegistry);
+        modifiedCounter = Counter.builder("klass.revalidations")
+                .tag("outcome", "modified")
+                .description("Conditional GETs of cached KLASS documents")
+                .register(meterRegistry);
+        klassMetrics = new KlassMetrics(meterRegistry);
+        Gauge.builder("klass.http.inflight", inFlight, AtomicInteger::get)
+                .description("HTTP requests to KLASS currently waiting for a response")
+                .register(meterRegistry);
+        registerPoolGauge("leased", PoolStats::getLeased, "Connections to KLASS in use", meterRegistry);
+        registerPoolGauge("available", PoolStats::getAvailable, "Idle connections to KLASS kept alive in the pool", meterRegistry);
+        registerPoolGauge("pending", PoolStats::getPending, "Requests waiting for a connection to KLASS", meterRegistry);
+        registerPoolGauge("max", PoolStats::getMax, "Maximum number of connections to KLASS", meterRegistry);
+    }
+
+    private void registerPoolGauge(String state, ToIntFunction<PoolStats> stat, String description, MeterRegistry meterRegistry) {
+        Gauge.builder("klass.http.pool.connections", connectionManager, cm -> stat.applyAsInt(cm.getTotalStats()))
+                .tag("state", state)
+                .description(description)
+                .register(meterRegistry);
+    }
+
+    public PoolingHttpClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public KlassRequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * GET a KLASS JSON document, retrying retryable failures. The response is parsed as it is streamed, see KlassDocumentParser.
+     *
+     * @throws KlassFetchException with the status KLASS answered with, SERVICE_UNAVAILABLE if KLASS could not be reached
+     * or the circuit breaker is open, or INTERNAL_SERVER_ERROR if the response could not be parsed.
+     * Only failures of KLASS are retried (see isRetryable), a response that can not be parsed or an unexpected error is not.
+     */
+    public KlassDocument getDocument(String url) throws KlassFetchException {
+        return getDocument(url, null);
+    }
+
+    /**
+     * Like getDocument(url), but if a previous version of the document with validators is given, the GET is conditional
+     * (If-None-Match / If-Modified-Since). If KLASS answers 304 Not Modified, the previous document is returned
+     * with a new fetch time, without any body being transferred or parsed.
+     *
+     * @param previous the cached version of the document, or null
+     */
+    public KlassDocument getDocument(String url, KlassDocument previous) throws KlassFetchException {
+        return getDocument(url, previous, KlassRequestScheduler.Priority.INTERACTIVE);
+    }
+
+    /**
+     * @param priority INTERACTIVE for requests someone is waiting for, BACKGROUND for warm-up and refresh
+     * @throws KlassFetchException SERVICE_UNAVAILABLE also if the request could not be admitted by the rate limit within the call time budget
+     */
+    public KlassDocument getDocument(String url, KlassDocument previous, KlassRequestScheduler.Priority priority) throws KlassFetchException {
+        long deadlineNanos = System.nanoTime() + callTimeoutNanos;
+        for (int attempt = 1; ; attempt++) {
+            if (!circuitBreaker.tryAcquire())
+                throw new KlassFetchException("KLASS is unavailable (circuit breaker open), could not retrieve "+url, HttpStatus.SERVICE_UNAVAILABLE);
+            admit(url, priority, deadlineNanos);
+            try {
+                return priority == KlassRequestScheduler.Priority.INTERACTIVE ? hedgedAttempt(url, previous) : attempt(url, previous);
+            } catch (KlassFetchException e) {
+                if (!e.isRetryable() || attempt >= maxAttempts)
+                    throw e;
+                long backoffMillis = backoffMillis(attempt);
+                if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis) >= deadlineNanos) {
+                    LOG.debug("Not retrying " + url + ", the call time budget is spent");
+                    throw e;
+                }
+                LOG.debug("GET " + url + " failed with " + e.getStatus() + " (attempt " + attempt + " of " + maxAttempts + "). Retrying in " + backoffMillis + " ms");
+                retryCounter.increment();
+                sleep(backoffMillis, e);
+            }
+        }
+    }
+
+    /**
+     * Make an attempt, and if it is not answered within the hedge delay, send a duplicate and use the first successful answer.
+     * The duplicate is only sent if the hedge budget and the rate limit allow it right away, and the circuit breaker is closed.
+     * The slower of the two is left to complete on its own, and its answer is dropped.
+     */
+    private KlassDocument hedgedAttempt(String url, KlassDocument previous) throws KlassFetchException {
+        if (hedgePolicy == null)
+            return attempt(url, previous);
+        hedgePolicy.onRequest();
+        long delayNanos = hedgePolicy.getDelayNanos();
+        if (delayNanos < 0)
+            return attempt(url, previous);
+        CompletableFuture<KlassDocument> primary;
+        try {
+            primary = CompletableFuture.supplyAsync(() -> attempt(url, previous), hedgeExecutor);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Not hedging GET " + url + ", all hedging threads are busy");
+            return attempt(url, previous);
+        }
+        try {
+            return primary.get(delayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            LOG.debug("GET " + url + " is slower than " + TimeUnit.NANOSECONDS.toMillis(delayNanos) + " ms");
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KlassFetchException("Interrupted while waiting for "+url, HttpStatus.SERVICE_UNAVAILABLE, e);
+        }
+        if (circuitBreaker.getState() != CircuitBreaker.State.CLOSED || !hedgePolicy.tryAcquireHedge() || !tryAdmitNow())
+            return join(primary, url);
+        CompletableFuture<KlassDocument> hedge;
+        try {
+            hedge = CompletableFuture.supplyAsync(() -> attempt(url, previous), hedgeExecutor);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Not hedging GET " + url + ", all hedging threads are busy");
+            return join(primary, url);
+        }
+        LOG.debug("Hedging GET " + url);
+        hedgeCounter.increment();
+        CompletableFuture<KlassDocument> first = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        primary.whenComplete((document, throwable) -> {
+            if (throwable == null)
+                first.complete(document);
+            else if (failures.incrementAndGet() == 2)
+                first.completeExceptionally(throwable);
+        });
+        hedge.whenComplete((document, throwable) -> {
+            if (throwable == null)
+                first.complete(document);
+            else if (failures.incrementAndGet() == 2)
+                first.completeExceptionally(throwable);
+        });
+        KlassDocument document = join(first, url);
+        if (hedge.isDone() && !hedge.isCompletedExceptionally() && hedge.join() == document)
+            hedgeWonCounter.increment();
+        return document;
+    }
+
+    private boolean tryAdmitNow() {
+        try {
+            return scheduler.acquire(KlassRequestScheduler.Priority.INTERACTIVE, System.nanoTime());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static KlassDocument join(CompletableFuture<KlassDocument> future, String url) throws KlassFetchException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KlassFetchException("Interrupted while waiting for "+url, HttpStatus.SERVICE_UNAVAILABLE, e);
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        if (cause instanceof RuntimeException)
+            return (RuntimeException) cause;
+        if (cause instanceof Error)
+            throw (Error) cause;
+        return new KlassFetchException("Unexpected error GETing against KLASS", HttpStatus.INTERNAL_SERVER_ERROR, cause);
+    }
+
+    private void admit(String url, KlassRequestScheduler.Priority priority, long deadlineNanos) throws KlassFetchException {
+        try {
+            if (!scheduler.acquire(priority, deadlineNanos))
+                throw new KlassFetchException("The rate limit of requests to KLASS did not admit "+url+" within the call time budget", HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KlassFetchException("Interrupted while waiting to GET "+url, HttpStatus.SERVICE_UNAVAILABLE, e);
+        }
+    }
+
+    /**
+     * GET the given url as a string, bypassing retries, the circuit breaker and the rate limit. Used to check if KLASS is up.
+     */
+    public ResponseEntity<String> getString(String url) {
+        LOG.info("Attempting to GET "+url);
+        long start = System.nanoTime();
+        String status = KlassMetrics.STATUS_IO_ERROR;
+        inFlight.incrementAndGet();
+        try {
+            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
+            status = KlassMetrics.statusClass(response.getStatusCode());
+            return response;
+        } catch (HttpStatusCodeException e){
+            status = KlassMetrics.statusClass(e.getStatusCode());
+            return new ResponseEntity<>(e.toString(), e.getStatusCode());
+        } catch (Exception e){
+            LOG.warn("GET "+url+" failed: "+e.getMessage());
+            return new ResponseEntity<>(e.toString(), HttpStatus.SERVICE_UNAVAILABLE);
+        } finally {
+            inFlight.decrementAndGet();
+            klassMetrics.recordHttpRequest(url, status, start);
+        }
+    }
+
+    private KlassDocument attempt(String url, KlassDocument previous) throws KlassFetchException {
+        boolean conditional = previous != null && previous.hasValidators();
+        LOG.info("KLASS Attempting to " + (conditional ? "revalidate " : "GET ") + url);
+        RequestCallback validators = request -> {
+            if (!conditional)
+                return;
+            if (previous.getETag() != null)
+                request.getHeaders().set(HttpHeaders.IF_NONE_MATCH, previous.getETag());
+            if (previous.getLastModified() != null)
+                request.getHeaders().set(HttpHeaders.IF_MODIFIED_SINCE, previous.getLastModified());
+        };
+        long start = System.nanoTime();
+        AtomicReference<String> status = new AtomicReference<>(KlassMetrics.STATUS_IO_ERROR);
+        inFlight.incrementAndGet();
+        try {
+            KlassDocument document = restTemplate.execute(url, HttpMethod.GET, validators, response -> {
+                status.set(KlassMetrics.statusClass(response.getStatusCode()));
+                if (conditional && response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+                    LOG.debug(url + " was not modified since " + (previous.getETag() != null ? previous.getETag() : previous.getLastModified()));
+                    notModifiedCounter.increment();
+                    return previous.revalidatedAt(System.currentTimeMillis());
+                }
+                if (!response.getStatusCode().is2xxSuccessful()) {
+                    LOG.debug("GET call to "+url+" did NOT return 2xx successful");
+                    recordOutcome(response.getStatusCode());
+                    throw new KlassFetchException("could not retrieve "+url+". Status code "+response.getStatusCode(), response.getStatusCode(), null, isRetryable(response.getStatusCode()));
+                }
+                if (conditional)
+                    modifiedCounter.increment();
+                try {
+                    return parser.parse(url, response.getBody(), response.getHeaders().getETag(), response.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED));
+                } catch (JsonProcessingException e) {
+                    LOG.debug("KLASS response could not be parsed. Message: "+e.getMessage());
+                    circuitBreaker.onSuccess();
+                    throw new KlassFetchException("Could not parse the response from "+url, HttpStatus.INTERNAL_SERVER_ERROR, e);
+                }
+            });
+            LOG.debug("GET to "+url+" was successful. Returning . . .");
+            circuitBreaker.onSuccess();
+            if (hedgePolicy != null)
+                hedgePolicy.recordLatency(System.nanoTime() - start);
+            return document;
+        } catch (KlassFetchException e) {
+            throw e;
+        } catch (HttpStatusCodeException e) {
+            LOG.debug("KLASS Get threw a client or server error exception. Message: "+e.getMessage());
+            status.set(KlassMetrics.statusClass(e.getStatusCode()));
+            recordOutcome(e.getStatusCode());
+            throw new KlassFetchException("could not retrieve "+url+".", e.getStatusCode(), e, isRetryable(e.getStatusCode()));
+        } catch (ResourceAccessException e) {
+            LOG.debug("KLASS could not be reached, or the response could not be read. Message: "+e.getMessage());
+            status.set(KlassMetrics.STATUS_IO_ERROR);
+            circuitBreaker.onFailure();
+            throw new KlassFetchException("could not reach KLASS to retrieve "+url, HttpStatus.SERVICE_UNAVAILABLE, e, true);
+        } catch (Exception | Error e) {
+            // A bug on this side, not a failure of KLASS: it is neither retried nor counted by the breaker
+            LOG.debug("KLASS Get threw an unexpected exception/error. Message: "+e.getMessage());
+            circuitBreaker.onIgnored();
+            throw new KlassFetchException("Unexpected error GETing against KLASS", HttpStatus.INTERNAL_SERVER_ERROR, e);
+        } finally {
+            inFlight.decrementAndGet();
+            klassMetrics.recordHttpRequest(url, status.get(), start);
+        }
+    }
+
+    /**
+     * A 4xx answer means KLASS is up and answering, so only statuses worth retrying count as failures for the breaker.
+     */
+    private void recordOutcome(HttpStatus status) {
+        if (isRetryable(status))
+            circuitBreaker.onFailure();
+        else
+            circuitBreaker.onSuccess();
+    }
+
+    /**
+     * Whether a status KLASS answered with is worth retrying. Only for statuses of an actual response from KLASS,
+     * an INTERNAL_SERVER_ERROR made up on this side (parse errors, bugs) is not retryable.
+     */
+    static boolean isRetryable(HttpStatus status) {
+        return status == HttpStatus.TOO_MANY_REQUESTS
+                || status == HttpStatus.SERVICE_UNAVAILABLE
+                || status == HttpStatus.BAD_GATEWAY
+                || status == HttpStatus.GATEWAY_TIMEOUT
+                || status == HttpStatus.INTERNAL_SERVER_ERROR;
+    }
+
+    /**
+     * Full jitter: a random backoff between 0 and the exponentially growing cap, so that clients retrying at the same time spread out.
+     */
+    private long backoffMillis(int attempt) {
+        long cap = Math.min(retryMaxBackoffMillis, retryBackoffMillis << Math.min(attempt - 1, 20));
+        return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private static void sleep(long millis, KlassFetchException cause) throws KlassFetchException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package no.ssb.subsetsservice.util;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers of the calls against KLASS, published with the other metrics on the prometheus endpoint.
+ * <p>
+ * klass.http.requests times every HTTP request sent to KLASS (each retry attempt is a request of its own),
+ * tagged by the type of KLASS resource and the status class of the response.
+ * klass.lookups times every lookup of a KLASS document by the resolver, including the time spent waiting
+ * for a load or a coalesced load, tagged by resource type, status class and how the document cache answered it.
+ * Percentile histograms for both are switched on in application.properties.
+ */
+public class KlassMetrics {
+
+    public static final String HTTP_REQUESTS = "klass.http.requests";
+    public static final String LOOKUPS = "klass.lookups";
+
+    public static final String TAG_RESOURCE = "resource";
+    public static final String TAG_STATUS = "status";
+    public static final String TAG_CACHE = "cache";
+
+    public static final String RESOURCE_CLASSIFICATION = "classification";
+    public static final String RESOURCE_VERSION = "version";
+    public static final String RESOURCE_CODES = "codes";
+    public static final String RESOURCE_PING = "ping";
+    public static final String RESOURCE_OTHER = "other";
+
+    /** The document was in the cache */
+    public static final String CACHE_HIT = "hit";
+    /** The document was loaded by this lookup */
+    public static final String CACHE_MISS = "miss";
+    /** The lookup shared a load started by a concurrent lookup of the same document */
+    public static final String CACHE_COALESCED = "coalesced";
+    /** KLASS was unavailable, and the last known good document was served */
+    public static final String CACHE_STALE = "stale";
+
+    /** No HTTP response was received: connection errors, timeouts and unreadable responses */
+    public static final String STATUS_IO_ERROR = "io_error";
+
+    private final MeterRegistry meterRegistry;
+
+    public KlassMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void recordHttpRequest(String url, String status, long startNanos) {
+        Timer.builder(HTTP_REQUESTS)
+                .description("HTTP requests sent to KLASS")
+                .tag(TAG_RESOURCE, resourceType(url))
+                .tag(TAG_STATUS, status)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordLookup(String url, String cache, String status, long startNanos) {
+        Timer.builder(LOOKUPS)
+                .description("Lookups of KLASS documents, served from the document cache or loaded from KLASS")
+                .tag(TAG_RESOURCE, resourceType(url))
+                .tag(TAG_CACHE, cache)
+                .tag(TAG_STATUS, status)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the type of KLASS resource the URL points to. Only a few fixed values, so that it can be used as a tag.
+     */
+    public static String resourceType(String url) {
+        if (url == null)
+            return RESOURCE_OTHER;
+        String path = url.contains("?") ? url.substring(0, url.indexOf('?')) : url;
+        if (path.contains("/ping"))
+            return RESOURCE_PING;
+        if (path.endsWith("/codes.json") || path.endsWith("/codesAt.json"))
+            return RESOURCE_CODES;
+        if (path.contains("/versions/"))
+            return RESOURCE_VERSION;
+        if (path.contains(KlassURNResolver.CLASSIFICATIONS_API + "/"))
+            return RESOURCE_CLASSIFICATION;
+        return RESOURCE_OTHER;
+    }
+
+    /**
+     * @return "2xx", "3xx", "4xx" or "5xx"
+     */
+    public static String statusClass(HttpStatus status) {
+        return status.series().value() + "xx";
+    }
+}
@@ -0,0 +1,93 @@
+package no.ssb.subsetsservice.util;
+
+import java.util.*;
+
+/**
+ * Reverse index from the KLASS resources the stored subset versions were enriched from to the versions, so that when
+ * a KLASS document changes, only the versions that depend on it have to be enriched again.
+ * <p>
+ * A version depends on the classifications of its codes, and on the classification versions listed in the
+ * 'classificationVersions' of its codes. KLASS document URLs are mapped to those with referenceKey, so that a change of
+ * a classification, or of any codes.json selection from it, points to all versions with codes of the classification,
+ * and a change of a classification version in any language points to the versions that list that classification version.
+ */
+public class KlassReferenceIndex {
+
+    private static final String CLASSIFICATION_KEY_PREFIX = "classification:";
+
+    private final Map<String, Set<String>> versionsByReference = new HashMap<>();
+    private final Map<String, Set<String>> versionsByClassificationId = new HashMap<>();
+    private final Set<String> versions = new LinkedHashSet<>();
+
+    /**
+     * @param versionUid database id of the subset version
+     * @param classificationIds the distinct classification ids of the codes of the version
+     * @param classificationVersions the distinct links to KLASS classification versions of the codes of the version
+     */
+    public void add(String versionUid, Collection<String> classificationIds, Collection<String> classificationVersions) {
+        versions.add(versionUid);
+        for (String classificationId : classificationIds) {
+            versionsByReference.computeIfAbsent(CLASSIFICATION_KEY_PREFIX + classificationId, k -> new HashSet<>()).add(versionUid);
+            versionsByClassificationId.computeIfAbsent(classificationId, k -> new HashSet<>()).add(versionUid);
+        }
+        for (String classificationVersion : classificationVersions)
+            versionsByReference.computeIfAbsent(referenceKey(classificationVersion), k -> new HashSet<>()).add(versionUid);
+    }
+
+    /**
+     * @param changedUrls URLs of KLASS documents that have changed
+     * @return the versions that depend on any of the documents
+     */
+    public Set<String> getAffectedVersions(Collection<String> changedUrls) {
+        Set<String> affected = new LinkedHashSet<>();
+        for (String url : changedUrls)
+            affected.addAll(versionsByReference.getOrDefault(referenceKey(url), Collections.emptySet()));
+        return affected;
+    }
+
+    /**
+     * @return the versions with codes of any of the classifications
+     */
+    public Set<String> getVersionsOfClassifications(Collection<String> classificationIds) {
+        Set<String> affected = new LinkedHashSet<>();
+        for (String classificationId : classificationIds)
+            affected.addAll(versionsByClassificationId.getOrDefault(classificationId, Collections.emptySet()));
+        return affected;
+    }
+
+    public Set<String> getVersions() {
+        return Collections.unmodifiableSet(versions);
+    }
+
+    public Set<String> getClassificationIds() {
+        return Collections.unmodifiableSet(versionsByClassificationId.keySet());
+    }
+
+    /**
+     * @return the distinct links to KLASS classification versions the versions were enriched from
+     */
+    public Set<String> getClassificationVersions() {
+        Set<String> classificationVersions = new LinkedHashSet<>();
+        for (String key : versionsByReference.keySet())
+            if (!key.startsWith(CLASSIFICATION_KEY_PREFIX))
+                classificationVersions.add(key);
+        return classificationVersions;
+    }
+
+    /**
+     * @return what a KLASS document URL is a version of: "classification:{id}" for a classification document or a codes.json
+     * selection from it, else the URL without query and '.json' (the link to a classification version, as stored in 'classificationVersions')
+     */
+    static String referenceKey(String url) {
+        String path = url.contains("?") ? url.substring(0, url.indexOf('?')) : url;
+        if (path.endsWith(".json"))
+            path = path.substring(0, path.length() - ".json".length());
+        int classifications = path.indexOf(KlassURNResolver.CLASSIFICATIONS_API + "/");
+        if (classifications < 0)
+            return path;
+        String classificationId = path.substring(classifications + KlassURNResolver.CLASSIFICATIONS_API.length() + 1);
+        if (classificationId.contains("/"))
+            classificationId = classificationId.substring(0, classificationId.indexOf('/'));
+        return CLASSIFICATION_KEY_PREFIX + classificationId;
+    }
+}
@@ -0,0 +1,134 @@
+package no.ssb.subsetsservice.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for outbound requests to KLASS. A token bucket limits the total rate of requests,
+ * and requests are admitted in two priority lanes: INTERACTIVE requests (the enrichment of a POST or PUT someone is waiting for)
+ * always get the next token before any BACKGROUND request (cache warm-up and refresh) does.
+ * In addition, BACKGROUND requests may only use a share of the rate, so that a big refresh leaves room for the editors.
+ */
+public class KlassRequestScheduler {
+
+    public enum Priority { INTERACTIVE, BACKGROUND }
+
+    private final double permitsPerNano;
+    private final double burst;
+    private final double backgroundPermitsPerNano;
+    private final double backgroundBurst;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition tokenReleased = lock.newCondition();
+    private double tokens;
+    private double backgroundTokens;
+    private long lastRefillNanos;
+
+    private final Map<Priority, AtomicInteger> waiting = new EnumMap<>(Priority.class);
+    private final Map<Priority, Timer> waitTimers = new EnumMap<>(Priority.class);
+    private final Map<Priority, Counter> rejectedCounters = new EnumMap<>(Priority.class);
+
+    /**
+     * @param permitsPerSecond total rate of requests. Zero or less means no limit.
+     * @param burst how many requests may be sent at once after a quiet period
+     * @param backgroundPercent share of the rate and burst BACKGROUND requests may use
+     */
+    public KlassRequestScheduler(String name, double permitsPerSecond, int burst, int backgroundPercent, MeterRegistry meterRegistry) {
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        double backgroundShare = Math.max(1, Math.min(100, backgroundPercent)) / 100d;
+        this.backgroundPermitsPerNano = permitsPerNano * backgroundShare;
+        this.backgroundBurst = Math.max(1, this.burst * backgroundShare);
+        this.tokens = this.burst;
+        this.backgroundTokens = this.backgroundBurst;
+        this.lastRefillNanos = System.nanoTime();
+
+        for (Priority priority : Priority.values()) {
+            String tag = priority.name().toLowerCase();
+            AtomicInteger waitingInLane = new AtomicInteger();
+            waiting.put(priority, waitingInLane);
+            Gauge.builder(name + ".waiting", waitingInLane, AtomicInteger::get)
+                    .tag("priority", tag)
+                    .description("Requests to KLASS waiting to be admitted by the rate limit")
+                    .register(meterRegistry);
+            waitTimers.put(priority, Timer.builder(name + ".wait")
+                    .tag("priority", tag)
+                    .description("Time requests to KLASS waited to be admitted by the rate limit")
+                    .register(meterRegistry));
+            rejectedCounters.put(priority, Counter.builder(name + ".rejected")
+                    .tag("priority", tag)
+                    .description("Requests to KLASS that could not be admitted before their deadline")
+                    .register(meterRegistry));
+        }
+    }
+
+    public boolean isLimited() {
+        return permitsPerNano > 0;
+    }
+
+    /**
+     * Wait until the request may be sent.
+     *
+     * @param deadlineNanos System.nanoTime() by which the request must have been admitted
+     * @return true if the request may be sent, false if it could not be admitted before the deadline
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean acquire(Priority priority, long deadlineNanos) throws InterruptedException {
+        if (!isLimited())
+            return true;
+        long start = System.nanoTime();
+        AtomicInteger waitingInLane = waiting.get(priority);
+        lock.lockInterruptibly();
+        waitingInLane.incrementAndGet();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                refill(now);
+                boolean laneIsFree = priority == Priority.INTERACTIVE || waiting.get(Priority.INTERACTIVE).get() == 0;
+                if (laneIsFree && tokens >= 1 && (priority == Priority.INTERACTIVE || backgroundTokens >= 1)) {
+                    tokens -= 1;
+                    backgroundTokens = Math.max(0, backgroundTokens - 1);
+                    waitTimers.get(priority).record(now - start, TimeUnit.NANOSECONDS);
+                    return true;
+                }
+                long remaining = deadlineNanos - now;
+                if (remaining <= 0) {
+                    rejectedCounters.get(priority).increment();
+                    return false;
+                }
+                // Woken when another waiter leaves, else when the next token of this lane is due
+                tokenReleased.awaitNanos(Math.min(remaining, nanosUntilNextToken(priority)));
+            }
+        } finally {
+            waitingInLane.decrementAndGet();
+            tokenReleased.signalAll();
+            lock.unlock();
+        }
+    }
+
+    private long nanosUntilNextToken(Priority priority) {
+        double missing = Math.max(0, 1 - tokens);
+        long nanos = (long) Math.ceil(missing / permitsPerNano);
+        if (priority == Priority.BACKGROUND)
+            nanos = Math.max(nanos, (long) Math.ceil(Math.max(0, 1 - backgroundTokens) / backgroundPermitsPerNano));
+        return Math.max(nanos, TimeUnit.MICROSECONDS.toNanos(100));
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefillNanos;
+        if (elapsed <= 0)
+            return;
+        tokens = Math.min(burst, tokens + elapsed * permitsPerNano);
+        backgroundTokens = Math.min(backgroundBurst, backgroundTokens + elapsed * backgroundPermitsPerNano);
+        lastRefillNanos = now;
+    }
+}
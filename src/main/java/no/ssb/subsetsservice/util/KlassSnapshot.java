@@ -0,0 +1,340 @@
+package no.ssb.subsetsservice.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A compact binary file of KLASS documents, written from the document cache and memory-mapped when the service starts,
+ * so that a restarted replica can serve the KLASS documents it had before without downloading and parsing them again.
+ * <p>
+ * Only the directory of the file (URL to offset) is read onto the heap when it is opened. A document is decoded when it is
+ * looked up, and then only its validators and classification versions: the code index of a classification version stays in
+ * the mapped file, and each lookup of a code is a binary search over the codes, which are stored sorted.
+ * The pages of the file are loaded by the OS as they are read, and shared with the page cache.
+ * <p>
+ * Layout, all numbers big-endian, strings as an int byte length (-1 for null) followed by UTF-8 bytes:
+ * <pre>
+ * int MAGIC, int FORMAT_VERSION
+ * documents:  long fetchedAtMillis, string eTag, string lastModified, byte flags,
+ *             [if HAS_CLASSIFICATION] int versionCount, versionCount * (string validFrom, string validTo, string href),
+ *                                     int statisticalUnitCount (-1 for null), statisticalUnitCount * string
+ *             [if HAS_VERSION_INDEX]  int itemCount, itemCount * int item offset from the first item (in code order),
+ *                                     itemCount * (string code, string name, string notes, string level)
+ * directory:  documentCount * (string url, int document offset)
+ * trailer:    int documentCount, int directory offset, int MAGIC
+ * </pre>
+ * The file is written to a temporary file and moved in place, so a reader never sees a partly written file.
+ */
+public class KlassSnapshot {
+
+    private static final int MAGIC = 0x4B4C5331; // "KLS1"
+    private static final int FORMAT_VERSION = 1;
+    private static final int TRAILER_BYTES = 3 * Integer.BYTES;
+
+    private static final byte HAS_CLASSIFICATION = 1;
+    private static final byte HAS_VERSION_INDEX = 2;
+
+    // Heap weight of a mapped document in the document cache, besides its classification versions
+    private static final int MAPPED_DOCUMENT_BYTES = 256;
+    private static final int MAPPED_VERSION_BYTES = 128;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final Map<String, Integer> offsets;
+
+    private KlassSnapshot(Path path, ByteBuffer buffer, Map<String, Integer> offsets) {
+        this.path = path;
+        this.buffer = buffer;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Write the documents to the file, replacing it.
+     *
+     * @return the number of documents written
+     */
+    public static int write(Path path, Collection<KlassDocument> documents) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            Map<String, Integer> written = new LinkedHashMap<>();
+            try (OutputStream file = Files.newOutputStream(temporary);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                for (KlassDocument document : documents) {
+                    if (written.containsKey(document.getUrl()))
+                        continue;
+                    written.put(document.getUrl(), out.size());
+                    writeDocument(out, document);
+                    if (out.size() == Integer.MAX_VALUE) // DataOutputStream.size() stops counting there
+                        throw new IOException("The KLASS snapshot would be larger than 2GB");
+                }
+                int directoryOffset = out.size();
+                for (Map.Entry<String, Integer> entry : written.entrySet()) {
+                    writeString(out, entry.getKey());
+                    out.writeInt(entry.getValue());
+                }
+                out.writeInt(written.size());
+                out.writeInt(directoryOffset);
+                out.writeInt(MAGIC);
+                if (out.size() == Integer.MAX_VALUE)
+                    throw new IOException("The KLASS snapshot would be larger than 2GB");
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return written.size();
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Map the file and read its directory.
+     *
+     * @throws IOException if the file cannot be read, or is not a complete KLASS snapshot of this format
+     */
+    public static KlassSnapshot open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 2 * Integer.BYTES + TRAILER_BYTES || size > Integer.MAX_VALUE)
+                throw new IOException(path + " is not a KLASS snapshot, its size is " + size + " bytes");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        int limit = buffer.limit();
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(limit - Integer.BYTES) != MAGIC)
+            throw new IOException(path + " is not a complete KLASS snapshot");
+        if (buffer.getInt(Integer.BYTES) != FORMAT_VERSION)
+            throw new IOException(path + " is a KLASS snapshot of format " + buffer.getInt(Integer.BYTES) + ", expected " + FORMAT_VERSION);
+        int documentCount = buffer.getInt(limit - TRAILER_BYTES);
+        int directoryOffset = buffer.getInt(limit - 2 * Integer.BYTES);
+        try {
+            ByteBuffer directory = buffer.duplicate();
+            directory.position(directoryOffset);
+            directory.limit(limit - TRAILER_BYTES);
+            Map<String, Integer> offsets = new HashMap<>(Math.max(0, Math.min(documentCount, limit / Integer.BYTES)) * 2);
+            for (int i = 0; i < documentCount; i++)
+                offsets.put(readString(directory), directory.getInt());
+            return new KlassSnapshot(path, buffer, offsets);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException(path + " has a corrupt KLASS snapshot directory", e);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int size() {
+        return offsets.size();
+    }
+
+    public Set<String> urls() {
+        return Collections.unmodifiableSet(offsets.keySet());
+    }
+
+    /**
+     * @return the document with the given URL, or null if the snapshot does not have it
+     * @throws IllegalStateException if the document in the file is corrupt
+     */
+    public KlassDocument get(String url) {
+        Integer offset = offsets.get(url);
+        if (offset == null)
+            return null;
+        try {
+            ByteBuffer in = buffer.duplicate();
+            in.position(offset);
+            long fetchedAtMillis = in.getLong();
+            String eTag = readString(in);
+            String lastModified = readString(in);
+            byte flags = in.get();
+            KlassClassification classification = null;
+            int size = MAPPED_DOCUMENT_BYTES;
+            if ((flags & HAS_CLASSIFICATION) != 0) {
+                int versionCount = in.getInt();
+                List<KlassClassification.Version> versions = new ArrayList<>(versionCount);
+                for (int i = 0; i < versionCount; i++)
+                    versions.add(new KlassClassification.Version(readString(in), readString(in), readString(in)));
+                int statisticalUnitCount = in.getInt();
+                List<String> statisticalUnits = statisticalUnitCount < 0 ? null : new ArrayList<>(statisticalUnitCount);
+                for (int i = 0; i < statisticalUnitCount; i++)
+                    statisticalUnits.add(readString(in));
+                classification = new KlassClassification(versions, statisticalUnits);
+                size += versionCount * MAPPED_VERSION_BYTES;
+            }
+            KlassVersionIndex versionIndex = null;
+            if ((flags & HAS_VERSION_INDEX) != 0)
+                versionIndex = new KlassVersionIndex(new MappedItems(buffer, in.position()));
+            return new KlassDocument(url, classification, versionIndex, size, fetchedAtMillis, eTag, lastModified);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IllegalStateException("The KLASS snapshot " + path + " has a corrupt document " + url, e);
+        }
+    }
+
+    private static void writeDocument(DataOutputStream out, KlassDocument document) throws IOException {
+        out.writeLong(document.getFetchedAtMillis());
+        writeString(out, document.getETag());
+        writeString(out, document.getLastModified());
+        KlassClassification classification = document.getClassification();
+        KlassVersionIndex versionIndex = document.getVersionIndex();
+        out.writeByte((classification != null ? HAS_CLASSIFICATION : 0) | (versionIndex != null ? HAS_VERSION_INDEX : 0));
+        if (classification != null) {
+            out.writeInt(classification.getVersions().size());
+            for (KlassClassification.Version version : classification.getVersions()) {
+                writeString(out, version.getValidFrom());
+                writeString(out, version.getValidTo());
+                writeString(out, version.getHref());
+            }
+            List<String> statisticalUnits = classification.getStatisticalUnits();
+            out.writeInt(statisticalUnits == null ? -1 : statisticalUnits.size());
+            if (statisticalUnits != null)
+                for (String statisticalUnit : statisticalUnits)
+                    writeString(out, statisticalUnit);
+        }
+        if (versionIndex != null) {
+            List<KlassVersionIndex.Item> items = new ArrayList<>(versionIndex.items());
+            items.sort(Comparator.comparing(KlassVersionIndex.Item::getCode));
+            List<byte[]> encodedItems = new ArrayList<>(items.size());
+            for (KlassVersionIndex.Item item : items) {
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                DataOutputStream itemOut = new DataOutputStream(encoded);
+                writeString(itemOut, item.getCode());
+                writeString(itemOut, item.getName());
+                writeString(itemOut, item.getNotes());
+                writeString(itemOut, item.getLevel());
+                encodedItems.add(encoded.toByteArray());
+            }
+            out.writeInt(encodedItems.size());
+            int itemOffset = 0;
+            for (byte[] encodedItem : encodedItems) {
+                out.writeInt(itemOffset);
+                itemOffset += encodedItem.length;
+            }
+            for (byte[] encodedItem : encodedItems)
+                out.write(encodedItem);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string at the position of the buffer, advancing it.
+     */
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0)
+            return null;
+        if (length > in.remaining())
+            throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The code index of a classification version, read from the mapped file on every lookup.
+     */
+    private static class MappedItems extends AbstractMap<String, KlassVersionIndex.Item> {
+
+        private final ByteBuffer buffer;
+        private final int count;
+        private final int offsetsStart;
+        private final int itemsStart;
+
+        MappedItems(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.count = buffer.getInt(position);
+            this.offsetsStart = position + Integer.BYTES;
+            this.itemsStart = offsetsStart + count * Integer.BYTES;
+        }
+
+        @Override
+        public KlassVersionIndex.Item get(Object key) {
+            if (!(key instanceof String))
+                return null;
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                ByteBuffer in = at(middle);
+                int comparison = readString(in).compareTo((String) key);
+                if (comparison < 0)
+                    low = middle + 1;
+                else if (comparison > 0)
+                    high = middle - 1;
+                else
+                    return new KlassVersionIndex.Item((String) key, readString(in), readString(in), readString(in));
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public Set<Entry<String, KlassVersionIndex.Item>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, KlassVersionIndex.Item>> iterator() {
+                    return new Iterator<>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < count;
+                        }
+
+                        @Override
+                        public Entry<String, KlassVersionIndex.Item> next() {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+                            ByteBuffer in = at(next++);
+                            KlassVersionIndex.Item item = new KlassVersionIndex.Item(readString(in), readString(in), readString(in), readString(in));
+                            return new SimpleImmutableEntry<>(item.getCode(), item);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return count;
+                }
+            };
+        }
+
+        private ByteBuffer at(int index) {
+            ByteBuffer in = buffer.duplicate();
+            in.position(itemsStart + buffer.getInt(offsetsStart + index * Integer.BYTES));
+            return in;
+        }
+    }
+}
@@ -1,65 +1,488 @@
 package no.ssb.subsetsservice.util;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import no.ssb.subsetsservice.controller.ErrorHandler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.HttpServerErrorException;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Component
 public class KlassURNResolver {
 
     private static final Logger LOG = LoggerFactory.getLogger(KlassURNResolver.class);
-    public static String KLASS_BASE_URL = "https://data.ssb.no/api/klass";
+    public static final String DEFAULT_KLASS_BASE_URL = "https://data.ssb.no/api/klass";
     public static final String CLASSIFICATIONS_API = "/v1/classifications";
 
+    private static final String ENV_KLASS_BASE_URL = "API_KLASS"; // The ENV var containing the base URL of the KLASS api
+    private static final String ENV_CACHE_MAX_MB = "KLASS_CACHE_MAX_MB";
+    private static final String ENV_CACHE_TTL_MINUTES = "KLASS_CACHE_TTL_MINUTES";
+    private static final String ENV_CACHE_REFRESH_MINUTES = "KLASS_CACHE_REFRESH_MINUTES";
+    private static final String ENV_CACHE_FALLBACK_HOURS = "KLASS_CACHE_FALLBACK_HOURS";
+    private static final String ENV_CACHE_REFRESH_THREADS = "KLASS_CACHE_REFRESH_THREADS";
+    private static final String ENV_FETCH_THREADS = "KLASS_FETCH_THREADS";
+    private static final String ENV_FETCH_CONCURRENCY_PER_REQUEST = "KLASS_FETCH_CONCURRENCY_PER_REQUEST";
+    private static final String ENV_ENRICHMENT_DEADLINE_MS = "KLASS_ENRICHMENT_DEADLINE_MS";
+    private static final String ENV_ENRICHMENT_MODE = "KLASS_ENRICHMENT_MODE";
+    private static final String ENV_MAX_URL_LENGTH = "KLASS_MAX_URL_LENGTH";
+
+    private static final int DEFAULT_CACHE_MAX_MB = 256;
+    private static final int DEFAULT_CACHE_TTL_MINUTES = 12 * 60;
+    private static final int DEFAULT_CACHE_REFRESH_MINUTES = 60;
+    private static final int DEFAULT_CACHE_FALLBACK_HOURS = 7 * 24;
+    private static final int DEFAULT_FETCH_THREADS = 16;
+    private static final int DEFAULT_FETCH_CONCURRENCY_PER_REQUEST = 6;
+    private static final int DEFAULT_ENRICHMENT_DEADLINE_MS = 60000;
+    private static final int DEFAULT_MAX_URL_LENGTH = 2000;
+
+    /**
+     * How names and notes of codes are resolved.
+     * VERSIONS downloads the whole latest classification version of each code, in every language.
+     * CODES asks KLASS only for the submitted codes, with one codes.json?selectCodes request per
+     * classification, validity range and language.
+     */
+    public enum EnrichmentMode { VERSIONS, CODES }
+
+    private static final String OUTCOME_FRESH = "fresh";
+    private static final String OUTCOME_STALE = "stale";
+    private static final String OUTCOME_MISS = "miss";
+
+    private final String klassBaseUrl;
+    private final KlassHttpClient httpClient;
+    private final KlassDocumentCache documentCache;
+    private final SingleFlight<String, KlassDocument> singleFlight;
+    private final Counter fallbackCounter;
+    private final Duration cacheRefresh;
+    private volatile KlassDocumentStore sharedStore; // null if there is no shared cache
+    private final Map<String, Counter> sharedStoreCounters = new HashMap<>();
+    private volatile KlassSnapshot snapshot; // null if there is no snapshot
+    private final Map<String, Counter> snapshotCounters = new HashMap<>();
+    private final List<KlassChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final KlassMetrics klassMetrics;
+    private final ExecutorService fetchExecutor;
+    private final int fetchConcurrencyPerRequest;
+    private final Duration enrichmentDeadline;
+    private final EnrichmentMode enrichmentMode;
+    private final int maxUrlLength;
+
+    @Autowired
+    public KlassURNResolver(MeterRegistry meterRegistry) {
+        this(System.getenv().getOrDefault(ENV_KLASS_BASE_URL, DEFAULT_KLASS_BASE_URL), meterRegistry);
+    }
+
+    /**
+     * @param klassBaseUrl base URL of the KLASS api, normally given by API_KLASS
+     */
+    KlassURNResolver(String klassBaseUrl, MeterRegistry meterRegistry) {
+        this.klassBaseUrl = klassBaseUrl;
+        LOG.debug("KLASS resolver against " + klassBaseUrl);
+        httpClient = new KlassHttpClient(meterRegistry);
+
+        cacheRefresh = Duration.ofMinutes(Utils.getEnvInt(ENV_CACHE_REFRESH_MINUTES, DEFAULT_CACHE_REFRESH_MINUTES));
+        documentCache = new KlassDocumentCache(
+                (url, previous, refresh) -> load(url, previous, refresh ? KlassRequestScheduler.Priority.BACKGROUND : KlassRequestScheduler.Priority.INTERACTIVE, cacheRefresh),
+                Utils.getEnvInt(ENV_CACHE_MAX_MB, DEFAULT_CACHE_MAX_MB) * 1024L * 1024L,
+                Duration.ofMinutes(Utils.getEnvInt(ENV_CACHE_TTL_MINUTES, DEFAULT_CACHE_TTL_MINUTES)),
+                cacheRefresh,
+                Duration.ofHours(Utils.getEnvInt(ENV_CACHE_FALLBACK_HOURS, DEFAULT_CACHE_FALLBACK_HOURS)),
+                Utils.getEnvInt(ENV_CACHE_REFRESH_THREADS, KlassDocumentCache.DEFAULT_REFRESH_THREADS),
+                meterRegistry);
+
+        singleFlight = new SingleFlight<>("klass.requests", meterRegistry);
+        fallbackCounter = Counter.builder("klass.fallbacks")
+                .description("KLASS documents served from the last known good version because KLASS was unavailable")
+                .register(meterRegistry);
+        klassMetrics = new KlassMetrics(meterRegistry);
+        for (String outcome : List.of(OUTCOME_FRESH, OUTCOME_STALE, OUTCOME_MISS))
+            sharedStoreCounters.put(outcome, Counter.builder("klass.sharedcache.lookups")
+                    .tag("outcome", outcome)
+                    .description("Lookups in the shared KLASS cache when a document was missing or due for refresh in this replica")
+                    .register(meterRegistry));
+        for (String outcome : List.of(OUTCOME_FRESH, OUTCOME_STALE, OUTCOME_MISS))
+            snapshotCounters.put(outcome, Counter.builder("klass.snapshot.lookups")
+                    .tag("outcome", outcome)
+                    .description("Lookups in the KLASS snapshot file when a document was missing or due for refresh in this replica")
+                    .register(meterRegistry));
+
+        int fetchThreads = Utils.getEnvInt(ENV_FETCH_THREADS, DEFAULT_FETCH_THREADS);
+        AtomicInteger threadCounter = new AtomicInteger();
+        fetchExecutor = Executors.newFixedThreadPool(fetchThreads, runnable -> {
+            Thread thread = new Thread(runnable, "klass-fetch-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        new ExecutorServiceMetrics(fetchExecutor, "klass.fetch", Tags.empty()).bindTo(meterRegistry);
+        fetchConcurrencyPerRequest = Math.max(1, Math.min(fetchThreads, Utils.getEnvInt(ENV_FETCH_CONCURRENCY_PER_REQUEST, DEFAULT_FETCH_CONCURRENCY_PER_REQUEST)));
+        enrichmentDeadline = Duration.ofMillis(Utils.getEnvInt(ENV_ENRICHMENT_DEADLINE_MS, DEFAULT_ENRICHMENT_DEADLINE_MS));
+        enrichmentMode = parseEnrichmentMode(System.getenv(ENV_ENRICHMENT_MODE));
+        maxUrlLength = Utils.getEnvInt(ENV_MAX_URL_LENGTH, DEFAULT_MAX_URL_LENGTH);
+    }
+
+    private static EnrichmentMode parseEnrichmentMode(String mode) {
+        if (mode == null || mode.isBlank())
+            return EnrichmentMode.VERSIONS;
+        try {
+            return EnrichmentMode.valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOG.warn(ENV_ENRICHMENT_MODE + " '" + mode + "' is not one of " + Arrays.toString(EnrichmentMode.values()) + ". Using " + EnrichmentMode.VERSIONS);
+            return EnrichmentMode.VERSIONS;
+        }
+    }
+
+    public String getKlassBaseUrl() {
+        return klassBaseUrl;
+    }
+
+    public EnrichmentMode getEnrichmentMode() {
+        return enrichmentMode;
+    }
+
     public boolean pingKLASSClassifications() {
-        ResponseEntity<String> re = getStringResponseFrom(String.format("%s/ping/", KLASS_BASE_URL));
+        ResponseEntity<String> re = httpClient.getString(String.format("%s/ping/", klassBaseUrl));
         return re.getStatusCode().equals(HttpStatus.OK);
     }
 
-    public static String getURL(){
-        return System.getenv().getOrDefault("API_KLASS", KLASS_BASE_URL);
+    public String makeKLASSCodesFromToURL(String classificationID, String from, String to, String codes, String language) {
+        return String.format("%s%s/%s/codes.json?from=%s&to=%s&selectCodes=%s&language=%s", klassBaseUrl, CLASSIFICATIONS_API, classificationID, from, to, codes, language);
+    }
+
+    /**
+     * Make codes.json URLs selecting the given codes of a classification, valid in the range [from, to) in the given language.
+     * The codes are split over as many URLs as needed to keep each URL within KLASS_MAX_URL_LENGTH characters.
+     *
+     * @param to may be null, for codes valid from 'from' and onwards
+     */
+    public List<String> makeKLASSSelectCodesURLs(String classificationID, String from, String to, Collection<String> codes, String language) {
+        String urlPrefix = String.format("%s%s/%s/codes.json?from=%s%s&language=%s&selectCodes=", klassBaseUrl, CLASSIFICATIONS_API, classificationID, from, to == null || to.isBlank() ? "" : "&to=" + to, language);
+        List<String> urls = new ArrayList<>();
+        StringBuilder selectCodes = new StringBuilder();
+        for (String code : codes) {
+            if (selectCodes.length() > 0 && urlPrefix.length() + selectCodes.length() + 1 + code.length() > maxUrlLength) {
+                urls.add(urlPrefix + selectCodes);
+                selectCodes.setLength(0);
+            }
+            if (selectCodes.length() > 0)
+                selectCodes.append(',');
+            selectCodes.append(code);
+        }
+        if (selectCodes.length() > 0)
+            urls.add(urlPrefix + selectCodes);
+        return urls;
     }
 
-    public static String makeKLASSCodesFromToURL(String classificationID, String from, String to, String codes, String language) {
-        KLASS_BASE_URL = getURL();
-        return String.format("%s%s/%s/codes.json?from=%s&to=%s&selectCodes=%s&language=%s", KLASS_BASE_URL, CLASSIFICATIONS_API, classificationID, from, to, codes, language);
+    public String makeKLASSClassificationURL(String classificationID) {
+        return String.format("%s%s/%s.json", klassBaseUrl, CLASSIFICATIONS_API, classificationID);
     }
 
-    public static String makeKLASSClassificationURL(String classificationID) {
-        KLASS_BASE_URL = getURL();
-        return String.format("%s%s/%s.json", KLASS_BASE_URL, CLASSIFICATIONS_API, classificationID);
+    public KlassDocumentCache getDocumentCache() {
+        return documentCache;
     }
 
-    public static ResponseEntity<JsonNode> getFrom(String url) {
-        LOG.info("KLASS Attempting to GET JsonNode from "+url);
+    public KlassHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Use the given store as a second level of the document cache, shared with the other replicas.
+     */
+    public void setSharedStore(KlassDocumentStore sharedStore) {
+        LOG.debug("KLASS resolver uses the shared KLASS cache " + sharedStore.getClass().getSimpleName());
+        this.sharedStore = sharedStore;
+    }
+
+    /**
+     * Serve documents from the given snapshot until they are loaded from the shared store or KLASS, see load.
+     * The documents of the snapshot are also the fallback while KLASS is unavailable.
+     */
+    public void setSnapshot(KlassSnapshot snapshot) {
+        LOG.debug("KLASS resolver uses the snapshot " + snapshot.getPath() + " of " + snapshot.size() + " documents");
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * The listener is told about every KLASS document this resolver loads that differs from the version known before,
+     * see KlassChangeListener.
+     */
+    public void addChangeListener(KlassChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * @return the snapshot in use, or null
+     */
+    public KlassSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @param classificationID KLASS classification id
+     * @return the versions and statistical units of the classification
+     * @throws KlassFetchException if the classification could not be retrieved
+     */
+    public KlassClassification getClassification(String classificationID) throws KlassFetchException {
+        return getDocument(makeKLASSClassificationURL(classificationID)).getClassification();
+    }
+
+    /**
+     * @param url of a KLASS classification version including the 'language' parameter, or of a codes.json selection
+     * @return index from code to name, notes and level in that classification version (or selection) and language
+     * @throws KlassFetchException if the classification version could not be retrieved
+     */
+    public KlassVersionIndex getVersionIndex(String url) throws KlassFetchException {
+        return getDocument(url).getVersionIndex();
+    }
+
+    public Duration getEnrichmentDeadline() {
+        return enrichmentDeadline;
+    }
+
+    /**
+     * Resolve all the given KLASS resources concurrently into the document cache, so that the enrichment steps
+     * that follow are served from memory. Blocks until all are resolved, see getDocumentsAsync.
+     * The whole call must complete within KLASS_ENRICHMENT_DEADLINE_MS.
+     *
+     * @param urls of the KLASS resources. Duplicates are only fetched once.
+     * @return the resolved documents by URL
+     * @throws KlassFetchException with the status of the first failing resource, or GATEWAY_TIMEOUT if the deadline passed
+     */
+    public Map<String, KlassDocument> prefetch(Collection<String> urls) throws KlassFetchException {
+        Deadline deadline = Deadline.after(enrichmentDeadline);
+        Map<String, CompletableFuture<KlassDocument>> futures = getDocumentsAsync(urls, deadline);
+        try {
+            allOf(futures, deadline).join();
+        } catch (CompletionException | CancellationException e) {
+            futures.values().forEach(future -> future.cancel(false)); // nobody else waits for these
+            throw toKlassFetchException(e, deadline);
+        }
+        Map<String, KlassDocument> documents = new LinkedHashMap<>();
+        futures.forEach((url, future) -> documents.put(url, future.join()));
+        return documents;
+    }
+
+    /**
+     * Resolve the given KLASS resources without blocking the calling thread. The resources are fetched on the shared
+     * KLASS fetch threads, at most KLASS_FETCH_CONCURRENCY_PER_REQUEST at a time for one call.
+     * A future that is not done by the deadline completes exceptionally with a TimeoutException,
+     * and a future that is cancelled (or timed out) before its fetch has started is never fetched.
+     * Fetches that have already started are allowed to complete into the document cache.
+     *
+     * @param urls of the KLASS resources. Duplicates are only fetched once.
+     * @return one future per distinct URL, completing with the document, or exceptionally with a KlassFetchException
+     */
+    public Map<String, CompletableFuture<KlassDocument>> getDocumentsAsync(Collection<String> urls, Deadline deadline) {
+        Map<String, CompletableFuture<KlassDocument>> futures = new LinkedHashMap<>();
+        for (String url : urls)
+            futures.computeIfAbsent(url, u -> new CompletableFuture<KlassDocument>().orTimeout(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS));
+        if (futures.isEmpty())
+            return futures;
+        Queue<Map.Entry<String, CompletableFuture<KlassDocument>>> queue = new ConcurrentLinkedQueue<>(futures.entrySet());
+        int workers = Math.min(futures.size(), fetchConcurrencyPerRequest);
+        LOG.debug("Resolving " + futures.size() + " KLASS resources with concurrency " + workers);
+        for (int i = 0; i < workers; i++) {
+            fetchExecutor.execute(() -> {
+                Map.Entry<String, CompletableFuture<KlassDocument>> next;
+                while ((next = queue.poll()) != null) {
+                    CompletableFuture<KlassDocument> future = next.getValue();
+                    if (future.isDone())
+                        continue; // cancelled, or the deadline has passed
+                    try {
+                        future.complete(getDocument(next.getKey()));
+                    } catch (RuntimeException | Error e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        }
+        return futures;
+    }
+
+    /**
+     * @return a future that completes when all the futures have completed, or exceptionally with the first failure
+     * as soon as one of them fails or the deadline passes. A failure leaves the other futures running, since they may be
+     * shared with other lookups (see KlassContext). Only when the deadline passes are the futures that are not done cancelled.
+     */
+    public static CompletableFuture<Void> allOf(Map<String, CompletableFuture<KlassDocument>> futures, Deadline deadline) {
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]));
+        futures.values().forEach(future -> future.whenComplete((document, throwable) -> {
+            if (throwable != null)
+                all.completeExceptionally(throwable);
+        }));
+        all.orTimeout(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+        all.whenComplete((v, throwable) -> {
+            if (throwable != null && deadline.isExpired())
+                futures.values().forEach(future -> future.cancel(false));
+        });
+        return all;
+    }
+
+    /**
+     * Translate a failure of an asynchronous KLASS call into the KlassFetchException to report.
+     */
+    static KlassFetchException toKlassFetchException(Throwable throwable, Deadline deadline) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null)
+            cause = cause.getCause();
+        if (cause instanceof KlassFetchException)
+            return (KlassFetchException) cause;
+        if (cause instanceof TimeoutException || (cause instanceof CancellationException && deadline.isExpired()))
+            return new KlassFetchException("Resolving KLASS resources did not complete within the deadline of the request", HttpStatus.GATEWAY_TIMEOUT, cause);
+        if (cause instanceof CancellationException)
+            return new KlassFetchException("Resolving KLASS resources was cancelled", HttpStatus.SERVICE_UNAVAILABLE, cause);
+        return new KlassFetchException("Unexpected error while resolving KLASS resources: " + cause.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR, cause);
+    }
+
+    /**
+     * Load a KLASS document into the document cache, or revalidate it if the cached document was fetched more than maxAge ago.
+     * The request to KLASS has BACKGROUND priority, see KlassRequestScheduler.
+     * If KLASS answers that the document is not modified, only its freshness is extended. If the revalidation fails, the cached document is kept.
+     *
+     * @return true if KLASS was asked for the document, false if the cached document was fresh enough
+     * @throws KlassFetchException if the document could not be retrieved
+     */
+    public boolean refresh(String url, Duration maxAge) throws KlassFetchException {
+        KlassDocument cached = documentCache.getIfPresent(url);
+        if (cached != null && System.currentTimeMillis() - cached.getFetchedAtMillis() < maxAge.toMillis())
+            return false;
+        KlassDocument previous = cached != null ? cached : documentCache.getLastKnownGood(url);
+        singleFlight.execute(url, () -> {
+            KlassDocument document = load(url, previous, KlassRequestScheduler.Priority.BACKGROUND, maxAge);
+            documentCache.put(document);
+            return document;
+        });
+        return true;
+    }
+
+    /**
+     * Load a document that is missing in this replica, or due for refresh, see loadNewest,
+     * and tell the change listeners if it differs from the version known before (here or in the snapshot).
+     *
+     * @param previous the version of the document this replica has, or null
+     */
+    private KlassDocument load(String url, KlassDocument previous, KlassRequestScheduler.Priority priority, Duration maxAge) throws KlassFetchException {
+        KlassDocument document = loadNewest(url, previous, priority, maxAge);
+        if (changeListeners.isEmpty())
+            return document;
+        KlassDocument known = previous != null ? previous : getFromSnapshot(url);
+        if (known != null && known != document && !known.hasSameContentAs(document)) {
+            LOG.debug("KLASS document " + url + " has changed since " + Instant.ofEpochMilli(known.getFetchedAtMillis()));
+            for (KlassChangeListener listener : changeListeners) {
+                try {
+                    listener.onChanged(known, document);
+                } catch (RuntimeException e) {
+                    LOG.warn("KLASS change listener failed for " + url + ": " + e.getMessage());
+                }
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Load a document that is missing in this replica, or due for refresh. If the snapshot file or the shared store has
+     * a version of it that was fetched from KLASS less than maxAge ago (by any replica), that is used, in that order.
+     * Otherwise the document is fetched from KLASS, revalidating the newest version known here, in the snapshot or in the shared store,
+     * and the result is shared with the other replicas.
+     *
+     * @param previous the version of the document this replica has, or null
+     */
+    private KlassDocument loadNewest(String url, KlassDocument previous, KlassRequestScheduler.Priority priority, Duration maxAge) throws KlassFetchException {
+        KlassDocument local = getFromSnapshot(url);
+        if (local == null) {
+            if (snapshot != null)
+                snapshotCounters.get(OUTCOME_MISS).increment();
+        } else if (System.currentTimeMillis() - local.getFetchedAtMillis() < maxAge.toMillis()
+                && (previous == null || local.getFetchedAtMillis() > previous.getFetchedAtMillis())) {
+            snapshotCounters.get(OUTCOME_FRESH).increment();
+            LOG.debug("Using " + url + " fetched at " + Instant.ofEpochMilli(local.getFetchedAtMillis()) + " from the KLASS snapshot");
+            return local;
+        } else {
+            snapshotCounters.get(OUTCOME_STALE).increment();
+            if (previous == null || local.getFetchedAtMillis() > previous.getFetchedAtMillis())
+                previous = local;
+        }
+        KlassDocumentStore store = sharedStore;
+        if (store == null)
+            return httpClient.getDocument(url, previous, priority);
+        KlassDocument shared = store.get(url);
+        if (shared == null) {
+            sharedStoreCounters.get(OUTCOME_MISS).increment();
+        } else if (System.currentTimeMillis() - shared.getFetchedAtMillis() < maxAge.toMillis()
+                && (previous == null || shared.getFetchedAtMillis() > previous.getFetchedAtMillis())) {
+            sharedStoreCounters.get(OUTCOME_FRESH).increment();
+            LOG.debug("Using " + url + " fetched at " + Instant.ofEpochMilli(shared.getFetchedAtMillis()) + " from the shared KLASS cache");
+            return shared;
+        } else {
+            sharedStoreCounters.get(OUTCOME_STALE).increment();
+            if (previous == null || shared.getFetchedAtMillis() > previous.getFetchedAtMillis())
+                previous = shared;
+        }
+        KlassDocument document = httpClient.getDocument(url, previous, priority);
+        store.put(document);
+        return document;
+    }
+
+    /**
+     * @return the document from the snapshot, or null if there is no snapshot, it does not have the document, or the document is unreadable
+     */
+    private KlassDocument getFromSnapshot(String url) {
+        KlassSnapshot current = snapshot;
+        if (current == null)
+            return null;
         try {
-            ResponseEntity<JsonNode> re = new RestTemplate().getForEntity(url, JsonNode.class);
-            LOG.debug("KLASS returned a response entity.");
-            if (!re.getStatusCode().is2xxSuccessful())
-                LOG.debug("GET call to "+url+" did NOT return 2xx successful");
-            else
-                LOG.debug("GET to "+url+" was 2xx successful. Returning . . .");
-            return re;
-        } catch (HttpClientErrorException | HttpServerErrorException e){
-            LOG.debug("KLASS Get threw a client or server error exception. Message: "+e.getMessage());
-            return ErrorHandler.newHttpError("could not retrieve "+url+".", e.getStatusCode(), LOG);
-        } catch (Exception | Error e){
-            LOG.debug("KLASS Get threw an unexpected exception/error. Message: "+e.getMessage());
-            return ErrorHandler.newHttpError("Unexpected error GETing against KLASS", HttpStatus.INTERNAL_SERVER_ERROR, LOG);
+            return current.get(url);
+        } catch (IllegalStateException e) {
+            LOG.warn(e.getMessage());
+            return null;
         }
     }
 
-    private ResponseEntity<String> getStringResponseFrom(String url) {
-        LOG.info("Attempting to GET "+url);
+    /**
+     * Cached documents are returned directly. Concurrent callers missing the cache for the same URL
+     * share one in flight load instead of each downloading the document.
+     * If KLASS is unavailable (5xx, unreachable or circuit breaker open), the last known good document (or the one in the snapshot) is served instead.
+     * Answers like 404 are passed on, since they are KLASS' current answer.
+     * Every lookup is timed in klass.lookups, see KlassMetrics.
+     */
+    KlassDocument getDocument(String url) throws KlassFetchException {
+        long start = System.nanoTime();
+        KlassDocument cached = documentCache.getIfPresent(url);
+        if (cached != null) {
+            klassMetrics.recordLookup(url, KlassMetrics.CACHE_HIT, KlassMetrics.statusClass(HttpStatus.OK), start);
+            return cached;
+        }
+        AtomicBoolean loadedHere = new AtomicBoolean();
         try {
-            return new RestTemplate().getForEntity(url, String.class);
-        } catch (HttpClientErrorException | HttpServerErrorException e){
-            return new ResponseEntity<>(e.toString(), e.getStatusCode());
+            KlassDocument document = singleFlight.execute(url, () -> {
+                loadedHere.set(true);
+                return documentCache.get(url);
+            });
+            klassMetrics.recordLookup(url, loadedHere.get() ? KlassMetrics.CACHE_MISS : KlassMetrics.CACHE_COALESCED, KlassMetrics.statusClass(HttpStatus.OK), start);
+            return document;
+        } catch (KlassFetchException e) {
+            KlassDocument lastKnownGood = null;
+            if (e.getStatus().is5xxServerError()) {
+                lastKnownGood = documentCache.getLastKnownGood(url);
+                if (lastKnownGood == null)
+                    lastKnownGood = getFromSnapshot(url);
+            }
+            if (lastKnownGood == null) {
+                klassMetrics.recordLookup(url, loadedHere.get() ? KlassMetrics.CACHE_MISS : KlassMetrics.CACHE_COALESCED, KlassMetrics.statusClass(e.getStatus()), start);
+                throw e;
+            }
+            LOG.warn("Serving the last known good version of " + url + " from " + Instant.ofEpochMilli(lastKnownGood.getFetchedAtMillis()) + ": " + e.getMessage());
+            fallbackCounter.increment();
+            klassMetrics.recordLookup(url, KlassMetrics.CACHE_STALE, KlassMetrics.statusClass(e.getStatus()), start);
+            return lastKnownGood;
         }
     }
 }
@@ -0,0 +1,152 @@
+package no.ssb.subsetsservice.util;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The validity intervals of the versions of one KLASS classification, as epoch days sorted by validFrom, answering which
+ * versions overlap a validity range with a binary search. Built once per classification document (see KlassClassification),
+ * and the answers are remembered per range, so that codes with the same validity range share them.
+ * <p>
+ * A version [validFrom, validTo) overlaps the range [from, to) if it starts before 'to' and ends after 'from'.
+ * A missing validTo of a version, or a missing 'to' of the range, is open-ended. The links are returned in the order of the
+ * versions in the classification document, like a scan of the versions would.
+ * If any date (of the versions or of the range) is not a plain ISO date, the dates are compared as strings instead, like before this index.
+ */
+public class KlassValidityIndex {
+
+    private static final long OPEN_END = Long.MAX_VALUE;
+    private static final int MAX_REMEMBERED_RANGES = 1024;
+
+    private final List<KlassClassification.Version> versions;
+    private final long[] starts; // sorted
+    private final long[] ends; // by the same order as starts
+    private final int[] positions; // position in versions, by the same order as starts
+    private final boolean endsSorted;
+    private final boolean valid; // false if the dates of some version are not plain ISO dates
+    private final Map<String, List<String>> linksByRange = new ConcurrentHashMap<>();
+
+    KlassValidityIndex(List<KlassClassification.Version> versions) {
+        this.versions = versions;
+        int n = versions.size();
+        Integer[] order = new Integer[n];
+        long[] unsortedStarts = new long[n];
+        long[] unsortedEnds = new long[n];
+        boolean parsed = true;
+        for (int i = 0; i < n && parsed; i++) {
+            order[i] = i;
+            Long start = toEpochDay(versions.get(i).getValidFrom());
+            String validTo = versions.get(i).getValidTo();
+            Long end = validTo == null ? Long.valueOf(OPEN_END) : toEpochDay(validTo);
+            if (start == null || end == null) {
+                parsed = false;
+            } else {
+                unsortedStarts[i] = start;
+                unsortedEnds[i] = end;
+            }
+        }
+        valid = parsed;
+        starts = new long[parsed ? n : 0];
+        ends = new long[parsed ? n : 0];
+        positions = new int[parsed ? n : 0];
+        boolean sorted = true;
+        if (parsed) {
+            Arrays.sort(order, Comparator.comparingLong(i -> unsortedStarts[i]));
+            for (int i = 0; i < n; i++) {
+                starts[i] = unsortedStarts[order[i]];
+                ends[i] = unsortedEnds[order[i]];
+                positions[i] = order[i];
+                if (i > 0 && ends[i] < ends[i - 1])
+                    sorted = false;
+            }
+        }
+        endsSorted = sorted;
+    }
+
+    /**
+     * @param from start of the range, inclusive
+     * @param to end of the range, exclusive. Null (or "null") for an open-ended range.
+     * @return the self links of the versions that are valid some time in the range. Shared between callers, must not be modified.
+     */
+    public List<String> getVersionLinksOverlapping(String from, String to) {
+        String range = from + "/" + to;
+        List<String> links = linksByRange.get(range);
+        if (links != null)
+            return links;
+        links = Collections.unmodifiableList(computeVersionLinksOverlapping(from, to));
+        if (linksByRange.size() < MAX_REMEMBERED_RANGES)
+            linksByRange.putIfAbsent(range, links);
+        return links;
+    }
+
+    private List<String> computeVersionLinksOverlapping(String from, String to) {
+        boolean openRange = to == null || to.equals("null");
+        Long fromDay = toEpochDay(from);
+        Long toDay = openRange ? Long.valueOf(OPEN_END) : toEpochDay(to);
+        if (!valid || fromDay == null || toDay == null)
+            return scan(from, openRange ? null : to);
+
+        // Versions [0, startedBefore) start before the end of the range
+        int startedBefore = firstIndexAtLeast(starts, starts.length, toDay);
+        // Of those, the ones that end after the start of the range
+        int firstOverlapping = endsSorted ? firstIndexAbove(ends, startedBefore, fromDay) : 0;
+        int[] overlapping = new int[startedBefore - firstOverlapping];
+        int count = 0;
+        for (int i = firstOverlapping; i < startedBefore; i++)
+            if (ends[i] > fromDay)
+                overlapping[count++] = positions[i];
+        Arrays.sort(overlapping, 0, count);
+        List<String> links = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            links.add(versions.get(overlapping[i]).getHref());
+        return links;
+    }
+
+    /**
+     * The string comparison of the dates, for dates that are not plain ISO dates.
+     */
+    private List<String> scan(String from, String to) {
+        List<String> links = new ArrayList<>();
+        for (KlassClassification.Version version : versions) {
+            if (to == null || version.getValidFrom().compareTo(to) < 0)
+                if (version.getValidTo() == null || version.getValidTo().compareTo(from) > 0)
+                    links.add(version.getHref());
+        }
+        return links;
+    }
+
+    /**
+     * @return the first index in [0, length) of the sorted values that is at least the key, or length if there is none
+     */
+    private static int firstIndexAtLeast(long[] sorted, int length, long key) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @return the first index in [0, length) of the sorted values that is above the key, or length if there is none
+     */
+    private static int firstIndexAbove(long[] sorted, int length, long key) {
+        return key == Long.MAX_VALUE ? length : firstIndexAtLeast(sorted, length, key + 1);
+    }
+
+    private static Long toEpochDay(String date) {
+        if (date == null || date.length() != 10)
+            return null;
+        try {
+            return LocalDate.parse(date).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package no.ssb.subsetsservice.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import no.ssb.subsetsservice.entity.Field;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lookup table from code to the name, notes and level of the code in one KLASS classification version,
+ * in the language the version document was retrieved in.
+ * Can also be built from a KLASS codes.json response, which lists the selected codes valid in a date range.
+ */
+public class KlassVersionIndex {
+
+    public static class Item {
+        private final String code;
+        private final String name;
+        private final String notes;
+        private final String level;
+
+        public Item(String code, String name, String notes, String level) {
+            this.code = code;
+            this.name = name;
+            this.notes = notes;
+            this.level = level;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getNotes() {
+            return notes;
+        }
+
+        public String getLevel() {
+            return level;
+        }
+    }
+
+    private final Map<String, Item> itemsByCode;
+
+    public KlassVersionIndex(Map<String, Item> itemsByCode) {
+        this.itemsByCode = Collections.unmodifiableMap(itemsByCode);
+    }
+
+    /**
+     * @param klassDocument KLASS classification version document with 'classificationItems', or codes.json response with 'codes'
+     * @return index of the classification items. If a code occurs more than once, the first item is kept.
+     */
+    public static KlassVersionIndex of(JsonNode klassDocument) {
+        JsonNode classificationItems = klassDocument.has(Field.CLASSIFICATION_ITEMS) ? klassDocument.get(Field.CLASSIFICATION_ITEMS) : klassDocument.get(Field.CODES);
+        if (classificationItems == null || !classificationItems.isArray())
+            return new KlassVersionIndex(new HashMap<>());
+        Map<String, Item> itemsByCode = new HashMap<>(classificationItems.size() * 2);
+        for (JsonNode classificationItem : classificationItems) {
+            String code = classificationItem.get(Field.CODE).asText();
+            itemsByCode.putIfAbsent(code, new Item(
+                    code,
+                    classificationItem.has(Field.NAME) ? classificationItem.get(Field.NAME).asText() : "",
+                    classificationItem.has(Field.NOTES) ? classificationItem.get(Field.NOTES).asText() : "",
+                    classificationItem.has(Field.LEVEL) ? classificationItem.get(Field.LEVEL).asText() : null));
+        }
+        return new KlassVersionIndex(itemsByCode);
+    }
+
+    /**
+     * @return the item with the given code, or null if the classification version does not contain it
+     */
+    public Item get(String code) {
+        return itemsByCode.get(code);
+    }
+
+    public Collection<Item> items() {
+        return itemsByCode.values();
+    }
+
+    public int size() {
+        return itemsByCode.size();
+    }
+}
@@ -0,0 +1,69 @@
+package no.ssb.subsetsservice.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key, so that only the first caller does the work
+ * and the callers arriving while it is in flight share its result (or its exception).
+ *
+ * @param <K> key identifying the work, e.g. an URL
+ * @param <V> result of the work
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalescedCounter;
+
+    public SingleFlight(String name, MeterRegistry meterRegistry) {
+        coalescedCounter = Counter.builder(name + ".coalesced")
+                .description("Calls that shared the result of an identical call already in flight, instead of making their own")
+                .register(meterRegistry);
+        Gauge.builder(name + ".inflight", inFlight, Map::size)
+                .description("Distinct calls currently in flight")
+                .register(meterRegistry);
+    }
+
+    public V execute(K key, Supplier<V> work) {
+        CompletableFuture<V> ownFuture = new CompletableFuture<>();
+        CompletableFuture<V> sharedFuture = inFlight.putIfAbsent(key, ownFuture);
+        if (sharedFuture != null) {
+            coalescedCounter.increment();
+            return await(sharedFuture);
+        }
+        try {
+            V result = work.get();
+            ownFuture.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            ownFuture.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, ownFuture);
+        }
+    }
+
+    public long getCoalescedCount() {
+        return (long) coalescedCounter.count();
+    }
+
+    private V await(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
+}
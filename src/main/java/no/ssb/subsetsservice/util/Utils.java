@@ -3,6 +3,7 @@ package no.ssb.subsetsservice.util;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import no.ssb.subsetsservice.service.DatabaseFactory;
 import no.ssb.subsetsservice.controller.ErrorHandler;
@@ -103,6 +104,18 @@ public class Utils {
         return clone;
     }
 
+    public static int getEnvInt(String envName, int defaultValue) {
+        String value = System.getenv(envName);
+        if (value == null || value.isBlank())
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LoggerFactory.getLogger(Utils.class).warn("ENV variable " + envName + " was not an integer ('" + value + "'). Using default value " + defaultValue);
+            return defaultValue;
+        }
+    }
+
     public static boolean isNumeric(String string) {
         if (string == null)
             return false;
@@ -134,16 +147,15 @@ public class Utils {
         return mlT;
     }
 
-    public static ObjectNode addCodeVersionsToAllCodesInVersion(JsonNode subsetVersion, Logger LOG) {
+    public static ObjectNode addCodeVersionsToAllCodesInVersion(JsonNode subsetVersion, KlassContext klassContext, Logger LOG) {
         ObjectNode editableVersion = subsetVersion.deepCopy();
         LOG.debug("Finding out what classification versions the codes in the subsetVersion are used in");
         if (editableVersion.has(Field.CODES)){
 
             ArrayNode codesArrayNode = (ArrayNode)editableVersion.get(Field.CODES);
-            Map<String, ResponseEntity<JsonNode>> klassClassificationsMap = new HashMap<>(codesArrayNode.size()*2);
             for (int i = 0; i < codesArrayNode.size(); i++) {
                 LOG.debug("Resolving classification versions of code "+(i+1)+"/"+codesArrayNode.size());
-                JsonNode code = Utils.addCodeVersions(codesArrayNode.get(i), klassClassificationsMap, LOG);
+                JsonNode code = Utils.addCodeVersions(codesArrayNode.get(i), klassContext, LOG);
                 if (code.get(Field.CLASSIFICATION_VERSIONS).size() < 1)
                     LOG.error("Code "+code.get(Field.CODE)+" "+code.get(Field.NAME)+" failed to resolve any versions in validity range "+code.get(Field.VALID_FROM_IN_REQUESTED_RANGE).asText()+" - "+(code.has(Field.VALID_TO_IN_REQUESTED_RANGE) ? code.get(Field.VALID_TO_IN_REQUESTED_RANGE).asText() : "null"));
                 codesArrayNode.set(i, code);
@@ -154,39 +166,55 @@ public class Utils {
         return editableVersion;
     }
 
-    public static JsonNode addCodeVersions(JsonNode code, Map<String, ResponseEntity<JsonNode>> classificationsMap, Logger LOG) throws HttpClientErrorException {
+    /**
+     * @return the KLASS URLs of all the distinct classifications the codes of the subset version belong to
+     */
+    public static Set<String> getClassificationURLs(JsonNode subsetVersion, KlassURNResolver klassURNResolver) {
+        Set<String> classificationURLs = new LinkedHashSet<>();
+        if (subsetVersion.has(Field.CODES))
+            for (JsonNode code : subsetVersion.get(Field.CODES))
+                if (code.hasNonNull(Field.CLASSIFICATION_ID))
+                    classificationURLs.add(klassURNResolver.makeKLASSClassificationURL(code.get(Field.CLASSIFICATION_ID).asText()));
+        return classificationURLs;
+    }
+
+    /**
+     * Requires the classification versions of the codes to be resolved already, see addCodeVersionsToAllCodesInVersion.
+     * @return the KLASS URLs of the latest classification version of every code, in all LANGUAGE_CODES, without duplicates
+     */
+    public static Set<String> getLatestClassificationVersionURLs(JsonNode subsetVersion) {
+        Set<String> classificationVersionURLs = new LinkedHashSet<>();
+        if (subsetVersion.has(Field.CODES)) {
+            for (JsonNode code : subsetVersion.get(Field.CODES)) {
+                JsonNode classificationVersions = code.get(Field.CLASSIFICATION_VERSIONS);
+                if (classificationVersions == null || classificationVersions.isEmpty())
+                    continue;
+                for (String languageCode : LANGUAGE_CODES)
+                    classificationVersionURLs.add(classificationVersions.get(0).asText() + ".json?language=" + languageCode);
+            }
+        }
+        return classificationVersionURLs;
+    }
+
+    public static JsonNode addCodeVersions(JsonNode code, KlassContext klassContext, Logger LOG) throws HttpClientErrorException {
         ObjectNode editableCode = code.deepCopy();
         code = null;
         String validFromInRequestedRange = editableCode.get(Field.VALID_FROM_IN_REQUESTED_RANGE).asText();
         String validUntilInRequestedRange = editableCode.has(Field.VALID_TO_IN_REQUESTED_RANGE) ? editableCode.get(Field.VALID_TO_IN_REQUESTED_RANGE).asText() : null;
         String classificationID = editableCode.get(Field.CLASSIFICATION_ID).asText();
 
-        ResponseEntity<JsonNode> classificationJsonNodeRE;
-        if (!classificationsMap.containsKey(classificationID)) {
-            LOG.debug("Classification with ID "+classificationID+" was not present in the classificationsMap. Retrieving it from KLASS api...");
-            classificationJsonNodeRE = KlassURNResolver.getFrom(KlassURNResolver.makeKLASSClassificationURL(classificationID));
-            if (!classificationJsonNodeRE.getStatusCode().is2xxSuccessful())
-                throw new HttpClientErrorException(classificationJsonNodeRE.getStatusCode(), "Did not successfully retrieve classification "+classificationID+" from klass api");
-            classificationsMap.put(classificationID, classificationJsonNodeRE);
-        } else {
-            classificationJsonNodeRE = classificationsMap.get(classificationID);
+        LOG.debug("Retrieving classification with ID "+classificationID+" through the KLASS context of the request");
+        KlassClassification classification;
+        try {
+            classification = klassContext.getClassification(classificationID);
+        } catch (KlassFetchException e) {
+            throw new HttpClientErrorException(e.getStatus(), "Did not successfully retrieve classification "+classificationID+" from klass api");
         }
 
-        ArrayNode klassClassificationVersions = (ArrayNode)classificationJsonNodeRE.getBody().get(Field.VERSIONS);
-        ArrayNode classificationVersionLinksArrayNode = new ObjectMapper().createArrayNode();
-        for (JsonNode classificationVersion : klassClassificationVersions) {
-            String classificationVersionValidFrom = classificationVersion.get(Field.VALID_FROM).asText();
-            String classificationVersionValidUntil = classificationVersion.has("validTo") ? classificationVersion.get("validTo").asText() : null;
-            LOG.debug("Classification version '"+classificationVersion.get(Field.NAME).asText()+" has validFrom "+classificationVersionValidFrom+" and validTo "+(classificationVersionValidUntil != null ? classificationVersionValidUntil : "null"));
-            if (validUntilInRequestedRange == null || classificationVersionValidFrom.compareTo(validUntilInRequestedRange) < 0) {
-                LOG.debug("Classification version '"+classificationVersion.get(Field.NAME).asText()+" had validFrom before the validUntilInRequestedRange of the code");
-                if (classificationVersionValidUntil == null || classificationVersionValidUntil.compareTo(validFromInRequestedRange) > 0) {
-                    LOG.debug("Classification version '"+classificationVersion.get(Field.NAME).asText()+" had a classificationVersionValidUntil == null || classificationVersionValidUntil.compareTo(validFromInRequestedRange) > 0 ");
-                    String codeVersionURL = classificationVersion.get(Field._LINKS).get(Field.SELF).get("href").asText();
-                    classificationVersionLinksArrayNode.add(codeVersionURL);
-                }
-            }
-        }
+        List<String> classificationVersionLinks = classification.getValidityIndex().getVersionLinksOverlapping(validFromInRequestedRange, validUntilInRequestedRange);
+        LOG.debug("Classification "+classificationID+" has "+classificationVersionLinks.size()+" version(s) valid in "+validFromInRequestedRange+" - "+validUntilInRequestedRange);
+        ArrayNode classificationVersionLinksArrayNode = JsonNodeFactory.instance.arrayNode(classificationVersionLinks.size());
+        classificationVersionLinks.forEach(classificationVersionLinksArrayNode::add);
         editableCode.set(Field.CLASSIFICATION_VERSIONS, classificationVersionLinksArrayNode);
         return editableCode;
     }
@@ -0,0 +1,46 @@
+package no.ssb.subsetsservice.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgePolicyTest {
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    void delayIsThePercentileOfRecentLatencies() {
+        HedgePolicy policy = new HedgePolicy("test.hedge", 90, Duration.ofMillis(5), 10, 10, new SimpleMeterRegistry());
+        for (int i = 1; i <= 9; i++)
+            policy.recordLatency(ms(i * 10));
+        assertEquals(-1, policy.getDelayNanos());
+        policy.recordLatency(ms(100));
+        assertEquals(ms(90), policy.getDelayNanos());
+    }
+
+    @Test
+    void delayIsNeverBelowTheMinimum() {
+        HedgePolicy policy = new HedgePolicy("test.hedge", 95, Duration.ofMillis(50), 10, 1, new SimpleMeterRegistry());
+        policy.recordLatency(ms(1));
+        assertEquals(ms(50), policy.getDelayNanos());
+    }
+
+    @Test
+    void hedgesAreCappedToTheirShareOfRequests() {
+        HedgePolicy policy = new HedgePolicy("test.hedge", 95, Duration.ofMillis(50), 10, 1, new SimpleMeterRegistry());
+        int hedges = 0;
+        for (int i = 0; i < 1000; i++) {
+            policy.onRequest();
+            if (policy.tryAcquireHedge())
+                hedges++;
+        }
+        assertTrue(hedges <= 101, "at most 10% of the requests and the initial hedge, but was " + hedges);
+        assertTrue(hedges >= 99);
+    }
+}
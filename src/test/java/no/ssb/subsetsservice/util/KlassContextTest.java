@@ -0,0 +1,148 @@
+package no.ssb.subsetsservice.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KlassContextTest {
+
+    private static class CountingResolver extends KlassURNResolver {
+        private final Map<String, AtomicInteger> lookups = new ConcurrentHashMap<>();
+        private final CountDownLatch slow = new CountDownLatch(1);
+
+        CountingResolver() {
+            super(new SimpleMeterRegistry());
+        }
+
+        @Override
+        KlassDocument getDocument(String url) throws KlassFetchException {
+            lookups.computeIfAbsent(url, u -> new AtomicInteger()).incrementAndGet();
+            if (url.contains("missing"))
+                throw new KlassFetchException("not found", HttpStatus.NOT_FOUND);
+            if (url.contains("slow")) {
+                try {
+                    slow.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new KlassDocument(url, new KlassClassification(List.of(), List.of("Person")), new KlassVersionIndex(new HashMap<>()), 10, System.currentTimeMillis());
+        }
+
+        int lookups(String url) {
+            return lookups.getOrDefault(url, new AtomicInteger()).get();
+        }
+
+        int totalLookups() {
+            return lookups.values().stream().mapToInt(AtomicInteger::get).sum();
+        }
+    }
+
+    @Test
+    void resolvesEachResourceOncePerContext() {
+        CountingResolver resolver = new CountingResolver();
+        KlassContext context = new KlassContext(resolver);
+        String classificationURL = resolver.makeKLASSClassificationURL("131");
+        String versionURL = "https://data.ssb.no/api/klass/v1/versions/1160.json?language=nb";
+
+        context.prefetch(List.of(classificationURL, versionURL));
+        context.prefetch(List.of(classificationURL));
+        assertEquals(List.of("Person"), context.getClassification("131").getStatisticalUnits());
+        context.getVersionIndex(versionURL);
+        context.getVersionIndex(versionURL);
+
+        assertEquals(1, resolver.lookups(classificationURL));
+        assertEquals(1, resolver.lookups(versionURL));
+        assertEquals(2, context.size());
+
+        new KlassContext(resolver).getClassification("131");
+        assertEquals(2, resolver.lookups(classificationURL));
+    }
+
+    @Test
+    void remembersFailuresForTheRestOfTheRequest() {
+        CountingResolver resolver = new CountingResolver();
+        KlassContext context = new KlassContext(resolver);
+        String url = "https://data.ssb.no/api/klass/v1/versions/missing.json?language=nb";
+        assertThrows(KlassFetchException.class, () -> context.getVersionIndex(url));
+        KlassFetchException e = assertThrows(KlassFetchException.class, () -> context.getVersionIndex(url));
+        assertEquals(HttpStatus.NOT_FOUND, e.getStatus());
+        assertEquals(1, resolver.lookups(url));
+    }
+
+    @Test
+    void failureDoesNotCancelTheOtherResources() {
+        CountingResolver resolver = new CountingResolver();
+        KlassContext context = new KlassContext(resolver);
+        String missingURL = "https://data.ssb.no/api/klass/v1/versions/missing.json?language=nb";
+        String slowURL = "https://data.ssb.no/api/klass/v1/versions/slow.json?language=nb";
+        KlassFetchException e = assertThrows(KlassFetchException.class, () -> context.prefetch(List.of(slowURL, missingURL)));
+        assertEquals(HttpStatus.NOT_FOUND, e.getStatus());
+        resolver.slow.countDown();
+        assertNotNull(context.getVersionIndex(slowURL));
+        assertEquals(1, resolver.lookups(slowURL));
+    }
+
+    @Test
+    void failsWithGatewayTimeoutWhenTheDeadlinePasses() {
+        CountingResolver resolver = new CountingResolver();
+        KlassContext context = new KlassContext(resolver, Deadline.after(Duration.ofMillis(100)));
+        String url = "https://data.ssb.no/api/klass/v1/versions/slow.json?language=nb";
+        try {
+            KlassFetchException e = assertThrows(KlassFetchException.class, () -> context.prefetch(List.of(url)));
+            assertEquals(HttpStatus.GATEWAY_TIMEOUT, e.getStatus());
+            e = assertThrows(KlassFetchException.class, () -> context.getVersionIndex(url));
+            assertEquals(HttpStatus.GATEWAY_TIMEOUT, e.getStatus());
+            e = assertThrows(KlassFetchException.class, () -> context.getClassification("131"));
+            assertEquals(HttpStatus.GATEWAY_TIMEOUT, e.getStatus());
+        } finally {
+            resolver.slow.countDown();
+        }
+    }
+
+    @Test
+    void lookupWithoutPrefetchStopsWaitingAtTheDeadline() {
+        CountingResolver resolver = new CountingResolver();
+        KlassContext context = new KlassContext(resolver, Deadline.after(Duration.ofMillis(100)));
+        String url = "https://data.ssb.no/api/klass/v1/versions/slow.json?language=nb";
+        try {
+            long start = System.nanoTime();
+            KlassFetchException e = assertThrows(KlassFetchException.class, () -> context.getVersionIndex(url));
+            assertEquals(HttpStatus.GATEWAY_TIMEOUT, e.getStatus());
+            assertTrue(System.nanoTime() - start < Duration.ofSeconds(2).toNanos());
+        } finally {
+            resolver.slow.countDown();
+        }
+    }
+
+    @Test
+    void cancelStopsTheFetchesThatHaveNotStarted() throws InterruptedException {
+        CountingResolver resolver = new CountingResolver();
+        KlassContext context = new KlassContext(resolver);
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            urls.add("https://data.ssb.no/api/klass/v1/versions/slow" + i + ".json?language=nb");
+        CompletableFuture<Void> all = context.prefetchAsync(urls);
+        context.cancel();
+        resolver.slow.countDown();
+        assertTrue(all.isCompletedExceptionally());
+        Thread.sleep(200);
+        assertTrue(resolver.totalLookups() < urls.size());
+
+        String notFetched = urls.stream().filter(url -> resolver.lookups(url) == 0).findFirst().orElseThrow();
+        assertNotNull(context.getVersionIndex(notFetched));
+        assertEquals(1, resolver.lookups(notFetched));
+    }
+}
@@ -0,0 +1,94 @@
+package no.ssb.subsetsservice.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KlassDocumentCacheTest {
+
+    private static final String URL = "https://data.ssb.no/api/klass/v1/classifications/131.json";
+
+    @Test
+    void secondGetIsServedFromCache() {
+        AtomicInteger loads = new AtomicInteger();
+        KlassDocumentCache cache = new KlassDocumentCache(
+                url -> {
+                    loads.incrementAndGet();
+                    return document(url);
+                },
+                1024, Duration.ofMinutes(10), Duration.ofMinutes(5), new SimpleMeterRegistry());
+        assertEquals(URL, cache.get(URL).getUrl());
+        assertEquals(URL, cache.get(URL).getUrl());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void failedLoadIsNotCached() {
+        AtomicInteger loads = new AtomicInteger();
+        KlassDocumentCache cache = new KlassDocumentCache(
+                url -> {
+                    loads.incrementAndGet();
+                    throw new KlassFetchException("not found", HttpStatus.NOT_FOUND);
+                },
+                1024, Duration.ofMinutes(10), Duration.ofMinutes(5), new SimpleMeterRegistry());
+        KlassFetchException e = assertThrows(KlassFetchException.class, () -> cache.get(URL));
+        assertEquals(HttpStatus.NOT_FOUND, e.getStatus());
+        assertThrows(KlassFetchException.class, () -> cache.get(URL));
+        assertEquals(2, loads.get());
+        assertNull(cache.getIfPresent(URL));
+    }
+
+    @Test
+    void lastKnownGoodOutlivesExpiredEntries() {
+        KlassDocumentCache cache = new KlassDocumentCache(
+                url -> document(url),
+                1024, Duration.ofMillis(1), Duration.ofMillis(1), Duration.ofMinutes(10), new SimpleMeterRegistry());
+        assertNull(cache.getLastKnownGood(URL));
+        cache.get(URL);
+        await(Duration.ofMillis(20));
+        assertNull(cache.getIfPresent(URL));
+        assertEquals(URL, cache.getLastKnownGood(URL).getUrl());
+    }
+
+    @Test
+    void refreshRunsOnTheRefreshThreads() throws InterruptedException {
+        AtomicReference<String> refreshThread = new AtomicReference<>();
+        CountDownLatch refreshed = new CountDownLatch(1);
+        KlassDocumentCache cache = new KlassDocumentCache(
+                (url, previous, refresh) -> {
+                    if (refresh) {
+                        refreshThread.set(Thread.currentThread().getName());
+                        refreshed.countDown();
+                    }
+                    return document(url);
+                },
+                1024, Duration.ofMinutes(10), Duration.ofMillis(1), Duration.ofMinutes(10), 1, new SimpleMeterRegistry());
+        cache.get(URL);
+        await(Duration.ofMillis(20));
+        cache.get(URL);
+        assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+        assertTrue(refreshThread.get().startsWith("klass-cache-refresh-"), refreshThread.get());
+    }
+
+    private static KlassDocument document(String url) {
+        return new KlassDocument(url, new KlassClassification(List.of(), List.of()), new KlassVersionIndex(new HashMap<>()), 10, System.currentTimeMillis());
+    }
+
+    private static void await(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
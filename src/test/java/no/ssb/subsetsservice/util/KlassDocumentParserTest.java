@@ -0,0 +1,65 @@
+package no.ssb.subsetsservice.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KlassDocumentParserTest {
+
+    private final KlassDocumentParser parser = new KlassDocumentParser(new JsonFactory());
+
+    private KlassDocument parse(String json) throws IOException {
+        return parser.parse("https://data.ssb.no/api/klass/v1/test", new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void keepsOnlyVersionValidityLinksAndStatisticalUnitsOfClassification() throws IOException {
+        KlassDocument document = parse("{\"name\":\"Standard for kommuneinndeling\",\"statisticalUnits\":[\"Kommune\",\"Person\"]," +
+                "\"versions\":[" +
+                "{\"name\":\"Kommuneinndeling 2020\",\"validFrom\":\"2020-01-01\",\"validTo\":\"2024-01-01\",\"_links\":{\"self\":{\"href\":\"https://data.ssb.no/api/klass/v1/versions/1160\"}}}," +
+                "{\"validFrom\":\"2024-01-01\",\"validTo\":null,\"levels\":[{\"levelNumber\":1}],\"_links\":{\"other\":{\"href\":\"x\"},\"self\":{\"href\":\"https://data.ssb.no/api/klass/v1/versions/1900\"}}}]," +
+                "\"_links\":{\"self\":{\"href\":\"https://data.ssb.no/api/klass/v1/classifications/131\"}}}");
+        KlassClassification classification = document.getClassification();
+        assertEquals(List.of("Kommune", "Person"), classification.getStatisticalUnits());
+        assertEquals(2, classification.getVersions().size());
+        KlassClassification.Version first = classification.getVersions().get(0);
+        assertEquals("2020-01-01", first.getValidFrom());
+        assertEquals("2024-01-01", first.getValidTo());
+        assertEquals("https://data.ssb.no/api/klass/v1/versions/1160", first.getHref());
+        assertNull(classification.getVersions().get(1).getValidTo());
+        assertEquals("https://data.ssb.no/api/klass/v1/versions/1900", classification.getVersions().get(1).getHref());
+        assertEquals(0, document.getVersionIndex().size());
+    }
+
+    @Test
+    void indexesClassificationItemsOfVersion() throws IOException {
+        KlassDocument document = parse("{\"name\":\"Kommuneinndeling 2020\",\"levels\":[{\"levelNumber\":1}],\"classificationItems\":[" +
+                "{\"code\":\"0301\",\"parentCode\":null,\"level\":\"1\",\"name\":\"Oslo\",\"notes\":null}," +
+                "{\"code\":\"1144\",\"level\":\"1\",\"name\":\"Kvitsøy\",\"notes\":\"Note\"}," +
+                "{\"code\":\"1144\",\"level\":\"2\",\"name\":\"Duplicate\"}]}");
+        KlassVersionIndex index = document.getVersionIndex();
+        assertEquals(2, index.size());
+        assertEquals("Oslo", index.get("0301").getName());
+        assertEquals("", index.get("0301").getNotes());
+        assertEquals("Kvitsøy", index.get("1144").getName());
+        assertEquals("1", index.get("1144").getLevel());
+        assertNull(document.getClassification().getStatisticalUnits());
+    }
+
+    @Test
+    void readsCodesOfCodesJson() throws IOException {
+        KlassVersionIndex index = parse("{\"codes\":[{\"code\":\"01\",\"name\":\"Jordbruk\",\"validFromInRequestedRange\":\"2020-01-01\"}]}").getVersionIndex();
+        assertEquals("Jordbruk", index.get("01").getName());
+    }
+
+    @Test
+    void rejectsTruncatedDocument() {
+        assertThrows(IOException.class, () -> parse("{\"classificationItems\":[{\"code\":\"0301\""));
+    }
+}
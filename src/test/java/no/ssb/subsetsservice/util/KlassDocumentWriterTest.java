@@ -0,0 +1,49 @@
+package no.ssb.subsetsservice.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KlassDocumentWriterTest {
+
+    private final KlassDocumentParser parser = new KlassDocumentParser(new JsonFactory());
+    private final KlassDocumentWriter writer = new KlassDocumentWriter(new JsonFactory());
+
+    private KlassDocument parse(String json) throws IOException {
+        return parser.parse("https://data.ssb.no/api/klass/v1/test", new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void writtenClassificationIsParsedIntoAnEqualDocument() throws IOException {
+        KlassDocument original = parse("{\"name\":\"Standard for kommuneinndeling\",\"statisticalUnits\":[\"Kommune\"]," +
+                "\"versions\":[{\"validFrom\":\"2020-01-01\",\"validTo\":null,\"_links\":{\"self\":{\"href\":\"https://data.ssb.no/api/klass/v1/versions/1160\"}}}]}");
+        KlassDocument copy = parse(writer.write(original));
+        assertEquals(List.of("Kommune"), copy.getClassification().getStatisticalUnits());
+        KlassClassification.Version version = copy.getClassification().getVersions().get(0);
+        assertEquals("2020-01-01", version.getValidFrom());
+        assertNull(version.getValidTo());
+        assertEquals("https://data.ssb.no/api/klass/v1/versions/1160", version.getHref());
+        assertEquals(original.getSizeInBytes(), copy.getSizeInBytes());
+    }
+
+    @Test
+    void writtenVersionIsParsedIntoAnEqualDocument() throws IOException {
+        KlassDocument original = parse("{\"classificationItems\":[" +
+                "{\"code\":\"0301\",\"level\":\"1\",\"name\":\"Oslo\",\"notes\":null}," +
+                "{\"code\":\"1144\",\"name\":\"Kvitsøy\",\"notes\":\"Note \\\"quoted\\\"\"}]}");
+        KlassDocument copy = parse(writer.write(original));
+        assertNull(copy.getClassification().getStatisticalUnits());
+        assertEquals(2, copy.getVersionIndex().size());
+        assertEquals("Oslo", copy.getVersionIndex().get("0301").getName());
+        assertEquals("1", copy.getVersionIndex().get("0301").getLevel());
+        assertEquals("", copy.getVersionIndex().get("0301").getNotes());
+        assertNull(copy.getVersionIndex().get("1144").getLevel());
+        assertEquals("Note \"quoted\"", copy.getVersionIndex().get("1144").getNotes());
+    }
+}
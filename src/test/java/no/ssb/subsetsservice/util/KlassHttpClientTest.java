@@ -0,0 +1,153 @@
+package no.ssb.subsetsservice.util;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KlassHttpClientTest {
+
+    private static final String ETAG = "\"v1\"";
+    private static final byte[] VERSION = "{\"classificationItems\":[{\"code\":\"0301\",\"name\":\"Oslo\"}]}".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+    private final AtomicInteger slowResponses = new AtomicInteger();
+    private final AtomicInteger malformedResponses = new AtomicInteger();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/versions/1160.json", exchange -> {
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedResponses.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                fullResponses.incrementAndGet();
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, VERSION.length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(VERSION);
+                }
+            }
+            exchange.close();
+        });
+        server.createContext("/versions/slow.json", exchange -> {
+            if (slowResponses.getAndIncrement() == 0) {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(200, VERSION.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(VERSION);
+            }
+            exchange.close();
+        });
+        server.createContext("/versions/malformed.json", exchange -> {
+            malformedResponses.incrementAndGet();
+            byte[] malformed = "{\"classificationItems\":[".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, malformed.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(malformed);
+            }
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/versions/1160.json";
+    }
+
+    @Test
+    void notModifiedResponseExtendsThePreviousDocument() throws InterruptedException {
+        KlassHttpClient client = new KlassHttpClient(meterRegistry);
+        KlassDocument first = client.getDocument(url());
+        assertEquals(ETAG, first.getETag());
+        assertEquals("Oslo", first.getVersionIndex().get("0301").getName());
+
+        Thread.sleep(5);
+        KlassDocument revalidated = client.getDocument(url(), first);
+        assertSame(first.getVersionIndex(), revalidated.getVersionIndex());
+        assertTrue(revalidated.getFetchedAtMillis() > first.getFetchedAtMillis());
+        assertEquals(1, fullResponses.get());
+        assertEquals(1, notModifiedResponses.get());
+        assertEquals(1, meterRegistry.get("klass.revalidations").tag("outcome", "not_modified").counter().count());
+    }
+
+    @Test
+    void documentWithoutValidatorsIsFetchedAgain() {
+        KlassHttpClient client = new KlassHttpClient(meterRegistry);
+        KlassDocument withoutValidators = new KlassDocument(url(), null, null, 0, 0);
+        KlassDocument document = client.getDocument(url(), withoutValidators);
+        assertEquals("Oslo", document.getVersionIndex().get("0301").getName());
+        assertEquals(1, fullResponses.get());
+        assertEquals(0, notModifiedResponses.get());
+    }
+
+    @Test
+    void malformedResponseIsNotRetried() {
+        KlassHttpClient client = new KlassHttpClient(meterRegistry);
+        String url = "http://localhost:" + server.getAddress().getPort() + "/versions/malformed.json";
+        KlassFetchException e = assertThrows(KlassFetchException.class, () -> client.getDocument(url));
+        assertEquals(500, e.getStatus().value());
+        assertFalse(e.isRetryable());
+        assertEquals(1, malformedResponses.get());
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitBreaker().getState());
+    }
+
+    @Test
+    void requestsAndLookupsAreTimedByResourceStatusAndCacheOutcome() {
+        KlassURNResolver resolver = new KlassURNResolver(meterRegistry);
+        resolver.getDocument(url());
+        resolver.getDocument(url());
+
+        assertEquals(1, meterRegistry.get(KlassMetrics.HTTP_REQUESTS)
+                .tag(KlassMetrics.TAG_RESOURCE, KlassMetrics.RESOURCE_VERSION)
+                .tag(KlassMetrics.TAG_STATUS, "2xx")
+                .timer().count());
+        assertEquals(1, meterRegistry.get(KlassMetrics.LOOKUPS).tag(KlassMetrics.TAG_CACHE, KlassMetrics.CACHE_MISS).timer().count());
+        assertEquals(1, meterRegistry.get(KlassMetrics.LOOKUPS).tag(KlassMetrics.TAG_CACHE, KlassMetrics.CACHE_HIT).timer().count());
+        assertEquals(0, meterRegistry.get("klass.http.inflight").gauge().value());
+        assertEquals(0, meterRegistry.get("klass.http.pool.connections").tag("state", "leased").gauge().value());
+    }
+
+    @Test
+    void slowRequestIsHedged() {
+        HedgePolicy hedgePolicy = new HedgePolicy("test.hedge", 95, Duration.ofMillis(20), 100, 1, meterRegistry);
+        hedgePolicy.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        KlassHttpClient client = new KlassHttpClient(meterRegistry, hedgePolicy);
+        long start = System.nanoTime();
+        KlassDocument document = client.getDocument("http://localhost:" + server.getAddress().getPort() + "/versions/slow.json");
+        assertEquals("Oslo", document.getVersionIndex().get("0301").getName());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500), "the hedge answered before the slow original");
+        assertEquals(2, slowResponses.get());
+        assertEquals(1, meterRegistry.get("klass.hedge.sent").counter().count());
+        assertEquals(1, meterRegistry.get("klass.hedge.won").counter().count());
+    }
+}
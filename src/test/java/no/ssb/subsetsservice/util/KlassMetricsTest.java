@@ -0,0 +1,28 @@
+package no.ssb.subsetsservice.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KlassMetricsTest {
+
+    private static final String BASE = "https://data.ssb.no/api/klass";
+
+    @Test
+    void resourceTypeOfKlassURLs() {
+        assertEquals(KlassMetrics.RESOURCE_CLASSIFICATION, KlassMetrics.resourceType(BASE + "/v1/classifications/131.json"));
+        assertEquals(KlassMetrics.RESOURCE_VERSION, KlassMetrics.resourceType(BASE + "/v1/versions/1160.json?language=nb"));
+        assertEquals(KlassMetrics.RESOURCE_CODES, KlassMetrics.resourceType(BASE + "/v1/classifications/131/codes.json?from=2020-01-01&selectCodes=0301&language=nb"));
+        assertEquals(KlassMetrics.RESOURCE_PING, KlassMetrics.resourceType(BASE + "/ping/"));
+        assertEquals(KlassMetrics.RESOURCE_OTHER, KlassMetrics.resourceType("https://example.com/"));
+    }
+
+    @Test
+    void statusClass() {
+        assertEquals("2xx", KlassMetrics.statusClass(HttpStatus.OK));
+        assertEquals("3xx", KlassMetrics.statusClass(HttpStatus.NOT_MODIFIED));
+        assertEquals("4xx", KlassMetrics.statusClass(HttpStatus.NOT_FOUND));
+        assertEquals("5xx", KlassMetrics.statusClass(HttpStatus.SERVICE_UNAVAILABLE));
+    }
+}
@@ -0,0 +1,39 @@
+package no.ssb.subsetsservice.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KlassReferenceIndexTest {
+
+    private static final String KLASS = "https://data.ssb.no/api/klass";
+
+    @Test
+    void referenceKeyOfKlassDocuments() {
+        assertEquals("classification:131", KlassReferenceIndex.referenceKey(KLASS + "/v1/classifications/131.json"));
+        assertEquals("classification:131", KlassReferenceIndex.referenceKey(KLASS + "/v1/classifications/131/codes.json?from=2020-01-01&selectCodes=0301&language=nb"));
+        assertEquals(KLASS + "/v1/versions/1160", KlassReferenceIndex.referenceKey(KLASS + "/v1/versions/1160.json?language=nn"));
+        assertEquals(KLASS + "/v1/versions/1160", KlassReferenceIndex.referenceKey(KLASS + "/v1/versions/1160"));
+    }
+
+    @Test
+    void changedDocumentsPointToTheVersionsThatDependOnThem() {
+        KlassReferenceIndex index = new KlassReferenceIndex();
+        index.add("a_1", List.of("131"), List.of(KLASS + "/v1/versions/1160", KLASS + "/v1/versions/1159"));
+        index.add("b_1", List.of("131", "7"), List.of(KLASS + "/v1/versions/1159", KLASS + "/v1/versions/500"));
+        index.add("c_1", List.of("7"), List.of(KLASS + "/v1/versions/500"));
+
+        assertEquals(Set.of("a_1"), index.getAffectedVersions(List.of(KLASS + "/v1/versions/1160.json?language=en")));
+        assertEquals(Set.of("a_1", "b_1"), index.getAffectedVersions(List.of(KLASS + "/v1/versions/1159.json?language=nb")));
+        assertEquals(Set.of("a_1", "b_1"), index.getAffectedVersions(List.of(KLASS + "/v1/classifications/131.json")));
+        assertEquals(Set.of("b_1", "c_1"), index.getAffectedVersions(List.of(KLASS + "/v1/classifications/7/codes.json?from=2020-01-01&selectCodes=01&language=nb")));
+        assertTrue(index.getAffectedVersions(List.of(KLASS + "/v1/versions/1.json?language=nb")).isEmpty());
+
+        assertEquals(Set.of("b_1", "c_1"), index.getVersionsOfClassifications(List.of("7")));
+        assertEquals(Set.of("a_1", "b_1", "c_1"), index.getVersions());
+        assertEquals(Set.of(KLASS + "/v1/versions/1160", KLASS + "/v1/versions/1159", KLASS + "/v1/versions/500"), index.getClassificationVersions());
+    }
+}
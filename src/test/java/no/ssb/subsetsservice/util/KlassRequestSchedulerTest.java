@@ -0,0 +1,71 @@
+package no.ssb.subsetsservice.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static no.ssb.subsetsservice.util.KlassRequestScheduler.Priority.BACKGROUND;
+import static no.ssb.subsetsservice.util.KlassRequestScheduler.Priority.INTERACTIVE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class KlassRequestSchedulerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private static long in(long millis) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    void unlimitedWhenRateIsZero() throws InterruptedException {
+        KlassRequestScheduler scheduler = new KlassRequestScheduler("test", 0, 1, 50, meterRegistry);
+        for (int i = 0; i < 1000; i++)
+            assertTrue(scheduler.acquire(BACKGROUND, System.nanoTime()));
+    }
+
+    @Test
+    void limitsTheRateAfterTheBurst() throws InterruptedException {
+        KlassRequestScheduler scheduler = new KlassRequestScheduler("test", 10, 2, 100, meterRegistry);
+        assertTrue(scheduler.acquire(INTERACTIVE, in(0)));
+        assertTrue(scheduler.acquire(INTERACTIVE, in(0)));
+        assertFalse(scheduler.acquire(INTERACTIVE, in(10)));
+        assertEquals(1, meterRegistry.get("test.rejected").tag("priority", "interactive").counter().count());
+        long start = System.nanoTime();
+        assertTrue(scheduler.acquire(INTERACTIVE, in(1000)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void interactiveRequestsAreAdmittedBeforeWaitingBackgroundRequests() throws Exception {
+        KlassRequestScheduler scheduler = new KlassRequestScheduler("test", 10, 1, 100, meterRegistry);
+        assertTrue(scheduler.acquire(INTERACTIVE, in(0)));
+        List<KlassRequestScheduler.Priority> admitted = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> background = CompletableFuture.runAsync(() -> acquire(scheduler, BACKGROUND, admitted));
+        Thread.sleep(20);
+        CompletableFuture<Void> interactive = CompletableFuture.runAsync(() -> acquire(scheduler, INTERACTIVE, admitted));
+        CompletableFuture.allOf(background, interactive).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(INTERACTIVE, BACKGROUND), admitted);
+    }
+
+    @Test
+    void backgroundRequestsOnlyGetTheirShareOfTheBurst() throws InterruptedException {
+        KlassRequestScheduler scheduler = new KlassRequestScheduler("test", 1, 10, 20, meterRegistry);
+        assertTrue(scheduler.acquire(BACKGROUND, in(0)));
+        assertTrue(scheduler.acquire(BACKGROUND, in(0)));
+        assertFalse(scheduler.acquire(BACKGROUND, in(0)));
+        assertTrue(scheduler.acquire(INTERACTIVE, in(0)));
+    }
+
+    private static void acquire(KlassRequestScheduler scheduler, KlassRequestScheduler.Priority priority, List<KlassRequestScheduler.Priority> admitted) {
+        try {
+            if (scheduler.acquire(priority, in(5000)))
+                admitted.add(priority);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package no.ssb.subsetsservice.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KlassSnapshotTest {
+
+    private final KlassDocumentParser parser = new KlassDocumentParser(new JsonFactory());
+
+    private KlassDocument parse(String url, String json, String eTag) throws IOException {
+        return parser.parse(url, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), eTag, null);
+    }
+
+    @Test
+    void documentsAreReadBackFromTheMappedFile(@TempDir Path directory) throws IOException {
+        KlassDocument classification = parse("https://klass/v1/classifications/131.json",
+                "{\"statisticalUnits\":[\"Kommune\"],\"versions\":[{\"validFrom\":\"2020-01-01\",\"validTo\":null,\"_links\":{\"self\":{\"href\":\"https://klass/v1/versions/1160\"}}}]}",
+                "\"abc\"");
+        KlassDocument version = parse("https://klass/v1/versions/1160.json?language=nb",
+                "{\"classificationItems\":[{\"code\":\"1144\",\"name\":\"Kvitsøy\",\"level\":\"1\"},{\"code\":\"0301\",\"name\":\"Oslo\",\"notes\":\"Hovedstaden\",\"level\":\"1\"},{\"code\":\"1103\",\"name\":\"Stavanger\"}]}",
+                null);
+        Path path = directory.resolve("klass.snapshot");
+        assertEquals(2, KlassSnapshot.write(path, List.of(classification, version, version)));
+
+        KlassSnapshot snapshot = KlassSnapshot.open(path);
+        assertEquals(2, snapshot.size());
+        assertNull(snapshot.get("https://klass/v1/classifications/999.json"));
+
+        KlassDocument mappedClassification = snapshot.get(classification.getUrl());
+        assertEquals("\"abc\"", mappedClassification.getETag());
+        assertEquals(classification.getFetchedAtMillis(), mappedClassification.getFetchedAtMillis());
+        assertEquals(List.of("Kommune"), mappedClassification.getClassification().getStatisticalUnits());
+        assertEquals("2020-01-01", mappedClassification.getClassification().getVersions().get(0).getValidFrom());
+        assertNull(mappedClassification.getClassification().getVersions().get(0).getValidTo());
+        assertEquals("https://klass/v1/versions/1160", mappedClassification.getClassification().getVersions().get(0).getHref());
+
+        KlassVersionIndex index = snapshot.get(version.getUrl()).getVersionIndex();
+        assertEquals(3, index.size());
+        assertEquals("Oslo", index.get("0301").getName());
+        assertEquals("Hovedstaden", index.get("0301").getNotes());
+        assertEquals("Kvitsøy", index.get("1144").getName());
+        assertNull(index.get("1103").getLevel());
+        assertNull(index.get("0000"));
+        assertNull(index.get("9999"));
+        List<String> codes = new ArrayList<>();
+        index.items().forEach(item -> codes.add(item.getCode()));
+        assertEquals(List.of("0301", "1103", "1144"), codes);
+    }
+
+    @Test
+    void incompleteFileIsRejected(@TempDir Path directory) throws IOException {
+        Path path = directory.resolve("klass.snapshot");
+        KlassSnapshot.write(path, List.of(parse("https://klass/v1/versions/1.json", "{\"classificationItems\":[{\"code\":\"01\"}]}", null)));
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> KlassSnapshot.open(path));
+    }
+
+    @Test
+    void restartedResolverIsServedFromTheSnapshot(@TempDir Path directory) throws IOException {
+        Path path = directory.resolve("klass.snapshot");
+        try (KlassStubServer stub = new KlassStubServer(KlassStubServer.DEFAULT_FIXTURES, 0).start()) {
+            KlassURNResolver before = new KlassURNResolver(stub.getBaseUrl(), new SimpleMeterRegistry());
+            String versionURL = before.getClassification("131").getVersions().get(0).getHref() + ".json?language=nb";
+            before.getVersionIndex(versionURL);
+            assertEquals(2, stub.getRequestCount());
+            KlassSnapshot.write(path, before.getDocumentCache().documents());
+
+            KlassURNResolver after = new KlassURNResolver(stub.getBaseUrl(), new SimpleMeterRegistry());
+            after.setSnapshot(KlassSnapshot.open(path));
+            assertEquals("Kvitsøy", after.getVersionIndex(versionURL).get("1144").getName());
+            assertEquals(List.of("Kommune"), after.getClassification("131").getStatisticalUnits());
+            assertEquals(2, stub.getRequestCount());
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package no.ssb.subsetsservice.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the KLASS api, serving recorded KLASS documents from fixture files, so that the enrichment
+ * can be tested and profiled without data.ssb.no. Point the service at it with API_KLASS=getBaseUrl().
+ * <p>
+ * A request for {base}/v1/versions/1160.json?language=nb is served from the fixture v1/versions/1160@language=nb.json,
+ * see fixtureName. Links to data.ssb.no in the fixtures are rewritten to the stub, so that the version links of a
+ * classification lead back to the stub. Responses have an ETag, and conditional GETs are answered with 304.
+ * <p>
+ * Artificial latency and error injection can be switched on to see how the service behaves when KLASS is slow or failing.
+ * In recorder mode, requests that have no fixture are forwarded to a real KLASS, and the answer is saved as a new fixture.
+ * <p>
+ * Run main to start it standalone, configured with KLASS_STUB_* environment variables.
+ */
+public class KlassStubServer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KlassStubServer.class);
+
+    public static final String BASE_PATH = "/api/klass";
+    public static final Path DEFAULT_FIXTURES = Path.of("src", "test", "resources", "klass");
+
+    private static final String ENV_PORT = "KLASS_STUB_PORT";
+    private static final String ENV_FIXTURES = "KLASS_STUB_FIXTURES";
+    private static final String ENV_LATENCY_MS = "KLASS_STUB_LATENCY_MS";
+    private static final String ENV_JITTER_MS = "KLASS_STUB_JITTER_MS";
+    private static final String ENV_ERROR_PERCENT = "KLASS_STUB_ERROR_PERCENT";
+    private static final String ENV_ERROR_STATUS = "KLASS_STUB_ERROR_STATUS";
+    private static final String ENV_RECORD_FROM = "KLASS_STUB_RECORD_FROM";
+    private static final String ENV_SEED = "KLASS_STUB_SEED";
+
+    private static final int MAX_QUERY_IN_FILE_NAME = 120;
+
+    private final Path fixtures;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "klass-stub");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger requests = new AtomicInteger();
+    private Random random = new Random();
+    private Duration latency = Duration.ZERO;
+    private Duration jitter = Duration.ZERO;
+    private int errorPercent = 0;
+    private int errorStatus = 503;
+    private String recordFrom = null;
+    private HttpClient recordingClient = null;
+
+    /**
+     * @param fixtures directory of the recorded KLASS documents
+     * @param port to listen on, or 0 for any free port
+     */
+    public KlassStubServer(Path fixtures, int port) throws IOException {
+        this.fixtures = fixtures;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(BASE_PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Delay every response by the latency plus a random part up to the jitter.
+     */
+    public KlassStubServer withLatency(Duration latency, Duration jitter) {
+        this.latency = latency;
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * Answer the given percentage of requests with the given status instead of the document.
+     */
+    public KlassStubServer withErrors(int percent, int status) {
+        this.errorPercent = percent;
+        this.errorStatus = status;
+        return this;
+    }
+
+    /**
+     * Seed the randomness of the latency jitter and the error injection, to make runs reproducible.
+     */
+    public KlassStubServer withSeed(long seed) {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    /**
+     * Forward requests that have no fixture to the KLASS api at the given base URL, and save successful answers as fixtures.
+     */
+    public KlassStubServer recordingFrom(String klassBaseUrl) {
+        this.recordFrom = klassBaseUrl;
+        this.recordingClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        return this;
+    }
+
+    public KlassStubServer start() {
+        server.start();
+        LOG.info("KLASS stub serving " + fixtures.toAbsolutePath() + " at " + getBaseUrl() + (recordFrom != null ? ", recording from " + recordFrom : ""));
+        return this;
+    }
+
+    /**
+     * @return the value to give API_KLASS to use the stub
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + BASE_PATH;
+    }
+
+    /**
+     * @return the number of requests received, including the ones answered with an injected error
+     */
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * The fixture file name of a request: the path after the base path, with the query (if any) inserted before the extension
+     * after an '@'. Characters that do not belong in file names are replaced with '_', and queries too long for a file name are hashed.
+     */
+    static String fixtureName(String path, String query) {
+        String name = path.startsWith("/") ? path.substring(1) : path;
+        if (!name.endsWith(".json"))
+            name = name + ".json";
+        if (query == null || query.isEmpty())
+            return name;
+        String safeQuery = query.length() > MAX_QUERY_IN_FILE_NAME ? "sha256-" + sha256(query).substring(0, 32) : query.replaceAll("[^A-Za-z0-9=&,._-]", "_");
+        return name.substring(0, name.length() - ".json".length()) + "@" + safeQuery + ".json";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            String path = exchange.getRequestURI().getRawPath().substring(BASE_PATH.length());
+            String query = exchange.getRequestURI().getRawQuery();
+            delay();
+            if (errorPercent > 0 && random(100) < errorPercent) {
+                LOG.debug("KLASS stub injecting " + errorStatus + " for " + path);
+                respond(exchange, errorStatus, "{\"error\":\"injected by the KLASS stub\"}".getBytes(StandardCharsets.UTF_8), null);
+                return;
+            }
+            if (path.startsWith("/ping")) {
+                respond(exchange, 200, "pong".getBytes(StandardCharsets.UTF_8), null);
+                return;
+            }
+            Path fixture = fixtures.resolve(fixtureName(path, query)).normalize();
+            if (!fixture.startsWith(fixtures.normalize())) {
+                respond(exchange, 400, "{\"error\":\"illegal path\"}".getBytes(StandardCharsets.UTF_8), null);
+                return;
+            }
+            if (!Files.isRegularFile(fixture) && recordFrom != null)
+                record(path, query, fixture);
+            if (!Files.isRegularFile(fixture)) {
+                LOG.debug("KLASS stub has no fixture " + fixture);
+                respond(exchange, 404, ("{\"error\":\"no fixture " + fixtureName(path, query) + "\"}").getBytes(StandardCharsets.UTF_8), null);
+                return;
+            }
+            byte[] body = new String(Files.readAllBytes(fixture), StandardCharsets.UTF_8)
+                    .replace(KlassURNResolver.DEFAULT_KLASS_BASE_URL, getBaseUrl())
+                    .getBytes(StandardCharsets.UTF_8);
+            String eTag = "\"" + sha256(body).substring(0, 16) + "\"";
+            if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.getResponseHeaders().set("ETag", eTag);
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            respond(exchange, 200, body, eTag);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Forward the request to the real KLASS, and save a successful answer as the fixture.
+     * Links to the recorded KLASS are saved as links to data.ssb.no, so that the fixtures do not depend on where they were recorded from.
+     */
+    private void record(String path, String query, Path fixture) throws IOException, InterruptedException {
+        URI upstream = URI.create(recordFrom + path + (query != null ? "?" + query : ""));
+        HttpResponse<String> response = recordingClient.send(
+                HttpRequest.newBuilder(upstream).header("Accept", "application/json").timeout(Duration.ofSeconds(60)).GET().build(),
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (response.statusCode() != 200) {
+            LOG.warn("KLASS stub could not record " + upstream + ", status " + response.statusCode());
+            return;
+        }
+        Files.createDirectories(fixture.getParent());
+        Files.writeString(fixture, response.body().replace(recordFrom, KlassURNResolver.DEFAULT_KLASS_BASE_URL), StandardCharsets.UTF_8);
+        LOG.info("KLASS stub recorded " + upstream + " as " + fixture);
+    }
+
+    private void delay() throws InterruptedException {
+        long millis = latency.toMillis() + (jitter.isZero() ? 0 : random((int) jitter.toMillis() + 1));
+        if (millis > 0)
+            Thread.sleep(millis);
+    }
+
+    private synchronized int random(int bound) {
+        return random.nextInt(bound);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body, String eTag) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        if (eTag != null)
+            exchange.getResponseHeaders().set("ETag", eTag);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String sha256(String s) {
+        return sha256(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes))
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Start the stub standalone, e.g. from the IDE, and run the service with API_KLASS set to the printed base URL.
+     */
+    public static void main(String[] args) throws IOException {
+        String fixturesDir = System.getenv(ENV_FIXTURES);
+        KlassStubServer stub = new KlassStubServer(fixturesDir != null ? Path.of(fixturesDir) : DEFAULT_FIXTURES, Utils.getEnvInt(ENV_PORT, 8181))
+                .withLatency(Duration.ofMillis(Utils.getEnvInt(ENV_LATENCY_MS, 0)), Duration.ofMillis(Utils.getEnvInt(ENV_JITTER_MS, 0)))
+                .withErrors(Utils.getEnvInt(ENV_ERROR_PERCENT, 0), Utils.getEnvInt(ENV_ERROR_STATUS, 503));
+        if (System.getenv(ENV_SEED) != null)
+            stub.withSeed(Utils.getEnvInt(ENV_SEED, 0));
+        if (System.getenv(ENV_RECORD_FROM) != null)
+            stub.recordingFrom(System.getenv(ENV_RECORD_FROM));
+        stub.start();
+        System.out.println("API_KLASS=" + stub.getBaseUrl());
+    }
+}
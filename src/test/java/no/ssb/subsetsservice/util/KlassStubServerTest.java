@@ -0,0 +1,73 @@
+package no.ssb.subsetsservice.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KlassStubServerTest {
+
+    @Test
+    void fixtureNameIncludesTheQuery() {
+        assertEquals("v1/classifications/131.json", KlassStubServer.fixtureName("/v1/classifications/131.json", null));
+        assertEquals("v1/versions/1160@language=nb.json", KlassStubServer.fixtureName("/v1/versions/1160.json", "language=nb"));
+        assertEquals("v1/versions/1160.json", KlassStubServer.fixtureName("/v1/versions/1160", ""));
+        assertEquals("v1/classifications/131/codes@from=2020-01-01&selectCodes=0301,1144_20.json",
+                KlassStubServer.fixtureName("/v1/classifications/131/codes.json", "from=2020-01-01&selectCodes=0301,1144%20"));
+        assertTrue(KlassStubServer.fixtureName("/v1/classifications/131/codes.json", "selectCodes=" + "0301,".repeat(100)).contains("@sha256-"));
+    }
+
+    @Test
+    void servesRecordedClassificationAndVersionsWithLinksToTheStub() throws IOException {
+        try (KlassStubServer stub = new KlassStubServer(KlassStubServer.DEFAULT_FIXTURES, 0).start()) {
+            KlassURNResolver resolver = new KlassURNResolver(stub.getBaseUrl(), new SimpleMeterRegistry());
+            KlassClassification classification = resolver.getClassification("131");
+            assertEquals("2020-01-01", classification.getVersions().get(0).getValidFrom());
+            String versionURL = classification.getVersions().get(0).getHref();
+            assertTrue(versionURL.startsWith(stub.getBaseUrl()));
+            assertEquals("Kvitsøy", resolver.getVersionIndex(versionURL + ".json?language=nb").get("1144").getName());
+
+            KlassFetchException e = assertThrows(KlassFetchException.class, () -> resolver.getClassification("999999"));
+            assertEquals(HttpStatus.NOT_FOUND, e.getStatus());
+        }
+    }
+
+    @Test
+    void injectsErrorsAndLatency() throws IOException {
+        try (KlassStubServer stub = new KlassStubServer(KlassStubServer.DEFAULT_FIXTURES, 0)
+                .withErrors(100, 503)
+                .withLatency(Duration.ofMillis(50), Duration.ZERO)
+                .start()) {
+            KlassHttpClient client = new KlassHttpClient(new SimpleMeterRegistry());
+            long start = System.nanoTime();
+            KlassFetchException e = assertThrows(KlassFetchException.class, () -> client.getDocument(stub.getBaseUrl() + "/v1/classifications/131.json"));
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatus());
+            assertTrue(stub.getRequestCount() > 1, "503 is retried");
+            assertTrue(System.nanoTime() - start >= Duration.ofMillis(50L * stub.getRequestCount()).toNanos());
+        }
+    }
+
+    @Test
+    void recordsMissingFixturesFromUpstream(@TempDir Path recorded) throws IOException {
+        try (KlassStubServer upstream = new KlassStubServer(KlassStubServer.DEFAULT_FIXTURES, 0).start();
+             KlassStubServer recorder = new KlassStubServer(recorded, 0).recordingFrom(upstream.getBaseUrl()).start()) {
+            KlassHttpClient client = new KlassHttpClient(new SimpleMeterRegistry());
+            client.getDocument(recorder.getBaseUrl() + "/v1/classifications/131.json");
+            assertEquals(1, upstream.getRequestCount());
+        }
+        String fixture = Files.readString(recorded.resolve("v1/classifications/131.json"));
+        assertTrue(fixture.contains(KlassURNResolver.DEFAULT_KLASS_BASE_URL + "/v1/versions/1160"));
+
+        try (KlassStubServer replay = new KlassStubServer(recorded, 0).start()) {
+            KlassDocument document = new KlassHttpClient(new SimpleMeterRegistry()).getDocument(replay.getBaseUrl() + "/v1/classifications/131.json");
+            assertEquals(replay.getBaseUrl() + "/v1/versions/1160", document.getClassification().getVersions().get(0).getHref());
+        }
+    }
+}
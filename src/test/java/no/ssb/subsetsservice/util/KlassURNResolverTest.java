@@ -1,7 +1,20 @@
 package no.ssb.subsetsservice.util;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import no.ssb.subsetsservice.util.KlassURNResolver;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -9,7 +22,77 @@ class KlassURNResolverTest {
 
     @Test
     void pingKLASSClassifications() {
-        boolean ping = new KlassURNResolver().pingKLASSClassifications();
+        boolean ping = new KlassURNResolver(new SimpleMeterRegistry()).pingKLASSClassifications();
         assertTrue(ping);
     }
+
+    @Test
+    void makeKLASSSelectCodesURLsChunksLongCodeLists() {
+        KlassURNResolver resolver = new KlassURNResolver(new SimpleMeterRegistry());
+        List<String> codes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            codes.add(String.format("%05d", i));
+        List<String> urls = resolver.makeKLASSSelectCodesURLs("6", "2020-01-01", null, codes, "nb");
+        assertTrue(urls.size() > 1);
+        List<String> selectedCodes = new ArrayList<>();
+        for (String url : urls) {
+            assertTrue(url.length() <= 2000);
+            assertFalse(url.contains("&to="));
+            selectedCodes.addAll(Arrays.asList(url.substring(url.indexOf("selectCodes=") + "selectCodes=".length()).split(",")));
+        }
+        assertEquals(codes, selectedCodes);
+    }
+
+    private static class MapStore implements KlassDocumentStore {
+        final Map<String, KlassDocument> documents = new ConcurrentHashMap<>();
+
+        @Override
+        public KlassDocument get(String url) {
+            return documents.get(url);
+        }
+
+        @Override
+        public void put(KlassDocument document) {
+            documents.merge(document.getUrl(), document, (stored, fetched) -> fetched.getFetchedAtMillis() > stored.getFetchedAtMillis() ? fetched : stored);
+        }
+    }
+
+    @Test
+    void coldReplicaIsServedFromTheSharedStore() throws IOException {
+        MapStore sharedStore = new MapStore();
+        try (KlassStubServer stub = new KlassStubServer(KlassStubServer.DEFAULT_FIXTURES, 0).start()) {
+            KlassURNResolver replica1 = new KlassURNResolver(stub.getBaseUrl(), new SimpleMeterRegistry());
+            replica1.setSharedStore(sharedStore);
+            replica1.getClassification("131");
+            assertEquals(1, stub.getRequestCount());
+            assertTrue(sharedStore.documents.containsKey(replica1.makeKLASSClassificationURL("131")));
+
+            KlassURNResolver replica2 = new KlassURNResolver(stub.getBaseUrl(), new SimpleMeterRegistry());
+            replica2.setSharedStore(sharedStore);
+            assertEquals(List.of("Kommune"), replica2.getClassification("131").getStatisticalUnits());
+            assertEquals(1, stub.getRequestCount());
+        }
+    }
+
+    @Test
+    void changeListenerIsToldWhenKlassPublishesAChange(@TempDir Path fixtures) throws IOException {
+        Path version = fixtures.resolve("v1/versions/1160@language=nb.json");
+        Files.createDirectories(version.getParent());
+        Files.copy(KlassStubServer.DEFAULT_FIXTURES.resolve("v1/versions/1160@language=nb.json"), version);
+        try (KlassStubServer stub = new KlassStubServer(fixtures, 0).start()) {
+            KlassURNResolver resolver = new KlassURNResolver(stub.getBaseUrl(), new SimpleMeterRegistry());
+            List<String> changed = new ArrayList<>();
+            resolver.addChangeListener((previous, current) -> changed.add(current.getUrl()));
+            String url = stub.getBaseUrl() + "/v1/versions/1160.json?language=nb";
+            assertEquals("Kvitsøy", resolver.getVersionIndex(url).get("1144").getName());
+
+            resolver.refresh(url, Duration.ZERO);
+            assertTrue(changed.isEmpty(), "Not modified is not a change");
+
+            Files.writeString(version, Files.readString(version, StandardCharsets.UTF_8).replace("Kvitsøy", "Kvitsøy kommune"), StandardCharsets.UTF_8);
+            resolver.refresh(url, Duration.ZERO);
+            assertEquals(List.of(url), changed);
+            assertEquals("Kvitsøy kommune", resolver.getVersionIndex(url).get("1144").getName());
+        }
+    }
 }
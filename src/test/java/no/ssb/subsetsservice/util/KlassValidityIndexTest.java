@@ -0,0 +1,75 @@
+package no.ssb.subsetsservice.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KlassValidityIndexTest {
+
+    private static KlassClassification.Version version(String validFrom, String validTo, String href) {
+        return new KlassClassification.Version(validFrom, validTo, href);
+    }
+
+    /**
+     * The string comparison addCodeVersions used before the index
+     */
+    private static List<String> scan(List<KlassClassification.Version> versions, String from, String to) {
+        List<String> links = new ArrayList<>();
+        for (KlassClassification.Version version : versions)
+            if (to == null || version.getValidFrom().compareTo(to) < 0)
+                if (version.getValidTo() == null || version.getValidTo().compareTo(from) > 0)
+                    links.add(version.getHref());
+        return links;
+    }
+
+    @Test
+    void findsTheOverlappingVersionsInDocumentOrder() {
+        KlassClassification classification = new KlassClassification(List.of(
+                version("2024-01-01", null, "v2024"),
+                version("2020-01-01", "2024-01-01", "v2020"),
+                version("2018-01-01", "2020-01-01", "v2018")), null);
+        KlassValidityIndex index = classification.getValidityIndex();
+        assertEquals(List.of("v2024", "v2020"), index.getVersionLinksOverlapping("2023-06-01", null));
+        assertEquals(List.of("v2024", "v2020"), index.getVersionLinksOverlapping("2023-06-01", "null"));
+        assertEquals(List.of("v2020"), index.getVersionLinksOverlapping("2020-01-01", "2024-01-01"));
+        assertEquals(List.of("v2020", "v2018"), index.getVersionLinksOverlapping("2019-12-31", "2020-01-02"));
+        assertEquals(List.of(), index.getVersionLinksOverlapping("2010-01-01", "2018-01-01"));
+        assertSame(index.getVersionLinksOverlapping("2023-06-01", null), index.getVersionLinksOverlapping("2023-06-01", null));
+        assertSame(index, classification.getValidityIndex());
+    }
+
+    @Test
+    void datesThatAreNotPlainIsoDatesAreComparedAsStrings() {
+        List<KlassClassification.Version> versions = List.of(version("2020-01-01", null, "a"), version("2018-01-01", "2020-01-01", "b"));
+        KlassValidityIndex index = new KlassClassification(versions, null).getValidityIndex();
+        assertEquals(scan(versions, "2019-06-01", ""), index.getVersionLinksOverlapping("2019-06-01", ""));
+        assertEquals(scan(versions, "2019-06-01T00:00:00", null), index.getVersionLinksOverlapping("2019-06-01T00:00:00", null));
+    }
+
+    @Test
+    void answersLikeTheScanForRandomVersions() {
+        Random random = new Random(42);
+        LocalDate epoch = LocalDate.of(2000, 1, 1);
+        for (int round = 0; round < 200; round++) {
+            List<KlassClassification.Version> versions = new ArrayList<>();
+            int count = random.nextInt(12);
+            for (int i = 0; i < count; i++) {
+                LocalDate from = epoch.plusDays(random.nextInt(3000));
+                String to = random.nextInt(5) == 0 ? null : from.plusDays(1 + random.nextInt(1500)).toString();
+                versions.add(version(from.toString(), to, "v" + i));
+            }
+            KlassValidityIndex index = new KlassClassification(versions, null).getValidityIndex();
+            for (int query = 0; query < 20; query++) {
+                LocalDate from = epoch.plusDays(random.nextInt(4000));
+                String to = random.nextInt(4) == 0 ? null : from.plusDays(1 + random.nextInt(1000)).toString();
+                assertEquals(scan(versions, from.toString(), to), index.getVersionLinksOverlapping(from.toString(), to),
+                        "round " + round + " query " + from + " - " + to);
+            }
+        }
+    }
+}
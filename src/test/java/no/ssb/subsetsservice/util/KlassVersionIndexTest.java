@@ -0,0 +1,29 @@
+package no.ssb.subsetsservice.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KlassVersionIndexTest {
+
+    @Test
+    void indexesClassificationItemsByCode() throws Exception {
+        JsonNode klassVersion = new ObjectMapper().readTree("{\"classificationItems\":[" +
+                "{\"code\":\"0301\",\"name\":\"Oslo\",\"notes\":\"\",\"level\":\"1\"}," +
+                "{\"code\":\"1144\",\"name\":\"Kvitsøy\",\"notes\":\"Note\",\"level\":\"1\"}," +
+                "{\"code\":\"1144\",\"name\":\"Duplicate\",\"notes\":\"\",\"level\":\"2\"}]}");
+        KlassVersionIndex index = KlassVersionIndex.of(klassVersion);
+        assertEquals(2, index.size());
+        assertEquals("Kvitsøy", index.get("1144").getName());
+        assertEquals("Note", index.get("1144").getNotes());
+        assertEquals("1", index.get("1144").getLevel());
+        assertNull(index.get("9999"));
+    }
+
+    @Test
+    void documentWithoutClassificationItemsGivesEmptyIndex() {
+        assertEquals(0, KlassVersionIndex.of(new ObjectMapper().createObjectNode()).size());
+    }
+}
@@ -0,0 +1,59 @@
+package no.ssb.subsetsservice.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    void concurrentCallersShareOneExecution() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("test", new SimpleMeterRegistry());
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> singleFlight.execute("url", () -> {
+                executions.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "document";
+            })));
+            while (executions.get() == 0)
+                Thread.sleep(1);
+            for (int i = 0; i < 3; i++)
+                futures.add(executor.submit(() -> singleFlight.execute("url", () -> {
+                    executions.incrementAndGet();
+                    return "other";
+                })));
+            while (singleFlight.getCoalescedCount() < 3)
+                Thread.sleep(1);
+            release.countDown();
+            for (Future<String> future : futures)
+                assertEquals("document", future.get(5, TimeUnit.SECONDS));
+            assertEquals(1, executions.get());
+            assertEquals(3, singleFlight.getCoalescedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void failureIsNotRemembered() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("test", new SimpleMeterRegistry());
+        assertThrows(IllegalStateException.class, () -> singleFlight.execute("url", () -> {
+            throw new IllegalStateException("KLASS is down");
+        }));
+        assertEquals("document", singleFlight.execute("url", () -> "document"));
+    }
+}